@@ -0,0 +1,135 @@
+/*
+ * BackendLoadBenchmark.java
+ * Queries against the fake backend, through the JSON encoder to a recording sink
+ *
+ * Covers the same path as the bridge minus the Android hops: FakeHealthDataSource serves
+ * generated per-minute records from several origins, the result is encoded the way the
+ * bridge sends it and handed to a RecordingMessageSink. The fan-out benchmark adds
+ * simulated Health Connect latency to measure many aggregates in flight at once.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BackendLoadBenchmark {
+
+    private static final long END_MILLIS = 1_700_000_000_000L;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int PAGE_SIZE = 5000;
+    private static final int FAN_OUT = 200;
+
+    @Param({"365"})
+    public int days;
+
+    @Param({"3"})
+    public int originCount;
+
+    private ScheduledExecutorService scheduler;
+    private FakeHealthDataSource immediate;
+    private FakeHealthDataSource delayed;
+    private RecordingMessageSink sink;
+    private long startMillis;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticStepData data = new SyntheticStepData(END_MILLIS, days, originCount, ZoneOffset.UTC, 1);
+        scheduler = Executors.newScheduledThreadPool(2);
+        immediate = new FakeHealthDataSource(data, scheduler);
+        delayed = new FakeHealthDataSource(data, scheduler);
+        delayed.setLatency(2, 3);
+        sink = new RecordingMessageSink();
+        startMillis = data.getStartMillis();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Every record of the span, page by page, as the bridge streams OnStepRecordsReceived
+     */
+    @Benchmark
+    public long streamAllRecords() throws Exception {
+        String token = null;
+        long total = 0;
+        int sequence = 0;
+        do {
+            StepRecordsPage page = immediate.readStepRecords(startMillis, END_MILLIS, PAGE_SIZE, token).get();
+            total += page.count;
+            String payload = JsonResultEncoder.encodeRecords(1, sequence++, page.isLastPage(), total,
+                page.counts, page.starts, page.ends, page.origins, page.count, startMillis, END_MILLIS);
+            sink.sendMessage("HealthConnectCallback", "OnStepRecordsReceived", payload);
+            token = page.nextPageToken;
+        } while (token != null);
+        return total;
+    }
+
+    /**
+     * Hourly buckets of the last week
+     */
+    @Benchmark
+    public String hourlyBucketsForWeek() throws Exception {
+        long weekStart = END_MILLIS - 7 * DAY_MILLIS;
+        StepIntervals buckets = immediate.aggregateStepsByDuration(weekStart, END_MILLIS, 60 * 60 * 1000L).get();
+        String payload = JsonResultEncoder.encodeBuckets(1, buckets.steps, buckets.starts, buckets.ends,
+            buckets.count, weekStart, END_MILLIS);
+        sink.sendMessage("HealthConnectCallback", "OnBucketedStepsReceived", payload);
+        return payload;
+    }
+
+    /**
+     * Daily buckets of the whole span
+     */
+    @Benchmark
+    public String dailyBucketsForSpan() throws Exception {
+        StepIntervals buckets = immediate.aggregateStepsByPeriod(startMillis, END_MILLIS, 1, ZoneOffset.UTC).get();
+        String payload = JsonResultEncoder.encodeBuckets(1, buckets.steps, buckets.starts, buckets.ends,
+            buckets.count, startMillis, END_MILLIS);
+        sink.sendMessage("HealthConnectCallback", "OnBucketedStepsReceived", payload);
+        return payload;
+    }
+
+    /**
+     * FAN_OUT daily aggregates in flight at once, each delayed by 2-5 ms
+     */
+    @Benchmark
+    public long concurrentDailyAggregates() throws Exception {
+        List<ListenableFuture<Long>> futures = new ArrayList<>(FAN_OUT);
+        for (int i = 0; i < FAN_OUT; i++) {
+            long dayEnd = END_MILLIS - (i % days) * DAY_MILLIS;
+            futures.add(delayed.aggregateSteps(dayEnd - DAY_MILLIS, dayEnd));
+        }
+
+        long total = 0;
+        for (Long steps : Futures.allAsList(futures).get()) {
+            total += steps;
+        }
+        sink.sendMessage("HealthConnectCallback", "OnStepsReceived",
+            JsonResultEncoder.encodeSteps(1, total, END_MILLIS - DAY_MILLIS, END_MILLIS, false));
+        return total;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * LookupBenchmark.java
+ * Per-request bookkeeping: in-flight coalescing, binary result handles and latency recording
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+@State(Scope.Thread)
+public class LookupBenchmark {
+
+    private static final String IN_FLIGHT_KEY = "aggregate:1700000000000:open:steps";
+    private static final String COMPLETED_KEY = "aggregate:1700000000000:1700003600000:steps";
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final BinaryResultRegistry registry = new BinaryResultRegistry();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryResultEncoder.HEADER_SIZE);
+
+    private final AsyncCallable<Long> neverCompletes = new AsyncCallable<Long>() {
+        @Override
+        public ListenableFuture<Long> call() {
+            return SettableFuture.create();
+        }
+    };
+
+    private final AsyncCallable<Long> completesImmediately = new AsyncCallable<Long>() {
+        @Override
+        public ListenableFuture<Long> call() {
+            return Futures.immediateFuture(1L);
+        }
+    };
+
+    private long sample;
+
+    @Setup
+    public void setUp() {
+        // Stays in flight, so every run below is coalesced onto it
+        singleFlight.run(IN_FLIGHT_KEY, neverCompletes);
+    }
+
+    @Benchmark
+    public ListenableFuture<Long> singleFlightCoalesced() {
+        return singleFlight.run(IN_FLIGHT_KEY, neverCompletes);
+    }
+
+    @Benchmark
+    public ListenableFuture<Long> singleFlightNewCall() {
+        return singleFlight.run(COMPLETED_KEY, completesImmediately);
+    }
+
+    @Benchmark
+    public ByteBuffer binaryResultRoundTrip() {
+        int handle = registry.register(buffer);
+        ByteBuffer result = registry.get(handle);
+        registry.release(handle);
+        return result;
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        sample = (sample * 6364136223846793005L + 1442695040888963407L) >>> 40;
+        histogram.record(sample);
+    }
+}
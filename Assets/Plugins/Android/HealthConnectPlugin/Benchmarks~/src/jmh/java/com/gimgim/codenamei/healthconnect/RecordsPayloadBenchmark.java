@@ -0,0 +1,64 @@
+/*
+ * RecordsPayloadBenchmark.java
+ * Step records page to Unity payload, JSON and binary
+ *
+ * Starts from the arrays the bridge fills from a ReadRecordsResponse; reading StepsRecord
+ * objects themselves needs the Android Health Connect classes and is not covered here.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+@State(Scope.Benchmark)
+public class RecordsPayloadBenchmark {
+
+    private static final String[] ORIGINS = {
+        "com.google.android.apps.fitness",
+        "com.sec.android.app.shealth",
+        "com.gimgim.codenamei"
+    };
+
+    @Param({"1000", "10000", "100000"})
+    public int recordCount;
+
+    private long[] counts;
+    private long[] starts;
+    private long[] ends;
+    private String[] origins;
+
+    @Setup
+    public void setUp() {
+        counts = new long[recordCount];
+        starts = new long[recordCount];
+        ends = new long[recordCount];
+        origins = new String[recordCount];
+
+        long time = 1_700_000_000_000L;
+        for (int i = 0; i < recordCount; i++) {
+            counts[i] = 40 + (i * 37) % 900;
+            starts[i] = time;
+            ends[i] = time + 60_000;
+            origins[i] = ORIGINS[i % ORIGINS.length];
+            time += 90_000;
+        }
+    }
+
+    @Benchmark
+    public String json() {
+        return JsonResultEncoder.encodeRecords(42, 0, true, recordCount, counts, starts, ends, origins,
+            recordCount, starts[0], ends[recordCount - 1]);
+    }
+
+    @Benchmark
+    public ByteBuffer binary() {
+        return BinaryResultEncoder.encodeRecords(42, 0, true, counts, starts, ends, origins,
+            recordCount, starts[0], ends[recordCount - 1]);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * ResultPayloadBenchmark.java
+ * Small per-request payloads: step totals, buckets and errors
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+@State(Scope.Benchmark)
+public class ResultPayloadBenchmark {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final long END = START + 7 * 24 * HourlyStepStore.HOUR_MILLIS;
+
+    // A week of hourly buckets
+    private final long[] steps = new long[168];
+    private final long[] starts = new long[168];
+    private final long[] ends = new long[168];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = (i * 131) % 2400;
+            starts[i] = START + i * HourlyStepStore.HOUR_MILLIS;
+            ends[i] = starts[i] + HourlyStepStore.HOUR_MILLIS;
+        }
+    }
+
+    @Benchmark
+    public String stepsJson() {
+        return JsonResultEncoder.encodeSteps(42, 8765, START, END, false);
+    }
+
+    @Benchmark
+    public ByteBuffer stepsBinary() {
+        return BinaryResultEncoder.encodeSteps(42, 8765, START, END, 0);
+    }
+
+    @Benchmark
+    public String bucketsJson() {
+        return JsonResultEncoder.encodeBuckets(42, steps, starts, ends, steps.length, START, END);
+    }
+
+    @Benchmark
+    public ByteBuffer bucketsBinary() {
+        return BinaryResultEncoder.encodeIntervals(BinaryResultEncoder.TYPE_BUCKETS, 42, steps, starts, ends,
+            steps.length, START, END);
+    }
+
+    @Benchmark
+    public String errorJson() {
+        return JsonResultEncoder.encodeError(42, "QueryFailed", "Rate limited, try again later");
+    }
+
+    @Benchmark
+    public String errorJsonEscaped() {
+        return JsonResultEncoder.encodeError(42, "QueryFailed",
+            "java.lang.IllegalStateException: \"aggregate\" failed\n\tat Binder.transact(Native Method)");
+    }
+}
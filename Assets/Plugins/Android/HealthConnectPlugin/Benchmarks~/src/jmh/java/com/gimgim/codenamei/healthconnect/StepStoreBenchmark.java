@@ -0,0 +1,66 @@
+/*
+ * StepStoreBenchmark.java
+ * Hourly step store: merging fetched hours and answering range sums
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+
+@State(Scope.Thread)
+public class StepStoreBenchmark {
+
+    // A year of history, with the last week still open
+    private static final int STORED_HOURS = 365 * 24;
+    private static final int OPEN_HOURS = 7 * 24;
+
+    private final long endHour = HourlyStepStore.hourOf(1_700_000_000_000L);
+    private final long startHour = endHour - STORED_HOURS;
+    private final long closeBeforeHour = endHour - OPEN_HOURS;
+
+    private HourlyStepStore store;
+    private long[][] refreshedWeek;
+
+    @Setup
+    public void setUp() {
+        // Never saved, the file is only needed by the constructor
+        store = new HourlyStepStore(new File("benchmark-store.bin"));
+
+        long[][] year = new long[STORED_HOURS][];
+        for (int i = 0; i < STORED_HOURS; i++) {
+            year[i] = new long[] { startHour + i, (i * 97) % 1800 };
+        }
+        store.putHours(startHour, endHour, year, closeBeforeHour);
+
+        refreshedWeek = new long[OPEN_HOURS][];
+        for (int i = 0; i < OPEN_HOURS; i++) {
+            refreshedWeek[i] = new long[] { closeBeforeHour + i, (i * 53) % 1500 };
+        }
+    }
+
+    @Benchmark
+    public HourlyStepStore mergeOpenWeek() {
+        store.putHours(closeBeforeHour, endHour, refreshedWeek, closeBeforeHour);
+        return store;
+    }
+
+    @Benchmark
+    public long sumToday() {
+        return store.sumHours(endHour - 24, endHour);
+    }
+
+    @Benchmark
+    public long sumMonth() {
+        return store.sumHours(endHour - 30 * 24, endHour);
+    }
+
+    @Benchmark
+    public long[] planFetchWeek() {
+        return store.planFetch(endHour - OPEN_HOURS, endHour);
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * HealthConnectException.java
+ * Plain-JVM stand-in for the platform android.health.connect.HealthConnectException
+ */
+
+package android.health.connect;
+
+public class HealthConnectException extends RuntimeException {
+
+    public static final int ERROR_RATE_LIMIT_EXCEEDED = 8;
+
+    private final int errorCode;
+
+    public HealthConnectException(int errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
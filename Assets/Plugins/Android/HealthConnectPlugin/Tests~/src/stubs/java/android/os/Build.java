@@ -0,0 +1,22 @@
+/*
+ * Build.java
+ * Plain-JVM stand-in for android.os.Build
+ *
+ * SDK_INT is not final here, so tests can pick the API level BridgeTrace sees.
+ */
+
+package android.os;
+
+public final class Build {
+
+    private Build() {
+    }
+
+    public static final class VERSION {
+        public static int SDK_INT = 0;
+    }
+
+    public static final class VERSION_CODES {
+        public static final int Q = 29;
+    }
+}
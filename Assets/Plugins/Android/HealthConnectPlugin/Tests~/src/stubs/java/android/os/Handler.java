@@ -0,0 +1,80 @@
+/*
+ * Handler.java
+ * Plain-JVM stand-in for android.os.Handler
+ *
+ * Only the calls the plugin makes on a Handler it is given. Delayed tasks do not run on
+ * their own: tests move the handler's clock forward with advance().
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Handler {
+
+    private final List<Delayed> tasks = new ArrayList<>(); // Guarded by this
+    private long nowMillis; // Guarded by this
+
+    public boolean post(Runnable runnable) {
+        return postDelayed(runnable, 0);
+    }
+
+    public synchronized boolean postDelayed(Runnable runnable, long delayMillis) {
+        tasks.add(new Delayed(runnable, nowMillis + Math.max(0, delayMillis)));
+        return true;
+    }
+
+    public synchronized void removeCallbacks(Runnable runnable) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            if (tasks.get(i).runnable == runnable) {
+                tasks.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Move the clock forward and run every task that became due, in due order
+     */
+    public void advance(long millis) {
+        long until;
+        synchronized (this) {
+            until = nowMillis + millis;
+        }
+
+        while (true) {
+            Delayed next = null;
+            synchronized (this) {
+                for (Delayed task : tasks) {
+                    if (task.dueMillis <= until && (next == null || task.dueMillis < next.dueMillis)) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    nowMillis = until;
+                    return;
+                }
+                tasks.remove(next);
+                nowMillis = next.dueMillis;
+            }
+            next.runnable.run();
+        }
+    }
+
+    /**
+     * Number of tasks still waiting
+     */
+    public synchronized int pendingCount() {
+        return tasks.size();
+    }
+
+    private static final class Delayed {
+        final Runnable runnable;
+        final long dueMillis;
+
+        Delayed(Runnable runnable, long dueMillis) {
+            this.runnable = runnable;
+            this.dueMillis = dueMillis;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/*
+ * RemoteException.java
+ * Plain-JVM stand-in for android.os.RemoteException
+ */
+
+package android.os;
+
+public class RemoteException extends Exception {
+
+    public RemoteException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+/*
+ * SystemClock.java
+ * Plain-JVM stand-in for android.os.SystemClock
+ */
+
+package android.os;
+
+public final class SystemClock {
+
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
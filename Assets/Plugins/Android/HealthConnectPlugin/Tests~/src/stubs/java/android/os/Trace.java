@@ -0,0 +1,60 @@
+/*
+ * Trace.java
+ * Plain-JVM stand-in for android.os.Trace
+ *
+ * Counts open sections and keeps the open async slices, so tests can check what was
+ * emitted. Capturing is off unless a test switches it on.
+ */
+
+package android.os;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public final class Trace {
+
+    private static boolean capturing;
+    private static int openSections;
+    private static final Set<String> openAsyncSections = new HashSet<>();
+
+    private Trace() {
+    }
+
+    public static boolean isEnabled() {
+        return capturing;
+    }
+
+    public static void beginSection(String sectionName) {
+        openSections++;
+    }
+
+    public static void endSection() {
+        openSections--;
+    }
+
+    public static void beginAsyncSection(String methodName, int cookie) {
+        openAsyncSections.add(methodName + "#" + cookie);
+    }
+
+    public static void endAsyncSection(String methodName, int cookie) {
+        openAsyncSections.remove(methodName + "#" + cookie);
+    }
+
+    public static void setCapturing(boolean value) {
+        capturing = value;
+    }
+
+    public static int getOpenSections() {
+        return openSections;
+    }
+
+    public static Set<String> getOpenAsyncSections() {
+        return openAsyncSections;
+    }
+
+    public static void reset() {
+        capturing = false;
+        openSections = 0;
+        openAsyncSections.clear();
+    }
+}
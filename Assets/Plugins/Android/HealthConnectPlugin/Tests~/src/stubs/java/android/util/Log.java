@@ -0,0 +1,16 @@
+/*
+ * Log.java
+ * Plain-JVM stand-in for android.util.Log; drops everything
+ */
+
+package android.util;
+
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+}
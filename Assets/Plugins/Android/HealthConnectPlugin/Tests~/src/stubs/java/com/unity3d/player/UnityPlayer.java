@@ -0,0 +1,15 @@
+/*
+ * UnityPlayer.java
+ * Plain-JVM stand-in for com.unity3d.player.UnityPlayer
+ *
+ * Tests replace the message sink, so nothing may reach UnitySendMessage.
+ */
+
+package com.unity3d.player;
+
+public class UnityPlayer {
+
+    public static void UnitySendMessage(String gameObject, String methodName, String message) {
+        throw new UnsupportedOperationException("No Unity player in tests");
+    }
+}
@@ -0,0 +1,113 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class BinaryResultEncoderTest {
+
+    @Test
+    public void headerIsLittleEndianWithFixedOffsets() {
+        ByteBuffer buffer = BinaryResultEncoder.encodeSteps(77, 1234, 1000, 2000, BinaryResultEncoder.FLAG_LOCAL_STORE);
+
+        assertTrue(buffer.isDirect());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+        assertEquals('H', buffer.get(0));
+        assertEquals('C', buffer.get(1));
+        assertEquals('B', buffer.get(2));
+        assertEquals('1', buffer.get(3));
+        assertEquals(BinaryResultEncoder.VERSION, buffer.getShort(4));
+        assertEquals(BinaryResultEncoder.TYPE_STEPS, buffer.getShort(6));
+        assertEquals(77, buffer.getLong(8));
+        assertEquals(0, buffer.getInt(16));
+        assertEquals(1, buffer.getInt(20));
+        assertEquals(BinaryResultEncoder.FLAG_LOCAL_STORE, buffer.getInt(24));
+        assertEquals(0, buffer.getInt(28));
+        assertEquals(1000, buffer.getLong(32));
+        assertEquals(2000, buffer.getLong(40));
+    }
+
+    @Test
+    public void stepsResultIsOneInterval() {
+        ByteBuffer buffer = BinaryResultEncoder.encodeSteps(1, 1234, 1000, 2000, 0);
+
+        assertEquals(0, buffer.position());
+        assertEquals(BinaryResultEncoder.HEADER_SIZE + BinaryResultEncoder.INTERVAL_SIZE, buffer.limit());
+        assertInterval(buffer, 0, 1234, 1000, 2000);
+    }
+
+    @Test
+    public void intervalsFollowTheHeaderInOrder() {
+        long[] steps = {10, 20, 30};
+        long[] starts = {0, 100, 200};
+        long[] ends = {100, 200, 300};
+
+        ByteBuffer buffer = BinaryResultEncoder.encodeIntervals(BinaryResultEncoder.TYPE_BUCKETS, 5, steps, starts, ends,
+            2, 0, 300);
+
+        assertEquals(BinaryResultEncoder.TYPE_BUCKETS, buffer.getShort(6));
+        assertEquals(2, buffer.getInt(20));
+        assertEquals(BinaryResultEncoder.HEADER_SIZE + 2 * BinaryResultEncoder.INTERVAL_SIZE, buffer.limit());
+        assertInterval(buffer, 0, 10, 0, 100);
+        assertInterval(buffer, 1, 20, 100, 200);
+    }
+
+    @Test
+    public void recordsShareOneStringTableEntryPerOrigin() {
+        long[] counts = {5, 6, 7};
+        long[] starts = {0, 10, 20};
+        long[] ends = {10, 20, 30};
+        String[] origins = {"com.a", "com.b", "com.a"};
+
+        ByteBuffer buffer = BinaryResultEncoder.encodeRecords(9, 3, true, counts, starts, ends, origins, 3, 0, 30);
+
+        assertEquals(BinaryResultEncoder.TYPE_RECORDS, buffer.getShort(6));
+        assertEquals(3, buffer.getInt(16));
+        assertEquals(3, buffer.getInt(20));
+        assertEquals(BinaryResultEncoder.FLAG_END_OF_STREAM, buffer.getInt(24));
+
+        int record = BinaryResultEncoder.HEADER_SIZE + BinaryResultEncoder.RECORD_SIZE;
+        assertEquals(6, buffer.getLong(record));
+        assertEquals(10, buffer.getLong(record + 8));
+        assertEquals(20, buffer.getLong(record + 16));
+        assertEquals(1, buffer.getInt(record + 24));
+        assertEquals(0, buffer.getInt(BinaryResultEncoder.HEADER_SIZE + 2 * BinaryResultEncoder.RECORD_SIZE + 24));
+
+        int table = BinaryResultEncoder.HEADER_SIZE + 3 * BinaryResultEncoder.RECORD_SIZE;
+        assertEquals(2, buffer.getInt(table));
+        assertEquals("com.a", readString(buffer, table + 4));
+        assertEquals("com.b", readString(buffer, table + 4 + 4 + 5));
+        assertEquals(table + 4 + 2 * (4 + 5), buffer.limit());
+    }
+
+    @Test
+    public void missingOriginIsWrittenAsEmptyString() {
+        ByteBuffer buffer = BinaryResultEncoder.encodeRecords(9, 0, false, new long[] {1}, new long[] {0},
+            new long[] {1}, new String[] {null}, 1, 0, 1);
+
+        int table = BinaryResultEncoder.HEADER_SIZE + BinaryResultEncoder.RECORD_SIZE;
+        assertEquals(0, buffer.getInt(24));
+        assertEquals(1, buffer.getInt(table));
+        assertEquals("", readString(buffer, table + 4));
+    }
+
+    private static void assertInterval(ByteBuffer buffer, int index, long steps, long start, long end) {
+        int offset = BinaryResultEncoder.HEADER_SIZE + index * BinaryResultEncoder.INTERVAL_SIZE;
+        assertEquals(steps, buffer.getLong(offset));
+        assertEquals(start, buffer.getLong(offset + 8));
+        assertEquals(end, buffer.getLong(offset + 16));
+    }
+
+    private static String readString(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
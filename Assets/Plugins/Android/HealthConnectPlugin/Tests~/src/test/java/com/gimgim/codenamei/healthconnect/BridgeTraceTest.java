@@ -0,0 +1,86 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Build;
+import android.os.Trace;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BridgeTraceTest {
+
+    @After
+    public void tearDown() {
+        BridgeTrace.setEnabled(false);
+        Build.VERSION.SDK_INT = 0;
+        Trace.reset();
+    }
+
+    @Test
+    public void disabledTracingEmitsNothing() {
+        Build.VERSION.SDK_INT = Build.VERSION_CODES.Q;
+        Trace.setCapturing(true);
+
+        assertFalse(BridgeTrace.begin(BridgeTrace.SECTION_ENCODE));
+        BridgeTrace.beginAsync(BridgeTrace.ASYNC_REQUEST, 1);
+
+        assertEquals(0, Trace.getOpenSections());
+        assertTrue(Trace.getOpenAsyncSections().isEmpty());
+    }
+
+    @Test
+    public void olderDevicesGetSectionsButNoAsyncSlices() {
+        BridgeTrace.setEnabled(true);
+        Build.VERSION.SDK_INT = Build.VERSION_CODES.Q - 1;
+
+        assertTrue(BridgeTrace.begin(BridgeTrace.SECTION_ENCODE));
+        BridgeTrace.beginAsync(BridgeTrace.ASYNC_REQUEST, 1);
+
+        assertEquals(1, Trace.getOpenSections());
+        assertTrue(Trace.getOpenAsyncSections().isEmpty());
+    }
+
+    @Test
+    public void newerDevicesOnlyEmitWhileCapturing() {
+        BridgeTrace.setEnabled(true);
+        Build.VERSION.SDK_INT = Build.VERSION_CODES.Q;
+
+        assertFalse(BridgeTrace.begin(BridgeTrace.SECTION_ENCODE));
+
+        Trace.setCapturing(true);
+        assertTrue(BridgeTrace.begin(BridgeTrace.SECTION_ENCODE));
+        BridgeTrace.beginAsync(BridgeTrace.ASYNC_REQUEST, 1);
+        assertEquals(1, Trace.getOpenSections());
+        assertEquals(1, Trace.getOpenAsyncSections().size());
+    }
+
+    @Test
+    public void sectionStaysBalancedWhenTracingIsSwitchedOff() {
+        BridgeTrace.setEnabled(true);
+        Build.VERSION.SDK_INT = Build.VERSION_CODES.Q;
+        Trace.setCapturing(true);
+
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_FLUSH);
+        BridgeTrace.setEnabled(false);
+        BridgeTrace.end(traced);
+
+        assertEquals(0, Trace.getOpenSections());
+    }
+
+    @Test
+    public void asyncSliceEndsWithTheCookieItBeganWith() {
+        BridgeTrace.setEnabled(true);
+        Build.VERSION.SDK_INT = Build.VERSION_CODES.Q;
+        Trace.setCapturing(true);
+        long requestId = (1L << 40) + 7;
+
+        BridgeTrace.beginAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        BridgeTrace.beginAsync(BridgeTrace.ASYNC_REQUEST, 7);
+        BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+
+        assertEquals(1, Trace.getOpenAsyncSections().size());
+    }
+}
@@ -0,0 +1,151 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FakeHealthDataSourceTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+    private static final long HOUR = 60 * 60 * 1000;
+
+    // Five days ending 2024-04-02 local, across the switch to summer time on 2024-03-31
+    private static final long END = LocalDate.of(2024, 4, 2).atStartOfDay(ZONE).toInstant().toEpochMilli();
+
+    private final SyntheticStepData data = new SyntheticStepData(END, 5, 3, ZONE, 42);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final FakeHealthDataSource source = new FakeHealthDataSource(data, scheduler);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void generationIsDeterministicForASeed() {
+        SyntheticStepData again = new SyntheticStepData(END, 5, 3, ZONE, 42);
+
+        assertEquals(data.getRecordCount(), again.getRecordCount());
+        assertEquals(data.sumSteps(data.getStartMillis(), END), again.sumSteps(again.getStartMillis(), END));
+        assertTrue(data.getRecordCount() > 0);
+    }
+
+    @Test
+    public void dedupedStepsPreferTheFirstOrigin() {
+        for (int i = 0; i < 5 * 24 * 60; i++) {
+            int phone = data.getSteps(0, i);
+            if (phone != 0) {
+                assertEquals(phone, data.getDedupedSteps(i));
+            } else {
+                assertEquals(0, data.getSteps(1, i));
+            }
+        }
+    }
+
+    @Test
+    public void partialMinutesAreLeftOut() {
+        long start = data.getStartMillis();
+
+        assertEquals(1, data.firstIndex(start + 1));
+        assertEquals(0, data.endIndex(start + SyntheticStepData.MINUTE_MILLIS - 1));
+        assertEquals(0, data.sumSteps(start + 1, start + 2 * SyntheticStepData.MINUTE_MILLIS - 1));
+        assertEquals(0, data.firstIndex(start - HOUR));
+        assertEquals(5 * 24 * 60, data.endIndex(END + HOUR));
+    }
+
+    @Test
+    public void recordPagesCoverEveryRecordInOrder() throws Exception {
+        long records = 0;
+        long lastStart = Long.MIN_VALUE;
+        String token = null;
+        do {
+            StepRecordsPage page = source.readStepRecords(data.getStartMillis(), END, 500, token).get();
+            for (int i = 0; i < page.count; i++) {
+                assertTrue(page.starts[i] >= lastStart);
+                lastStart = page.starts[i];
+            }
+            records += page.count;
+            token = page.nextPageToken;
+        } while (token != null);
+
+        assertEquals(data.getRecordCount(), records);
+    }
+
+    @Test
+    public void pageThatReachesTheEndHasNoToken() throws Exception {
+        int pageSize = (int) data.getRecordCount();
+        StepRecordsPage page = source.readStepRecords(data.getStartMillis(), END, pageSize, null).get();
+
+        assertNull(page.nextPageToken);
+        assertEquals(data.getRecordCount(), page.count);
+    }
+
+    @Test
+    public void bucketsAddUpToTheAggregate() throws Exception {
+        long total = source.aggregateSteps(data.getStartMillis(), END).get();
+
+        StepIntervals hourly = source.aggregateStepsByDuration(data.getStartMillis(), END, HOUR).get();
+        long sum = 0;
+        for (int i = 0; i < hourly.count; i++) {
+            assertEquals(HOUR, hourly.ends[i] - hourly.starts[i]);
+            sum += hourly.steps[i];
+        }
+        assertEquals(total, sum);
+    }
+
+    @Test
+    public void periodBucketsFollowLocalMidnight() throws Exception {
+        long start = LocalDate.of(2024, 3, 30).atStartOfDay(ZONE).toInstant().toEpochMilli();
+
+        StepIntervals days = source.aggregateStepsByPeriod(start, END, 1, ZONE).get();
+
+        assertEquals(3, days.count);
+        assertEquals(24 * HOUR, days.ends[0] - days.starts[0]);
+        assertEquals(23 * HOUR, days.ends[1] - days.starts[1]);
+        assertEquals(END, days.ends[2]);
+    }
+
+    @Test
+    public void derivedMetricsScaleWithSteps() throws Exception {
+        long[] values = source.aggregateMetrics(data.getStartMillis(), END,
+            new int[] {HealthMetrics.STEPS, HealthMetrics.EXERCISE_DURATION}).get();
+
+        assertEquals(data.sumSteps(data.getStartMillis(), END), values[0]);
+        assertEquals(values[0] * 600, values[1]);
+    }
+
+    @Test
+    public void injectedFailuresFailTheCall() throws Exception {
+        source.setFailureRate(1);
+
+        try {
+            source.aggregateSteps(data.getStartMillis(), END).get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            return;
+        }
+        throw new AssertionError("Expected an injected failure");
+    }
+
+    @Test
+    public void latencyCompletesOnTheScheduler() throws Exception {
+        source.setLatency(20, 0);
+
+        long startedAt = System.nanoTime();
+        long steps = source.aggregateSteps(data.getStartMillis(), END).get(5, TimeUnit.SECONDS);
+
+        assertEquals(data.sumSteps(data.getStartMillis(), END), steps);
+        assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+}
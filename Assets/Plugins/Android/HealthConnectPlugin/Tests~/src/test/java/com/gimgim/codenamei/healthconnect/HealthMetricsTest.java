@@ -0,0 +1,142 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HealthMetricsTest {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final long END_MILLIS = 1700000000000L;
+    private static final long START_MILLIS = END_MILLIS - 24 * HOUR_MILLIS;
+
+    private static final long NOT_READ = HealthMetrics.NOT_READ;
+    private static final int[] ALL = {
+        HealthMetrics.STEPS, HealthMetrics.DISTANCE, HealthMetrics.ACTIVE_CALORIES, HealthMetrics.EXERCISE_DURATION
+    };
+
+    private ScheduledExecutorService scheduler;
+    private FakeHealthDataSource fake;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        fake = new FakeHealthDataSource(new SyntheticStepData(END_MILLIS, 2, 2, ZoneOffset.UTC, 1), scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void metricsWithoutReadPermissionAreNotRead() throws Exception {
+        fake.setGrantedPermissions(permissions(FakeHealthDataSource.PERMISSION_READ_STEPS,
+            FakeHealthDataSource.PERMISSION_READ_EXERCISE));
+        Set<String> granted = fake.getGrantedPermissions().get();
+
+        int[] read = HealthMetrics.readable(ALL, granted);
+        long[] values = HealthMetrics.expand(read, fake.aggregateMetrics(START_MILLIS, END_MILLIS, read).get());
+
+        long steps = fake.getData().sumSteps(START_MILLIS, END_MILLIS);
+        assertArrayEquals(new int[] {HealthMetrics.STEPS, HealthMetrics.EXERCISE_DURATION}, read);
+        assertEquals(steps, values[HealthMetrics.STEPS]);
+        assertEquals(NOT_READ, values[HealthMetrics.DISTANCE]);
+        assertEquals(NOT_READ, values[HealthMetrics.ACTIVE_CALORIES]);
+        assertFalse(values[HealthMetrics.EXERCISE_DURATION] == NOT_READ);
+    }
+
+    @Test
+    public void nothingIsReadWithoutAnyPermission() {
+        int[] read = HealthMetrics.readable(ALL, Collections.<String>emptySet());
+
+        assertEquals(0, read.length);
+        assertArrayEquals(new long[] {NOT_READ, NOT_READ, NOT_READ, NOT_READ}, HealthMetrics.expand(read, new long[0]));
+    }
+
+    @Test
+    public void unknownGrantsReadEveryMetricOnceInIdOrder() {
+        int[] requested = {HealthMetrics.EXERCISE_DURATION, HealthMetrics.STEPS, HealthMetrics.EXERCISE_DURATION};
+
+        assertArrayEquals(new int[] {HealthMetrics.STEPS, HealthMetrics.EXERCISE_DURATION},
+            HealthMetrics.readable(requested, null));
+    }
+
+    @Test
+    public void permissionsMatchHealthConnectNames() {
+        assertEquals(FakeHealthDataSource.PERMISSION_READ_STEPS, HealthMetrics.readPermission(HealthMetrics.STEPS));
+        assertEquals(FakeHealthDataSource.PERMISSION_READ_DISTANCE, HealthMetrics.readPermission(HealthMetrics.DISTANCE));
+        assertEquals(FakeHealthDataSource.PERMISSION_READ_ACTIVE_CALORIES,
+            HealthMetrics.readPermission(HealthMetrics.ACTIVE_CALORIES));
+        assertEquals(FakeHealthDataSource.PERMISSION_READ_EXERCISE,
+            HealthMetrics.readPermission(HealthMetrics.EXERCISE_DURATION));
+    }
+
+    @Test
+    public void valuesAreRoundedToWholeUnits() {
+        assertEquals(1234, HealthMetrics.fromMeters(1234.49));
+        assertEquals(1235, HealthMetrics.fromMeters(1234.5));
+        assertEquals(0, HealthMetrics.fromKilocalories(0.49));
+        assertEquals(88, HealthMetrics.fromKilocalories(87.6));
+        assertEquals(5400000, HealthMetrics.fromDuration(Duration.ofMinutes(90).plusNanos(999999)));
+    }
+
+    @Test
+    public void payloadHasAFieldForEveryMetric() {
+        long[] values = {1200, NOT_READ, 48, NOT_READ};
+
+        String json = JsonResultEncoder.encodeMetrics(7, values, 1000, 2000);
+
+        assertEquals("{\"success\":true,\"requestId\":7,\"steps\":1200,\"distanceMeters\":-1,\"activeCalories\":48,"
+            + "\"exerciseMillis\":-1,\"startTime\":1000,\"endTime\":2000,\"source\":\"HealthConnect\"}", json);
+    }
+
+    @Test
+    public void stepsAndStepsMetricsQueriesAreNotCoalesced() throws Exception {
+        fake.setLatency(100, 0);
+        SingleFlight singleFlight = new SingleFlight();
+        final int[] stepsOnly = {HealthMetrics.STEPS};
+        String stepsKey = CoalesceKeys.steps(START_MILLIS, END_MILLIS, false);
+        String metricsKey = CoalesceKeys.metrics(START_MILLIS, END_MILLIS, stepsOnly);
+
+        ListenableFuture<Long> steps = singleFlight.run(stepsKey, new AsyncCallable<Long>() {
+            @Override
+            public ListenableFuture<Long> call() {
+                return fake.aggregateSteps(START_MILLIS, END_MILLIS);
+            }
+        });
+        ListenableFuture<long[]> metrics = singleFlight.run(metricsKey, new AsyncCallable<long[]>() {
+            @Override
+            public ListenableFuture<long[]> call() {
+                return fake.aggregateMetrics(START_MILLIS, END_MILLIS, stepsOnly);
+            }
+        });
+
+        long expected = fake.getData().sumSteps(START_MILLIS, END_MILLIS);
+        assertFalse(stepsKey.equals(metricsKey));
+        assertEquals(expected, (long) steps.get(2, TimeUnit.SECONDS));
+        assertArrayEquals(new long[] {expected}, metrics.get(2, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.getCoalescedCalls());
+    }
+
+    private static Set<String> permissions(String... permissions) {
+        return new HashSet<>(Arrays.asList(permissions));
+    }
+}
@@ -0,0 +1,166 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HourlyStepStoreTest {
+
+    private static final long BASE = 480_000; // An epoch hour in 2024
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private HourlyStepStore store;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "steps.bin");
+        store = new HourlyStepStore(file);
+    }
+
+    @Test
+    public void emptyStoreKnowsNoHours() {
+        assertEquals(-1, store.sumHours(BASE, BASE + 1));
+        assertEquals(0, store.sumHours(BASE, BASE));
+        assertArrayEquals(new long[] {BASE, BASE + 24}, store.planFetch(BASE, BASE + 24));
+    }
+
+    @Test
+    public void hoursWithoutDataAreStoredAsZero() {
+        store.putHours(BASE, BASE + 10, new long[][] {{BASE + 2, 5}, {BASE + 5, 7}}, BASE);
+
+        assertEquals(12, store.sumHours(BASE, BASE + 10));
+        assertEquals(5, store.sumHours(BASE + 2, BASE + 3));
+        assertEquals(0, store.sumHours(BASE + 6, BASE + 10));
+    }
+
+    @Test
+    public void rangesReachingPastTheStoredHoursAreUnknown() {
+        store.putHours(BASE, BASE + 10, new long[][] {{BASE, 1}}, BASE);
+
+        assertEquals(-1, store.sumHours(BASE - 1, BASE + 1));
+        assertEquals(-1, store.sumHours(BASE + 9, BASE + 11));
+    }
+
+    @Test
+    public void finalHoursAreNotOverwritten() {
+        store.putHours(BASE, BASE + 24, new long[][] {{BASE + 1, 10}, {BASE + 20, 10}}, BASE + 12);
+        store.putHours(BASE, BASE + 24, new long[][] {{BASE + 1, 99}, {BASE + 20, 30}}, BASE + 12);
+
+        assertEquals(10, store.sumHours(BASE + 1, BASE + 2));
+        assertEquals(30, store.sumHours(BASE + 20, BASE + 21));
+    }
+
+    @Test
+    public void finalRangeNeedsNoFetch() {
+        store.putHours(BASE, BASE + 24, new long[0][], BASE + 24);
+
+        assertTrue(store.isClosed(BASE, BASE + 24));
+        assertNull(store.planFetch(BASE + 3, BASE + 20));
+    }
+
+    @Test
+    public void openHoursAreFetchedAgain() {
+        store.putHours(BASE, BASE + 24, new long[0][], BASE + 12);
+
+        assertFalse(store.isClosed(BASE, BASE + 24));
+        assertArrayEquals(new long[] {BASE + 12, BASE + 24}, store.planFetch(BASE + 5, BASE + 24));
+    }
+
+    @Test
+    public void reopenedHoursTakeLateData() {
+        store.putHours(BASE, BASE + 24, new long[][] {{BASE + 20, 10}}, BASE + 24);
+
+        store.reopen(BASE + 12);
+        assertArrayEquals(new long[] {BASE + 12, BASE + 24}, store.planFetch(BASE, BASE + 24));
+
+        store.putHours(BASE + 12, BASE + 24, new long[][] {{BASE + 20, 25}}, BASE + 12);
+        assertEquals(25, store.sumHours(BASE, BASE + 24));
+    }
+
+    @Test
+    public void reopenNeverClosesHours() {
+        store.putHours(BASE, BASE + 24, new long[0][], BASE + 12);
+
+        store.reopen(BASE + 20);
+
+        assertArrayEquals(new long[] {BASE + 12, BASE + 24}, store.planFetch(BASE, BASE + 24));
+    }
+
+    @Test
+    public void shortGapAfterTheStoredHoursIsBridged() {
+        store.putHours(BASE, BASE + 24, new long[0][], BASE + 24);
+
+        assertArrayEquals(new long[] {BASE + 24, BASE + 40}, store.planFetch(BASE + 30, BASE + 40));
+    }
+
+    @Test
+    public void shortGapBeforeTheStoredHoursIsBridged() {
+        store.putHours(BASE, BASE + 24, new long[0][], BASE + 24);
+
+        assertArrayEquals(new long[] {BASE - 30, BASE}, store.planFetch(BASE - 30, BASE - 20));
+    }
+
+    @Test
+    public void longGapFetchesOnlyTheQueryAndRebasesTheStore() {
+        store.putHours(BASE, BASE + 24, new long[][] {{BASE, 4}}, BASE + 24);
+        long start = BASE + 24 + HourlyStepStore.MAX_FETCH_HOURS + 10;
+
+        long[] fetch = store.planFetch(start, start + 24);
+        assertArrayEquals(new long[] {start, start + 24}, fetch);
+
+        store.putHours(fetch[0], fetch[1], new long[][] {{start + 1, 8}}, start);
+        assertEquals(8, store.sumHours(start, start + 24));
+        assertEquals(-1, store.sumHours(BASE, BASE + 24));
+    }
+
+    @Test
+    public void queryLongerThanTheCapIsNotCut() {
+        store.putHours(BASE, BASE + 24, new long[0][], BASE + 24);
+        long end = BASE + 24 + 2 * HourlyStepStore.MAX_FETCH_HOURS;
+
+        assertArrayEquals(new long[] {BASE + 24, end}, store.planFetch(BASE + 24, end));
+    }
+
+    @Test
+    public void savedStoreLoadsBack() throws IOException {
+        store.putHours(BASE, BASE + 48, new long[][] {{BASE, 3}, {BASE + 47, 9}}, BASE + 24);
+        store.save();
+
+        HourlyStepStore loaded = new HourlyStepStore(file);
+        loaded.load();
+
+        assertEquals(12, loaded.sumHours(BASE, BASE + 48));
+        assertTrue(loaded.isClosed(BASE, BASE + 24));
+        assertFalse(loaded.isClosed(BASE, BASE + 25));
+        assertEquals(-1, loaded.sumHours(BASE, BASE + 49));
+    }
+
+    @Test
+    public void missingFileLoadsEmpty() throws IOException {
+        store.load();
+
+        assertEquals(-1, store.sumHours(BASE, BASE + 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFileFormatIsRejected() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        }
+        store.load();
+    }
+}
@@ -0,0 +1,112 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JsonResultEncoderTest {
+
+    @Test
+    public void bucketsCarryTheirTotalAndRange() {
+        String json = JsonResultEncoder.encodeBuckets(3, new long[] {10, 20}, new long[] {0, 100},
+            new long[] {100, 200}, 2, 0, 200);
+
+        assertEquals("{\"success\":true,\"requestId\":3,\"buckets\":["
+            + "{\"steps\":10,\"startTime\":0,\"endTime\":100},"
+            + "{\"steps\":20,\"startTime\":100,\"endTime\":200}],"
+            + "\"count\":2,\"steps\":30,\"startTime\":0,\"endTime\":200,\"source\":\"HealthConnect\"}", json);
+    }
+
+    @Test
+    public void bucketsPastTheCountAreLeftOut() {
+        String json = JsonResultEncoder.encodeBuckets(3, new long[] {10, 99}, new long[] {0, 100},
+            new long[] {100, 200}, 1, 0, 200);
+
+        assertEquals("{\"success\":true,\"requestId\":3,\"buckets\":["
+            + "{\"steps\":10,\"startTime\":0,\"endTime\":100}],"
+            + "\"count\":1,\"steps\":10,\"startTime\":0,\"endTime\":200,\"source\":\"HealthConnect\"}", json);
+    }
+
+    @Test
+    public void emptyBucketsAreAnEmptyArray() {
+        String json = JsonResultEncoder.encodeBuckets(3, new long[0], new long[0], new long[0], 0, 0, 200);
+
+        assertEquals("{\"success\":true,\"requestId\":3,\"buckets\":[],"
+            + "\"count\":0,\"steps\":0,\"startTime\":0,\"endTime\":200,\"source\":\"HealthConnect\"}", json);
+    }
+
+    @Test
+    public void recordsPageCarriesItsPlaceInTheStream() {
+        String json = JsonResultEncoder.encodeRecords(4, 2, false, 250,
+            new long[] {12, 7}, new long[] {0, 60}, new long[] {60, 120}, new String[] {"com.a", null}, 2, 0, 600);
+
+        assertEquals("{\"success\":true,\"requestId\":4,\"records\":["
+            + "{\"count\":12,\"startTime\":0,\"endTime\":60,\"dataOrigin\":\"com.a\"},"
+            + "{\"count\":7,\"startTime\":60,\"endTime\":120,\"dataOrigin\":null}],"
+            + "\"count\":2,\"sequence\":2,\"endOfStream\":false,\"totalCount\":250,"
+            + "\"startTime\":0,\"endTime\":600}", json);
+    }
+
+    @Test
+    public void lastRecordsPageMayBeEmpty() {
+        String json = JsonResultEncoder.encodeRecords(4, 3, true, 250,
+            new long[1], new long[1], new long[1], new String[1], 0, 0, 600);
+
+        assertEquals("{\"success\":true,\"requestId\":4,\"records\":[],"
+            + "\"count\":0,\"sequence\":3,\"endOfStream\":true,\"totalCount\":250,"
+            + "\"startTime\":0,\"endTime\":600}", json);
+    }
+
+    @Test
+    public void stepsEchoTheRequestIdAndSource() {
+        assertEquals("{\"success\":true,\"requestId\":9007199254740993,\"steps\":1234,"
+            + "\"startTime\":0,\"endTime\":100,\"source\":\"LocalStore\"}",
+            JsonResultEncoder.encodeSteps(9007199254740993L, 1234, 0, 100, true));
+        assertEquals("{\"success\":true,\"requestId\":1,\"steps\":0,"
+            + "\"startTime\":0,\"endTime\":100,\"source\":\"HealthConnect\"}",
+            JsonResultEncoder.encodeSteps(1, 0, 0, 100, false));
+    }
+
+    @Test
+    public void errorsEchoTheRequestId() {
+        assertEquals("{\"success\":false,\"requestId\":5,\"errorCode\":\"QueryFailed\","
+            + "\"errorMessage\":\"Rate limited\"}",
+            JsonResultEncoder.encodeError(5, "QueryFailed", "Rate limited"));
+    }
+
+    @Test
+    public void errorsWithoutARequestOrMessageStillParse() {
+        assertEquals("{\"success\":false,\"requestId\":0,\"errorCode\":\"InitFailed\","
+            + "\"errorMessage\":\"Unknown error\"}",
+            JsonResultEncoder.encodeError(RequestTracker.NO_REQUEST_ID, "InitFailed", null));
+    }
+
+    @Test
+    public void rangesKeepTheRequestedOrder() {
+        String json = JsonResultEncoder.encodeRanges(6, new long[] {50, 0, 70}, new long[] {500, 0, 100},
+            new long[] {600, 100, 200});
+
+        assertEquals("{\"success\":true,\"requestId\":6,\"ranges\":["
+            + "{\"steps\":50,\"startTime\":500,\"endTime\":600},"
+            + "{\"steps\":0,\"startTime\":0,\"endTime\":100},"
+            + "{\"steps\":70,\"startTime\":100,\"endTime\":200}],"
+            + "\"count\":3,\"source\":\"HealthConnect\"}", json);
+    }
+
+    @Test
+    public void stepChangesReportTheSyncKind() {
+        assertEquals("{\"success\":true,\"requestId\":8,\"steps\":-40,\"upserted\":3,\"deleted\":1,"
+            + "\"fullResync\":false,\"startTime\":0,\"endTime\":100,\"source\":\"HealthConnect\"}",
+            JsonResultEncoder.encodeStepChanges(8, -40, 3, 1, false, 0, 100));
+    }
+
+    @Test
+    public void consecutivePayloadsDoNotShareState() {
+        String first = JsonResultEncoder.encodeSteps(1, 10, 0, 100, false);
+        String second = JsonResultEncoder.encodeError(2, "QueryFailed", "boom");
+
+        assertEquals(JsonResultEncoder.encodeSteps(1, 10, 0, 100, false), first);
+        assertEquals("{\"success\":false,\"requestId\":2,\"errorCode\":\"QueryFailed\","
+            + "\"errorMessage\":\"boom\"}", second);
+    }
+}
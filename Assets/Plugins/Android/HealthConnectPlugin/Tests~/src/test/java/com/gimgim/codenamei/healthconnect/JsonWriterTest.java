@@ -0,0 +1,76 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+    @Test
+    public void writesNestedObjectsAndArrays() {
+        String json = JsonWriter.obtain()
+            .beginObject()
+            .field("id", 7)
+            .field("ok", true)
+            .name("items").beginArray()
+            .value(1)
+            .beginObject().field("a", "b").endObject()
+            .value(false)
+            .endArray()
+            .name("empty").beginObject().endObject()
+            .endObject()
+            .finish();
+
+        assertEquals("{\"id\":7,\"ok\":true,\"items\":[1,{\"a\":\"b\"},false],\"empty\":{}}", json);
+    }
+
+    @Test
+    public void nullStringIsWrittenAsNull() {
+        String json = JsonWriter.obtain().beginObject().field("origin", (String) null).endObject().finish();
+
+        assertEquals("{\"origin\":null}", json);
+    }
+
+    @Test
+    public void quotesAndBackslashesAreEscaped() {
+        assertEquals("\"say \\\"hi\\\" \\\\ bye\"", string("say \"hi\" \\ bye"));
+    }
+
+    @Test
+    public void whitespaceControlCharactersUseShortEscapes() {
+        assertEquals("\"a\\nb\\rc\\td\"", string("a\nb\rc\td"));
+    }
+
+    @Test
+    public void otherControlCharactersUseUnicodeEscapes() {
+        assertEquals("\"\\u0000\\u001f\\u0008\"", string("\u0000\u001f\b"));
+    }
+
+    @Test
+    public void lineAndParagraphSeparatorsAreEscaped() {
+        assertEquals("\"\\u2028\\u2029\"", string("\u2028\u2029"));
+    }
+
+    @Test
+    public void otherCharactersArePassedThrough() {
+        assertEquals("\"com.ex\u00e4mple/\u6b65\u007f\"", string("com.ex\u00e4mple/\u6b65\u007f"));
+    }
+
+    @Test
+    public void namesAreEscapedLikeValues() {
+        String json = JsonWriter.obtain().beginObject().field("a\"b", 1).endObject().finish();
+
+        assertEquals("{\"a\\\"b\":1}", json);
+    }
+
+    @Test
+    public void obtainStartsAnEmptyPayload() {
+        JsonWriter.obtain().beginObject().field("stale", 1);
+
+        assertEquals("[]", JsonWriter.obtain().beginArray().endArray().finish());
+    }
+
+    private static String string(String value) {
+        return JsonWriter.obtain().value(value).finish();
+    }
+}
@@ -0,0 +1,114 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void valuesBelowEightHaveABucketEach() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketLowerBound(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+    }
+
+    @Test
+    public void powersOfTwoStartASubBucketRow() {
+        assertEquals(8, LatencyHistogram.bucketIndex(8));
+        assertEquals(15, LatencyHistogram.bucketIndex(15));
+        assertEquals(16, LatencyHistogram.bucketIndex(16));
+        assertEquals(16, LatencyHistogram.bucketIndex(17));
+        assertEquals(17, LatencyHistogram.bucketIndex(18));
+        assertEquals(24, LatencyHistogram.bucketIndex(32));
+    }
+
+    @Test
+    public void bucketsAreContiguousAndHoldTheirBounds() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long lower = LatencyHistogram.bucketLowerBound(i);
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(lower));
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            if (i + 1 < LatencyHistogram.BUCKET_COUNT) {
+                assertEquals(upper + 1, LatencyHistogram.bucketLowerBound(i + 1));
+            }
+        }
+    }
+
+    @Test
+    public void bucketWidthIsAtMostAnEighthOfItsLowerBound() {
+        for (int i = 8; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long lower = LatencyHistogram.bucketLowerBound(i);
+            long width = LatencyHistogram.bucketUpperBound(i) - lower + 1;
+            assertTrue("bucket " + i, width * 8 <= lower);
+        }
+    }
+
+    @Test
+    public void maximumLandsInTheLastBucket() {
+        int last = LatencyHistogram.BUCKET_COUNT - 1;
+
+        assertEquals(last, LatencyHistogram.bucketIndex(LatencyHistogram.MAX_TRACKABLE_MICROS));
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_MICROS, LatencyHistogram.bucketUpperBound(last));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        String json = write();
+        assertTrue(json, json.contains("\"maxMicros\":" + LatencyHistogram.MAX_TRACKABLE_MICROS + ","));
+        assertTrue(json, json.contains("[0,1]"));
+        assertTrue(json, json.contains("[" + LatencyHistogram.bucketLowerBound(LatencyHistogram.BUCKET_COUNT - 1) + ",1]"));
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBoundsCappedAtTheMax() {
+        recordTimes(80, 5);
+        recordTimes(15, 100); // Bucket 96..103
+        recordTimes(5, 1000); // Bucket 960..1023
+
+        String json = write();
+        assertTrue(json, json.startsWith("{\"count\":100,\"meanMicros\":69,"));
+        assertTrue(json, json.contains("\"p50Micros\":5,"));
+        assertTrue(json, json.contains("\"p90Micros\":103,"));
+        assertTrue(json, json.contains("\"p99Micros\":1000,"));
+        assertTrue(json, json.contains("\"buckets\":[[5,80],[96,15],[960,5]]"));
+    }
+
+    @Test
+    public void emptyHistogramReportsZeros() {
+        assertEquals("{\"count\":0,\"meanMicros\":0,\"p50Micros\":0,\"p90Micros\":0,\"p99Micros\":0,"
+            + "\"maxMicros\":0,\"buckets\":[]}", write());
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        recordTimes(3, 42);
+
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals("{\"count\":0,\"meanMicros\":0,\"p50Micros\":0,\"p90Micros\":0,\"p99Micros\":0,"
+            + "\"maxMicros\":0,\"buckets\":[]}", write());
+    }
+
+    private void recordTimes(int times, long micros) {
+        for (int i = 0; i < times; i++) {
+            histogram.record(micros);
+        }
+    }
+
+    private String write() {
+        JsonWriter json = JsonWriter.obtain().beginObject();
+        histogram.writeTo(json);
+        return json.endObject().finish();
+    }
+}
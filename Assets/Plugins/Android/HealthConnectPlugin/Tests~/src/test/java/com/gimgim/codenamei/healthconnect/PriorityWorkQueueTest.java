@@ -0,0 +1,165 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PriorityWorkQueueTest {
+
+    private static final int INTERACTIVE = PriorityWorkQueue.PRIORITY_INTERACTIVE;
+    private static final int NORMAL = PriorityWorkQueue.PRIORITY_NORMAL;
+    private static final int BACKGROUND = PriorityWorkQueue.PRIORITY_BACKGROUND;
+
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void tasksAreTakenByPriorityThenInArrivalOrder() {
+        PriorityWorkQueue queue = new PriorityWorkQueue(10);
+        queue.offer(PriorityWorkQueue.task(BACKGROUND, record("background")));
+        queue.offer(PriorityWorkQueue.task(NORMAL, record("normal 1")));
+        queue.offer(PriorityWorkQueue.task(INTERACTIVE, record("interactive")));
+        queue.offer(PriorityWorkQueue.task(NORMAL, record("normal 2")));
+
+        drain(queue);
+
+        assertEquals(Arrays.asList("interactive", "normal 1", "normal 2", "background"), order);
+    }
+
+    @Test
+    public void plainRunnablesCountAsNormal() {
+        PriorityWorkQueue queue = new PriorityWorkQueue(10);
+        queue.offer(PriorityWorkQueue.task(BACKGROUND, record("background")));
+        queue.offer(record("plain"));
+        queue.offer(PriorityWorkQueue.task(NORMAL, record("normal")));
+        queue.offer(PriorityWorkQueue.task(INTERACTIVE, record("interactive")));
+
+        drain(queue);
+
+        assertEquals(Arrays.asList("interactive", "plain", "normal", "background"), order);
+    }
+
+    @Test
+    public void offersBeyondTheCapacityAreRefused() {
+        PriorityWorkQueue queue = new PriorityWorkQueue(2);
+
+        assertTrue(queue.offer(PriorityWorkQueue.task(NORMAL, record("a"))));
+        assertTrue(queue.offer(PriorityWorkQueue.task(NORMAL, record("b"))));
+        assertFalse(queue.offer(PriorityWorkQueue.task(INTERACTIVE, record("c"))));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void completionsAreAcceptedWhenTheQueueIsFull() {
+        PriorityWorkQueue queue = new PriorityWorkQueue(1);
+        queue.offer(PriorityWorkQueue.task(NORMAL, record("query")));
+
+        assertTrue(queue.offer(PriorityWorkQueue.completion(INTERACTIVE, record("completion"))));
+
+        drain(queue);
+        assertEquals(Arrays.asList("completion", "query"), order);
+    }
+
+    @Test
+    public void prioritiesAreClampedToTheKnownLanes() {
+        assertEquals(INTERACTIVE, PriorityWorkQueue.clampPriority(-5));
+        assertEquals(NORMAL, PriorityWorkQueue.clampPriority(NORMAL));
+        assertEquals(BACKGROUND, PriorityWorkQueue.clampPriority(99));
+    }
+
+    @Test
+    public void poolRunsQueuedWorkInPriorityOrder() throws Exception {
+        ThreadPoolExecutor pool = newPool(10);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            occupy(pool, release);
+            pool.execute(PriorityWorkQueue.task(BACKGROUND, record("background")));
+            pool.execute(PriorityWorkQueue.task(INTERACTIVE, record("interactive")));
+            pool.execute(PriorityWorkQueue.task(NORMAL, record("normal")));
+            release.countDown();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("interactive", "normal", "background"), order);
+    }
+
+    @Test
+    public void fullPoolRejectsNewWorkButNotCompletions() throws Exception {
+        ThreadPoolExecutor pool = newPool(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            occupy(pool, release);
+            pool.execute(PriorityWorkQueue.task(NORMAL, record("queued")));
+
+            try {
+                pool.execute(PriorityWorkQueue.task(INTERACTIVE, record("rejected")));
+                throw new AssertionError("Expected a rejection");
+            } catch (RejectedExecutionException expected) {
+                // Queue is full
+            }
+            pool.execute(PriorityWorkQueue.completion(NORMAL, record("completion")));
+            release.countDown();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(pool.awaitTermination(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("queued", "completion"), order);
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    /**
+     * Keep the pool's only thread busy until release, so later work stays queued
+     */
+    private static void occupy(ThreadPoolExecutor pool, final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        pool.execute(PriorityWorkQueue.task(NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                await(release);
+            }
+        }));
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+    }
+
+    private static void drain(PriorityWorkQueue queue) {
+        Runnable next;
+        while ((next = queue.poll()) != null) {
+            next.run();
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(int capacity) {
+        return new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new PriorityWorkQueue(capacity),
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
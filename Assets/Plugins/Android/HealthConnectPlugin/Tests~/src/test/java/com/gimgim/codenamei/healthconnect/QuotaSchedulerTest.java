@@ -0,0 +1,268 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.health.connect.HealthConnectException;
+import android.os.RemoteException;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuotaSchedulerTest {
+
+    private static final int AGGREGATE = QuotaScheduler.CALL_AGGREGATE;
+    private static final int INTERACTIVE = PriorityWorkQueue.PRIORITY_INTERACTIVE;
+    private static final int NORMAL = PriorityWorkQueue.PRIORITY_NORMAL;
+    private static final int BACKGROUND = PriorityWorkQueue.PRIORITY_BACKGROUND;
+
+    // Slow enough that no token comes back while a test runs
+    private static final double NO_REFILL = 0.001;
+
+    private ScheduledExecutorService timer;
+    private QuotaScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        scheduler = new QuotaScheduler(timer);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void callsRunRightAwayWhileTheBucketHasTokens() {
+        scheduler.configure(AGGREGATE, 2, NO_REFILL, 1);
+        Call first = new Call();
+        Call second = new Call();
+        Call third = new Call();
+
+        scheduler.submit(AGGREGATE, NORMAL, first);
+        scheduler.submit(AGGREGATE, NORMAL, second);
+        scheduler.submit(AGGREGATE, NORMAL, third);
+
+        assertEquals(1, first.calls.get());
+        assertEquals(1, second.calls.get());
+        assertEquals(0, third.calls.get());
+        assertEquals(1, scheduler.getDeferredCount());
+    }
+
+    @Test
+    public void queuedCallRunsOnceATokenRefills() throws Exception {
+        scheduler.configure(AGGREGATE, 1, 20, 1);
+        scheduler.submit(AGGREGATE, NORMAL, new Call());
+
+        ListenableFuture<Long> queued = scheduler.submit(AGGREGATE, NORMAL, Call.returning(5L));
+
+        assertEquals(5L, (long) queued.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledQueuedCallIsNeverMade() throws Exception {
+        scheduler.configure(AGGREGATE, 1, 20, 1);
+        scheduler.submit(AGGREGATE, NORMAL, new Call());
+        Call cancelled = new Call();
+
+        scheduler.submit(AGGREGATE, NORMAL, cancelled).cancel(true);
+        ListenableFuture<Long> next = scheduler.submit(AGGREGATE, NORMAL, Call.returning(1L));
+
+        next.get(2, TimeUnit.SECONDS);
+        assertEquals(0, cancelled.calls.get());
+    }
+
+    @Test
+    public void interactiveCallsOvertakeQueuedBackgroundCalls() throws Exception {
+        scheduler.configure(AGGREGATE, 2, 5, 1);
+        scheduler.submit(AGGREGATE, NORMAL, new Call());
+        scheduler.submit(AGGREGATE, NORMAL, new Call());
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        ListenableFuture<Long> background = scheduler.submit(AGGREGATE, BACKGROUND, Call.recording(order, "background"));
+        ListenableFuture<Long> interactive = scheduler.submit(AGGREGATE, INTERACTIVE, Call.recording(order, "interactive"));
+
+        interactive.get(2, TimeUnit.SECONDS);
+        background.get(2, TimeUnit.SECONDS);
+        assertEquals(2, order.size());
+        assertEquals("interactive", order.get(0));
+    }
+
+    @Test
+    public void backgroundCallsLeaveTheReserveToOthers() {
+        scheduler.configure(AGGREGATE, 4, NO_REFILL, 1);
+        scheduler.submit(AGGREGATE, NORMAL, new Call());
+        scheduler.submit(AGGREGATE, NORMAL, new Call());
+
+        Call background = new Call();
+        Call interactive = new Call();
+        scheduler.submit(AGGREGATE, BACKGROUND, background);
+        scheduler.submit(AGGREGATE, INTERACTIVE, interactive);
+
+        assertEquals(0, background.calls.get());
+        assertEquals(1, interactive.calls.get());
+    }
+
+    @Test
+    public void onlyOneBackgroundCallIsInFlight() throws Exception {
+        Call first = new Call();
+        Call second = new Call();
+
+        scheduler.submit(QuotaScheduler.CALL_READ_RECORDS, BACKGROUND, first);
+        ListenableFuture<Long> queued = scheduler.submit(AGGREGATE, BACKGROUND, second);
+        Thread.sleep(50);
+        assertEquals(0, second.calls.get());
+
+        first.future.set(0L);
+        second.future.set(2L);
+        assertEquals(2L, (long) queued.get(2, TimeUnit.SECONDS));
+        assertEquals(1, second.calls.get());
+    }
+
+    @Test
+    public void joiningWithAHigherPriorityMovesTheQueuedCall() throws Exception {
+        scheduler.submit(QuotaScheduler.CALL_READ_RECORDS, BACKGROUND, new Call());
+        SingleFlight singleFlight = new SingleFlight();
+        Call shared = Call.returning(9L);
+
+        ListenableFuture<Long> background = singleFlight.run("key", scheduler.gate(AGGREGATE, BACKGROUND, shared));
+        Thread.sleep(50);
+        assertEquals(0, shared.calls.get());
+
+        ListenableFuture<Long> interactive = singleFlight.run("key", scheduler.gate(AGGREGATE, INTERACTIVE, shared));
+
+        assertEquals(9L, (long) interactive.get(2, TimeUnit.SECONDS));
+        assertEquals(9L, (long) background.get(2, TimeUnit.SECONDS));
+        assertEquals(1, shared.calls.get());
+    }
+
+    @Test
+    public void rateLimitedCallIsRetriedAfterABackoff() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        long startedAt = System.nanoTime();
+
+        ListenableFuture<Long> result = scheduler.submit(AGGREGATE, NORMAL, new AsyncCallable<Long>() {
+            @Override
+            public ListenableFuture<Long> call() {
+                if (calls.incrementAndGet() == 1) {
+                    return Futures.immediateFailedFuture(new RemoteException("API call quota exceeded"));
+                }
+                return Futures.immediateFuture(3L);
+            }
+        });
+
+        assertEquals(3L, (long) result.get(5, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+        assertEquals(1, scheduler.getRateLimitedCount());
+        assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void otherFailuresAreNotRetried() throws Exception {
+        Call failing = Call.failing(new IllegalStateException("quota exceeded"));
+
+        ListenableFuture<Long> result = scheduler.submit(AGGREGATE, NORMAL, failing);
+
+        try {
+            result.get(2, TimeUnit.SECONDS);
+            throw new AssertionError("Expected a failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, failing.calls.get());
+        assertEquals(0, scheduler.getRateLimitedCount());
+    }
+
+    @Test
+    public void shutdownCancelsQueuedAndLaterCalls() {
+        scheduler.configure(AGGREGATE, 1, NO_REFILL, 1);
+        Call running = new Call();
+        Call queued = new Call();
+        Call later = new Call();
+        ListenableFuture<Long> runningResult = scheduler.submit(AGGREGATE, NORMAL, running);
+        ListenableFuture<Long> queuedResult = scheduler.submit(AGGREGATE, NORMAL, queued);
+
+        scheduler.shutdown();
+        ListenableFuture<Long> laterResult = scheduler.submit(AGGREGATE, INTERACTIVE, later);
+
+        assertTrue(timer.isShutdown());
+        assertTrue(queuedResult.isCancelled());
+        assertTrue(laterResult.isCancelled());
+        assertEquals(0, queued.calls.get());
+        assertEquals(0, later.calls.get());
+        assertFalse(runningResult.isDone());
+    }
+
+    @Test
+    public void rateLimitIsRecognisedByTypeAndMessage() {
+        assertTrue(QuotaScheduler.isRateLimit(new RemoteException("API call quota exceeded, availableQuota: 0")));
+        assertTrue(QuotaScheduler.isRateLimit(new HealthConnectException(
+            HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED, "Memory quota exceeded")));
+        assertFalse(QuotaScheduler.isRateLimit(new RemoteException("Service died")));
+        assertFalse(QuotaScheduler.isRateLimit(new IllegalStateException("quota exceeded")));
+        assertFalse(QuotaScheduler.isRateLimit(null));
+    }
+
+    @Test
+    public void rateLimitIsOnlyLookedForOneCauseDeep() {
+        RemoteException limit = new RemoteException("API call quota exceeded");
+
+        assertTrue(QuotaScheduler.isRateLimit(new ExecutionException(limit)));
+        assertFalse(QuotaScheduler.isRateLimit(new RuntimeException(new ExecutionException(limit))));
+    }
+
+    /**
+     * A scheduled call that counts how often it was made
+     */
+    private static class Call implements AsyncCallable<Long> {
+        final AtomicInteger calls = new AtomicInteger();
+        final SettableFuture<Long> future = SettableFuture.create();
+
+        static Call returning(long value) {
+            Call call = new Call();
+            call.future.set(value);
+            return call;
+        }
+
+        static Call failing(Throwable failure) {
+            Call call = new Call();
+            call.future.setException(failure);
+            return call;
+        }
+
+        static Call recording(final List<String> order, final String name) {
+            Call call = new Call() {
+                @Override
+                public ListenableFuture<Long> call() {
+                    order.add(name);
+                    return super.call();
+                }
+            };
+            call.future.set(0L);
+            return call;
+        }
+
+        @Override
+        public ListenableFuture<Long> call() {
+            calls.incrementAndGet();
+            return future;
+        }
+    }
+}
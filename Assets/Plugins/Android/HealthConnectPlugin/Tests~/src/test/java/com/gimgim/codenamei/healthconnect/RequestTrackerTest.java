@@ -0,0 +1,331 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestTrackerTest {
+
+    private static final int NORMAL = PriorityWorkQueue.PRIORITY_NORMAL;
+    private static final String POLL = "getStepsSince";
+
+    private final Handler handler = new Handler();
+    private final List<Long> timeouts = new ArrayList<>();
+    private RequestTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new RequestTracker(handler, new RequestTracker.TimeoutListener() {
+            @Override
+            public void onTimeout(long requestId, long timeoutMillis) {
+                timeouts.add(requestId);
+            }
+        });
+        tracker.setTimeoutMillis(1000);
+    }
+
+    @Test
+    public void requestExpiresAtItsDeadline() {
+        tracker.start(1, NORMAL, null);
+
+        handler.advance(999);
+        assertTrue(tracker.isActive(1));
+
+        handler.advance(1);
+        assertFalse(tracker.isActive(1));
+        assertEquals(1, tracker.getTimedOutCount());
+        assertEquals(1, timeouts.size());
+        assertEquals(1L, (long) timeouts.get(0));
+    }
+
+    @Test
+    public void expiryCancelsAttachedFutures() {
+        tracker.start(1, NORMAL, null);
+        SettableFuture<Long> future = SettableFuture.create();
+        tracker.attach(1, future);
+
+        handler.advance(1000);
+
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void onlyExpiryCancellationsAreSeenAsExpiring() {
+        tracker.start(1, NORMAL, null);
+        tracker.start(2, NORMAL, null);
+        final List<Boolean> expiring = new ArrayList<>();
+        tracker.attach(1, expiringOnCancel(expiring));
+        tracker.attach(2, expiringOnCancel(expiring));
+
+        tracker.cancel(2);
+        handler.advance(1000);
+
+        assertEquals(Arrays.asList(false, true), expiring);
+        assertFalse(RequestTracker.isExpiring());
+    }
+
+    @Test
+    public void expiredRequestSendsNoResult() {
+        tracker.start(1, NORMAL, null);
+        handler.advance(1000);
+
+        assertFalse(tracker.finish(1));
+    }
+
+    @Test
+    public void onlyTheFirstFinishSendsTheResult() {
+        tracker.start(1, NORMAL, null);
+
+        assertTrue(tracker.finish(1));
+        assertFalse(tracker.finish(1));
+    }
+
+    @Test
+    public void finishedRequestNoLongerExpires() {
+        tracker.start(1, NORMAL, null);
+        tracker.finish(1);
+
+        handler.advance(5000);
+
+        assertTrue(timeouts.isEmpty());
+        assertEquals(0, handler.pendingCount());
+    }
+
+    @Test
+    public void cancelStopsTheRequestAndItsFutures() {
+        tracker.start(1, NORMAL, null);
+        SettableFuture<Long> future = SettableFuture.create();
+        tracker.attach(1, future);
+
+        assertTrue(tracker.cancel(1));
+        assertTrue(future.isCancelled());
+        assertFalse(tracker.cancel(1));
+        assertFalse(tracker.finish(1));
+        assertEquals(1, tracker.getCancelledCount());
+        assertEquals(0, handler.pendingCount());
+    }
+
+    @Test
+    public void futureAttachedToAFinishedRequestIsCancelled() {
+        tracker.start(1, NORMAL, null);
+        tracker.finish(1);
+
+        SettableFuture<Long> future = SettableFuture.create();
+        tracker.attach(1, future);
+
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void completedFutureIsNotCancelledLater() {
+        tracker.start(1, NORMAL, null);
+        SettableFuture<Long> future = SettableFuture.create();
+        tracker.attach(1, future);
+        future.set(3L);
+
+        tracker.cancel(1);
+
+        assertFalse(future.isCancelled());
+    }
+
+    @Test
+    public void extendRestartsTheDeadline() {
+        tracker.start(1, NORMAL, null);
+        handler.advance(800);
+
+        tracker.extend(1);
+        handler.advance(800);
+        assertTrue(tracker.isActive(1));
+
+        handler.advance(200);
+        assertFalse(tracker.isActive(1));
+    }
+
+    @Test
+    public void restartedIdGetsANewDeadline() {
+        tracker.start(1, NORMAL, null);
+        handler.advance(800);
+
+        tracker.start(1, NORMAL, null);
+        handler.advance(800);
+
+        assertTrue(tracker.isActive(1));
+        assertEquals(1, handler.pendingCount());
+    }
+
+    @Test
+    public void zeroTimeoutNeverExpires() {
+        tracker.setTimeoutMillis(0);
+        tracker.start(1, NORMAL, null);
+
+        handler.advance(Long.MAX_VALUE / 2);
+
+        assertTrue(tracker.isActive(1));
+    }
+
+    @Test
+    public void untrackedRequestsAreAlwaysActive() {
+        tracker.start(RequestTracker.NO_REQUEST_ID, NORMAL, null);
+
+        assertTrue(tracker.isActive(RequestTracker.NO_REQUEST_ID));
+        assertTrue(tracker.finish(RequestTracker.NO_REQUEST_ID));
+        assertTrue(tracker.finish(RequestTracker.NO_REQUEST_ID));
+        assertEquals(0, tracker.getActiveCount());
+    }
+
+    @Test
+    public void priorityFollowsTheRequest() {
+        tracker.start(1, PriorityWorkQueue.PRIORITY_BACKGROUND, null);
+        assertEquals(PriorityWorkQueue.PRIORITY_BACKGROUND, tracker.getPriority(1));
+
+        assertTrue(tracker.setPriority(1, PriorityWorkQueue.PRIORITY_INTERACTIVE));
+        assertEquals(PriorityWorkQueue.PRIORITY_INTERACTIVE, tracker.getPriority(1));
+
+        tracker.finish(1);
+        assertEquals(NORMAL, tracker.getPriority(1));
+        assertFalse(tracker.setPriority(1, PriorityWorkQueue.PRIORITY_INTERACTIVE));
+    }
+
+    @Test
+    public void latestWinsDropsAQueuedRequestOfTheSameKind() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+
+        assertEquals(1, tracker.start(2, NORMAL, POLL));
+        assertFalse(tracker.isActive(1));
+        assertFalse(tracker.begin(1));
+        assertTrue(tracker.isActive(2));
+        assertEquals(1, tracker.getSupersededCount());
+        assertEquals(1, handler.pendingCount());
+    }
+
+    @Test
+    public void latestWinsKeepsARequestAWorkerPickedUp() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+        assertTrue(tracker.begin(1));
+
+        assertEquals(RequestTracker.NO_REQUEST_ID, tracker.start(2, NORMAL, POLL));
+        assertTrue(tracker.isActive(1));
+        assertTrue(tracker.isActive(2));
+    }
+
+    @Test
+    public void latestWinsSuppressesAnOlderResultArrivingLate() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+        tracker.begin(1);
+        SettableFuture<Long> olderCall = SettableFuture.create();
+        tracker.attach(1, olderCall);
+        tracker.start(2, NORMAL, POLL);
+        tracker.begin(2);
+
+        assertTrue(tracker.finish(2));
+        assertFalse(tracker.finish(1));
+        assertTrue(olderCall.isCancelled());
+        assertEquals(1, tracker.getStaleCount());
+    }
+
+    @Test
+    public void latestWinsDeliversResultsArrivingInOrder() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+        tracker.begin(1);
+        tracker.start(2, NORMAL, POLL);
+        tracker.begin(2);
+
+        assertTrue(tracker.finish(1));
+        assertTrue(tracker.finish(2));
+        assertEquals(0, tracker.getStaleCount());
+    }
+
+    @Test
+    public void latestWinsKeepsOlderRequestsWhenANewerOneFails() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+        tracker.begin(1);
+        tracker.start(2, NORMAL, POLL);
+        tracker.begin(2);
+
+        assertTrue(tracker.fail(2));
+        assertTrue(tracker.finish(1));
+        assertEquals(0, tracker.getStaleCount());
+    }
+
+    @Test
+    public void latestWinsKeepsOlderRequestsWhenANewerOneTimesOut() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+        tracker.begin(1);
+        tracker.setTimeoutMillis(100);
+        tracker.start(2, NORMAL, POLL);
+        tracker.begin(2);
+
+        handler.advance(100);
+
+        assertFalse(tracker.isActive(2));
+        assertTrue(tracker.finish(1));
+        assertEquals(0, tracker.getStaleCount());
+    }
+
+    @Test
+    public void latestWinsSuppressesAnOlderErrorArrivingLate() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+        tracker.begin(1);
+        tracker.start(2, NORMAL, POLL);
+        tracker.begin(2);
+
+        assertTrue(tracker.finish(2));
+        assertFalse(tracker.fail(1));
+        assertEquals(1, tracker.getStaleCount());
+    }
+
+    @Test
+    public void otherKindsAreNotAffectedByLatestWins() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, "getStepsToday");
+        tracker.start(2, NORMAL, "getStepsToday");
+        tracker.start(3, NORMAL, null);
+
+        assertTrue(tracker.isActive(1));
+        assertTrue(tracker.isActive(2));
+        assertTrue(tracker.isActive(3));
+        assertEquals(0, tracker.getSupersededCount());
+    }
+
+    @Test
+    public void turningLatestWinsOffStopsDroppingRequests() {
+        tracker.setLatestWins(POLL, true);
+        tracker.start(1, NORMAL, POLL);
+        tracker.setLatestWins(POLL, false);
+
+        assertEquals(RequestTracker.NO_REQUEST_ID, tracker.start(2, NORMAL, POLL));
+        assertTrue(tracker.isActive(1));
+        assertTrue(tracker.finish(2));
+        assertTrue(tracker.finish(1));
+    }
+
+    private static SettableFuture<Long> expiringOnCancel(final List<Boolean> expiring) {
+        final SettableFuture<Long> future = SettableFuture.create();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                expiring.add(RequestTracker.isExpiring());
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+}
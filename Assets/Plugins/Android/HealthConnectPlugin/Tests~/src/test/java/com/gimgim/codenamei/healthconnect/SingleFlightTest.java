@@ -0,0 +1,189 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    public void callsForTheSameKeyShareOneCall() throws Exception {
+        CountingCall<Long> call = new CountingCall<>();
+
+        ListenableFuture<Long> first = singleFlight.run("key", call);
+        ListenableFuture<Long> second = singleFlight.run("key", call);
+        call.future.set(42L);
+
+        assertEquals(1, call.calls);
+        assertEquals(42L, (long) first.get());
+        assertEquals(42L, (long) second.get());
+        assertEquals(1, singleFlight.getCoalescedCalls());
+    }
+
+    @Test
+    public void callsForDifferentKeysRunSeparately() {
+        CountingCall<Long> call = new CountingCall<>();
+
+        singleFlight.run("a", call);
+        singleFlight.run("b", call);
+
+        assertEquals(2, call.calls);
+        assertEquals(2, singleFlight.getInFlightCount());
+        assertEquals(0, singleFlight.getCoalescedCalls());
+    }
+
+    @Test
+    public void resultIsNotCachedAfterTheCallCompletes() {
+        CountingCall<Long> first = new CountingCall<>();
+        singleFlight.run("key", first);
+        first.future.set(1L);
+
+        assertEquals(0, singleFlight.getInFlightCount());
+
+        CountingCall<Long> second = new CountingCall<>();
+        singleFlight.run("key", second);
+        assertEquals(1, second.calls);
+    }
+
+    @Test
+    public void cancellingOneCallerKeepsTheCallForTheOthers() throws Exception {
+        CountingCall<Long> call = new CountingCall<>();
+        ListenableFuture<Long> first = singleFlight.run("key", call);
+        ListenableFuture<Long> second = singleFlight.run("key", call);
+
+        first.cancel(true);
+        assertFalse(call.future.isCancelled());
+
+        call.future.set(7L);
+        assertEquals(7L, (long) second.get());
+    }
+
+    @Test
+    public void cancellingEveryCallerCancelsTheCall() {
+        CountingCall<Long> call = new CountingCall<>();
+        ListenableFuture<Long> first = singleFlight.run("key", call);
+        ListenableFuture<Long> second = singleFlight.run("key", call);
+
+        first.cancel(true);
+        second.cancel(true);
+
+        assertTrue(call.future.isCancelled());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void failureReachesEveryCaller() throws Exception {
+        CountingCall<Long> call = new CountingCall<>();
+        ListenableFuture<Long> first = singleFlight.run("key", call);
+        ListenableFuture<Long> second = singleFlight.run("key", call);
+
+        call.future.setException(new IOException("boom"));
+
+        assertFailsWith(IOException.class, first);
+        assertFailsWith(IOException.class, second);
+    }
+
+    @Test
+    public void callableThatThrowsIsNotKeptInFlight() throws Exception {
+        ListenableFuture<Long> failed = singleFlight.run("key", new AsyncCallable<Long>() {
+            @Override
+            public ListenableFuture<Long> call() throws Exception {
+                throw new IOException("boom");
+            }
+        });
+
+        assertFailsWith(IOException.class, failed);
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void callStartsOutsideTheLock() throws Exception {
+        final CountingCall<Long> joinerCall = new CountingCall<>();
+        final ListenableFuture<?>[] joined = new ListenableFuture<?>[1];
+
+        ListenableFuture<Long> first = singleFlight.run("key", new AsyncCallable<Long>() {
+            @Override
+            public ListenableFuture<Long> call() throws Exception {
+                // Would deadlock if the key were still locked while the call starts
+                Thread joiner = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        joined[0] = singleFlight.run("key", joinerCall);
+                    }
+                });
+                joiner.start();
+                joiner.join(5000);
+                assertFalse(joiner.isAlive());
+                return Futures.immediateFuture(3L);
+            }
+        });
+
+        assertEquals(3L, (long) first.get());
+        assertEquals(3L, joined[0].get());
+        assertEquals(0, joinerCall.calls);
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void joinerRaisesThePriorityOfThePrioritizedCall() {
+        PrioritizedCall running = new PrioritizedCall(PriorityWorkQueue.PRIORITY_BACKGROUND);
+        singleFlight.run("key", running);
+
+        singleFlight.run("key", new PrioritizedCall(PriorityWorkQueue.PRIORITY_INTERACTIVE));
+
+        assertEquals(PriorityWorkQueue.PRIORITY_INTERACTIVE, running.raisedTo);
+    }
+
+    private static void assertFailsWith(Class<? extends Throwable> type, ListenableFuture<?> future)
+        throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertTrue(type.isInstance(e.getCause()));
+            return;
+        }
+        throw new AssertionError("Expected " + type.getSimpleName());
+    }
+
+    private static class CountingCall<T> implements AsyncCallable<T> {
+        final SettableFuture<T> future = SettableFuture.create();
+        int calls;
+
+        @Override
+        public ListenableFuture<T> call() {
+            calls++;
+            return future;
+        }
+    }
+
+    private static final class PrioritizedCall extends CountingCall<Long> implements SingleFlight.Prioritized {
+        final int priority;
+        int raisedTo = -1;
+
+        PrioritizedCall(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+
+        @Override
+        public void raisePriority(int priority) {
+            raisedTo = priority;
+        }
+    }
+}
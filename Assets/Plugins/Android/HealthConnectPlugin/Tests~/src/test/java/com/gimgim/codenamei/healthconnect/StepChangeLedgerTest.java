@@ -0,0 +1,225 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StepChangeLedgerTest {
+
+    private static final long HOUR = StepChangeLedger.HOUR_MILLIS;
+    private static final long WINDOW = 1_700_000_000_000L / HOUR * HOUR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private StepChangeLedger ledger;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "ledger.bin");
+        ledger = new StepChangeLedger(file);
+    }
+
+    @Test
+    public void resetSeedsTheHoursAndRecords() {
+        long total = ledger.reset(WINDOW, hourly(0, 100, 1, 50), spans("a", 0, 1, "b", 1, 2));
+
+        assertEquals(150, total);
+        assertEquals(WINDOW, ledger.getWindowStart());
+        assertEquals(2, ledger.size());
+    }
+
+    @Test
+    public void deltaIsTheChangeOfTheReaggregatedHours() {
+        ledger.reset(WINDOW, hourly(0, 100), spans("a", 0, 1));
+
+        StepChangeLedger.Batch batch = ledger.newBatch();
+        batch.upsert("b", at(0), at(1));
+
+        // A watch record overlapping the phone's; Health Connect deduplicates the hour to 120
+        assertEquals(20, ledger.apply(batch, hourly(0, 120)));
+    }
+
+    @Test
+    public void replayingAChangeAddsNothing() {
+        ledger.reset(WINDOW, hourly(0, 100), spans("a", 0, 1));
+
+        StepChangeLedger.Batch first = ledger.newBatch();
+        first.upsert("b", at(2), at(3));
+        assertEquals(30, ledger.apply(first, hourly(2, 30)));
+
+        StepChangeLedger.Batch replay = ledger.newBatch();
+        replay.upsert("b", at(2), at(3));
+        assertEquals(0, ledger.apply(replay, hourly(2, 30)));
+    }
+
+    @Test
+    public void deletionMarksTheHoursTheRecordCovered() {
+        ledger.reset(WINDOW, hourly(3, 40, 4, 60), spans("a", 3, 5));
+
+        StepChangeLedger.Batch batch = ledger.newBatch();
+        batch.delete("a");
+
+        assertEquals(3 * HOUR, batch.getDirtyStartMillis() - WINDOW);
+        assertEquals(5 * HOUR, batch.getDirtyEndMillis() - WINDOW);
+        assertEquals(-100, ledger.apply(batch, hourly()));
+        assertEquals(0, ledger.size());
+    }
+
+    @Test
+    public void deletionOfAnUnknownRecordMarksNothing() {
+        ledger.reset(WINDOW, hourly(0, 100), spans("a", 0, 1));
+
+        StepChangeLedger.Batch batch = ledger.newBatch();
+        batch.delete("unknown");
+
+        assertFalse(batch.hasDirtyHours());
+        assertEquals(0, ledger.apply(batch, null));
+    }
+
+    @Test
+    public void movedRecordMarksItsOldAndNewHours() {
+        ledger.reset(WINDOW, hourly(1, 10), spans("a", 1, 2));
+
+        StepChangeLedger.Batch batch = ledger.newBatch();
+        batch.upsert("a", at(6), at(7));
+
+        assertEquals(2, batch.getDirtyHourCount()); // Hours 1 and 6
+        assertEquals(0, ledger.apply(batch, hourly(6, 10)));
+    }
+
+    @Test
+    public void recordStraddlingTheWindowStartOnlyMarksHoursInside() {
+        ledger.reset(WINDOW, hourly(0, 10), spans());
+
+        StepChangeLedger.Batch batch = ledger.newBatch();
+        batch.upsert("a", WINDOW - 2 * HOUR, at(1));
+
+        assertEquals(1, batch.getDirtyHourCount());
+        assertEquals(WINDOW, batch.getDirtyStartMillis());
+        // Only the aggregate inside the window counts, not the record's full count
+        assertEquals(15, ledger.apply(batch, hourly(0, 25)));
+    }
+
+    @Test
+    public void recordEndingAtTheWindowStartMarksNothing() {
+        ledger.reset(WINDOW, hourly(), spans());
+
+        StepChangeLedger.Batch batch = ledger.newBatch();
+        batch.upsert("a", WINDOW - HOUR, WINDOW);
+
+        assertFalse(batch.hasDirtyHours());
+    }
+
+    @Test
+    public void unappliedBatchLeavesTheLedgerUntouched() {
+        ledger.reset(WINDOW, hourly(0, 100), spans("a", 0, 1));
+
+        StepChangeLedger.Batch abandoned = ledger.newBatch();
+        abandoned.delete("a");
+        abandoned.upsert("b", at(1), at(2));
+
+        assertEquals(1, ledger.size());
+        StepChangeLedger.Batch next = ledger.newBatch();
+        next.delete("a");
+        assertTrue(next.hasDirtyHours());
+        assertEquals(-100, ledger.apply(next, hourly()));
+    }
+
+    @Test
+    public void batchFromAnOlderWindowIsDropped() {
+        ledger.reset(WINDOW, hourly(0, 100), spans("a", 0, 1));
+        StepChangeLedger.Batch stale = ledger.newBatch();
+        stale.upsert("b", at(1), at(2));
+
+        ledger.reset(WINDOW + HOUR, hourly(0, 100), spans("a", 0, 1));
+
+        assertEquals(0, ledger.apply(stale, hourly(1, 50)));
+        assertEquals(1, ledger.size());
+    }
+
+    @Test
+    public void pruneDropsRecordsThatEndedBeforeTheCutoff() {
+        ledger.reset(WINDOW, hourly(), spans("old", 0, 1, "new", 5, 6));
+
+        ledger.prune(at(2));
+
+        assertEquals(1, ledger.size());
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws IOException {
+        ledger.reset(WINDOW, hourly(0, 100, 2, 30), spans("a", 0, 1, "b", 2, 3));
+        ledger.save();
+
+        StepChangeLedger loaded = new StepChangeLedger(file);
+        loaded.load();
+
+        assertEquals(WINDOW, loaded.getWindowStart());
+        assertEquals(2, loaded.size());
+        StepChangeLedger.Batch batch = loaded.newBatch();
+        batch.delete("b");
+        assertEquals(-30, loaded.apply(batch, hourly()));
+    }
+
+    @Test
+    public void missingFileLoadsEmpty() throws IOException {
+        ledger.load();
+
+        assertEquals(StepChangeLedger.NO_WINDOW, ledger.getWindowStart());
+        assertEquals(0, ledger.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFileFormatIsRejected() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        }
+
+        ledger.load();
+    }
+
+    private static long at(long hour) {
+        return WINDOW + hour * HOUR;
+    }
+
+    /**
+     * Hourly aggregate from hour/steps pairs, hours counted from the window start
+     */
+    private static StepIntervals hourly(long... hourSteps) {
+        int count = hourSteps.length / 2;
+        long[] steps = new long[count];
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = at(hourSteps[2 * i]);
+            ends[i] = starts[i] + HOUR;
+            steps[i] = hourSteps[2 * i + 1];
+        }
+        return new StepIntervals(steps, starts, ends, count);
+    }
+
+    /**
+     * Record spans from id/startHour/endHour triples
+     */
+    private static Map<String, long[]> spans(Object... idStartEnd) {
+        Map<String, long[]> spans = new HashMap<>();
+        for (int i = 0; i < idStartEnd.length; i += 3) {
+            spans.put((String) idStartEnd[i],
+                new long[] {at((Integer) idStartEnd[i + 1]), at((Integer) idStartEnd[i + 2])});
+        }
+        return spans;
+    }
+}
@@ -0,0 +1,156 @@
+package com.gimgim.codenamei.healthconnect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UnityMessageBatcherTest {
+
+    private final Handler handler = new Handler();
+    private final BridgeMetrics metrics = new BridgeMetrics();
+    private final UnityMessageBatcher batcher = new UnityMessageBatcher(handler, "Bridge", metrics);
+    private final ListSink sink = new ListSink();
+
+    @Before
+    public void setUp() {
+        batcher.setSink(sink);
+    }
+
+    @Test
+    public void withoutAWindowEveryMessageIsPostedAlone() {
+        batcher.send("OnA", "1", false);
+        handler.advance(0);
+        batcher.send("OnB", "2", false);
+        handler.advance(0);
+
+        assertEquals(2, sink.methods.size());
+        assertEquals("OnA", sink.methods.get(0));
+        assertEquals("1", sink.messages.get(0));
+        assertEquals("OnB", sink.methods.get(1));
+        assertEquals("Bridge", sink.gameObject);
+    }
+
+    @Test
+    public void messagesWithinTheWindowShareOneEnvelope() {
+        batcher.setWindowMillis(50);
+        batcher.send("OnA", "1", false);
+        handler.advance(20);
+        batcher.send("OnB", "{\"x\":2}", false);
+
+        handler.advance(29);
+        assertEquals(0, sink.methods.size());
+        assertEquals(2, batcher.getPendingCount());
+
+        handler.advance(1);
+        assertEquals(1, sink.methods.size());
+        assertEquals(UnityMessageBatcher.BATCH_METHOD, sink.methods.get(0));
+        assertEquals("{\"messages\":[{\"method\":\"OnA\",\"payload\":\"1\"},"
+            + "{\"method\":\"OnB\",\"payload\":\"{\\\"x\\\":2}\"}]}", sink.messages.get(0));
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    public void singleMessageIsDeliveredWithoutAnEnvelope() {
+        batcher.setWindowMillis(50);
+        batcher.send("OnA", "1", false);
+
+        handler.advance(50);
+
+        assertEquals(1, sink.methods.size());
+        assertEquals("OnA", sink.methods.get(0));
+        assertEquals("1", sink.messages.get(0));
+    }
+
+    @Test
+    public void immediateMessageTakesThePendingOnesAlong() {
+        batcher.setWindowMillis(50);
+        batcher.send("OnA", "1", false);
+        batcher.send("OnB", "2", true);
+
+        handler.advance(0);
+
+        assertEquals(1, sink.methods.size());
+        assertEquals(UnityMessageBatcher.BATCH_METHOD, sink.methods.get(0));
+        assertTrue(sink.messages.get(0).indexOf("OnA") < sink.messages.get(0).indexOf("OnB"));
+        assertEquals(0, handler.pendingCount());
+    }
+
+    @Test
+    public void nextWindowStartsAfterAFlush() {
+        batcher.setWindowMillis(50);
+        batcher.send("OnA", "1", false);
+        handler.advance(50);
+
+        batcher.send("OnB", "2", false);
+        handler.advance(49);
+        assertEquals(1, sink.methods.size());
+
+        handler.advance(1);
+        assertEquals(2, sink.methods.size());
+        assertEquals("OnB", sink.methods.get(1));
+    }
+
+    @Test
+    public void disablingTheWindowFlushesWhatIsPending() {
+        batcher.setWindowMillis(50);
+        batcher.send("OnA", "1", false);
+
+        batcher.setWindowMillis(0);
+        handler.advance(0);
+
+        assertEquals(1, sink.methods.size());
+        assertEquals(0, handler.pendingCount());
+    }
+
+    @Test
+    public void flushSoonWithNothingPendingPostsNothing() {
+        batcher.flushSoon();
+
+        assertEquals(0, handler.pendingCount());
+    }
+
+    @Test
+    public void failedDeliveryIsCountedAndLaterMessagesStillGoOut() {
+        sink.failNext = true;
+        batcher.send("OnA", "1", false);
+        handler.advance(0);
+        batcher.send("OnB", "2", false);
+        handler.advance(0);
+
+        assertEquals(1, sink.methods.size());
+        assertEquals("OnB", sink.methods.get(0));
+        String json = snapshot();
+        assertTrue(json, json.contains("\"unityPost\":{\"success\":1,\"failure\":1,"));
+    }
+
+    private String snapshot() {
+        JsonWriter json = JsonWriter.obtain().beginObject();
+        metrics.writeTo(json);
+        return json.endObject().finish();
+    }
+
+    private static final class ListSink implements UnityMessageSink {
+        final List<String> methods = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        String gameObject;
+        boolean failNext;
+
+        @Override
+        public void sendMessage(String gameObject, String methodName, String message) {
+            if (failNext) {
+                failNext = false;
+                throw new IllegalStateException("Unity player gone");
+            }
+            this.gameObject = gameObject;
+            methods.add(methodName);
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * BinaryResultEncoder.java
+ * Binary result transport for the Unity bridge
+ *
+ * Results are written into direct, little-endian ByteBuffers that Unity reads in place
+ * through the buffer address instead of parsing a JSON string.
+ *
+ * Layout (version 1), all values little-endian:
+ *   header (48 bytes)
+ *     int32  magic          "HCB1"
+ *     int16  version
+ *     int16  type           TYPE_*
+ *     int64  requestId
+ *     int32  sequence       page number for TYPE_RECORDS, otherwise 0
+ *     int32  count          number of items
+ *     int32  flags          FLAG_*
+ *     int32  reserved
+ *     int64  rangeStart     query start, epoch millis
+ *     int64  rangeEnd       query end, epoch millis
+ *   TYPE_STEPS, TYPE_BUCKETS, TYPE_RANGES: count x { int64 steps, int64 start, int64 end }
+ *   TYPE_RECORDS: count x { int64 count, int64 start, int64 end, int32 originIndex }
+ *                 then int32 originCount, originCount x { int32 byteLength, UTF-8 bytes }
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class BinaryResultEncoder {
+
+    static final int MAGIC = 0x31424348; // "HCB1" when read as little-endian bytes
+    static final short VERSION = 1;
+
+    static final short TYPE_STEPS = 1;
+    static final short TYPE_BUCKETS = 2;
+    static final short TYPE_RANGES = 3;
+    static final short TYPE_RECORDS = 4;
+
+    static final int FLAG_END_OF_STREAM = 1;
+    static final int FLAG_LOCAL_STORE = 1 << 1;
+
+    static final int HEADER_SIZE = 48;
+    static final int INTERVAL_SIZE = 24;
+    static final int RECORD_SIZE = 28;
+
+    private BinaryResultEncoder() {
+    }
+
+    static ByteBuffer encodeSteps(long requestId, long steps, long startMillis, long endMillis, int flags) {
+        ByteBuffer buffer = allocate(HEADER_SIZE + INTERVAL_SIZE);
+        writeHeader(buffer, TYPE_STEPS, requestId, 0, 1, flags, startMillis, endMillis);
+        buffer.putLong(steps).putLong(startMillis).putLong(endMillis);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encode {steps, start, end} triples, used for buckets and multi-range results
+     */
+    static ByteBuffer encodeIntervals(short type, long requestId, long[] steps, long[] starts, long[] ends, int count,
+                                      long rangeStart, long rangeEnd) {
+        ByteBuffer buffer = allocate(HEADER_SIZE + count * INTERVAL_SIZE);
+        writeHeader(buffer, type, requestId, 0, count, 0, rangeStart, rangeEnd);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(steps[i]).putLong(starts[i]).putLong(ends[i]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encode one page of step records. Data origins are written once each into a string table.
+     */
+    static ByteBuffer encodeRecords(long requestId, int sequence, boolean endOfStream, long[] counts, long[] starts,
+                                    long[] ends, String[] origins, int count, long rangeStart, long rangeEnd) {
+        Map<String, Integer> originIndex = new HashMap<>();
+        List<byte[]> originBytes = new ArrayList<>();
+        int[] recordOrigins = new int[count];
+        int stringTableSize = 4;
+
+        for (int i = 0; i < count; i++) {
+            String origin = origins[i] != null ? origins[i] : "";
+            Integer index = originIndex.get(origin);
+            if (index == null) {
+                byte[] bytes = origin.getBytes(StandardCharsets.UTF_8);
+                index = originBytes.size();
+                originIndex.put(origin, index);
+                originBytes.add(bytes);
+                stringTableSize += 4 + bytes.length;
+            }
+            recordOrigins[i] = index;
+        }
+
+        ByteBuffer buffer = allocate(HEADER_SIZE + count * RECORD_SIZE + stringTableSize);
+        writeHeader(buffer, TYPE_RECORDS, requestId, sequence, count, endOfStream ? FLAG_END_OF_STREAM : 0,
+            rangeStart, rangeEnd);
+
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(counts[i]).putLong(starts[i]).putLong(ends[i]).putInt(recordOrigins[i]);
+        }
+
+        buffer.putInt(originBytes.size());
+        for (byte[] bytes : originBytes) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeHeader(ByteBuffer buffer, short type, long requestId, int sequence, int count, int flags,
+                                    long rangeStart, long rangeEnd) {
+        buffer.putInt(MAGIC)
+            .putShort(VERSION)
+            .putShort(type)
+            .putLong(requestId)
+            .putInt(sequence)
+            .putInt(count)
+            .putInt(flags)
+            .putInt(0)
+            .putLong(rangeStart)
+            .putLong(rangeEnd);
+    }
+}
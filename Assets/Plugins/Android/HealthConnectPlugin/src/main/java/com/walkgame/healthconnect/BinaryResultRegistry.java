@@ -0,0 +1,61 @@
+/*
+ * BinaryResultRegistry.java
+ * Handles for binary results waiting to be read by Unity
+ *
+ * Unity is told only the handle of a result; it fetches the buffer by handle, reads it
+ * in place and releases it. Buffers that are never released are evicted oldest-first
+ * once MAX_PENDING results are waiting.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class BinaryResultRegistry {
+
+    static final int MAX_PENDING = 64;
+
+    private final Map<Integer, ByteBuffer> pending = new LinkedHashMap<>();
+    private int nextHandle = 1;
+
+    /**
+     * Register a buffer and return its handle
+     */
+    synchronized int register(ByteBuffer buffer) {
+        if (pending.size() >= MAX_PENDING) {
+            Iterator<Integer> oldest = pending.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+
+        int handle = nextHandle++;
+        if (nextHandle <= 0) {
+            nextHandle = 1;
+        }
+
+        pending.put(handle, buffer);
+        return handle;
+    }
+
+    /**
+     * Get a registered buffer, or null if the handle is unknown or was evicted
+     */
+    synchronized ByteBuffer get(int handle) {
+        return pending.get(handle);
+    }
+
+    synchronized void release(int handle) {
+        pending.remove(handle);
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    synchronized void clear() {
+        pending.clear();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * BridgeMetrics.java
+ * Latency histograms and outcome counters for each bridge operation
+ *
+ * Health Connect calls are timed from the moment the call is made until its future
+ * completes, once per call that actually reaches Health Connect: callers coalesced onto
+ * an in-flight call are not counted again. The Unity hop is timed from the moment a
+ * message is queued until UnitySendMessage returns on the main thread.
+ *
+ * A call that fails with a TimeoutException, or is cancelled because its request's deadline
+ * passed, counts as a timeout. Other cancellations (the caller cancelled, a newer
+ * latest-wins request took over, every coalesced waiter left) are counted apart, so they
+ * do not make a device look slow.
+ *
+ * Everything is lock-free; recording costs a few atomic increments. Timed Health
+ * Connect calls also show up as async trace slices when BridgeTrace is enabled.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class BridgeMetrics {
+
+    static final int OP_AGGREGATE = 0;
+    static final int OP_AGGREGATE_BY_DURATION = 1;
+    static final int OP_AGGREGATE_BY_PERIOD = 2;
+    static final int OP_READ_RECORDS = 3;
+    static final int OP_GET_CHANGES = 4;
+    static final int OP_GET_CHANGES_TOKEN = 5;
+    static final int OP_GET_GRANTED_PERMISSIONS = 6;
+    static final int OP_UNITY_POST = 7;
+
+    // Indexed by the OP_ constants, also the keys of the snapshot
+    private static final String[] OPERATION_NAMES = {
+        "aggregate",
+        "aggregateGroupByDuration",
+        "aggregateGroupByPeriod",
+        "readRecords",
+        "getChanges",
+        "getChangesToken",
+        "getGrantedPermissions",
+        "unityPost"
+    };
+
+    private final Operation[] operations = new Operation[OPERATION_NAMES.length];
+    private final String[] traceNames = new String[OPERATION_NAMES.length];
+    private final AtomicInteger traceCookies = new AtomicInteger();
+    private volatile long sinceElapsed = SystemClock.elapsedRealtime();
+
+    BridgeMetrics() {
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new Operation();
+            traceNames[i] = BridgeTrace.ASYNC_CALL_PREFIX + OPERATION_NAMES[i];
+        }
+    }
+
+    /**
+     * Start time for record(), on the same clock
+     */
+    static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record one completed operation
+     * @param startNanos Value of now() when the operation started
+     */
+    void record(int operation, long startNanos, int outcome) {
+        Operation op = operations[operation];
+        op.latency.record((System.nanoTime() - startNanos) / 1000);
+        op.outcomes[outcome].incrementAndGet();
+    }
+
+    /**
+     * Time a Health Connect call until its future completes
+     * @return The same future, for chaining
+     */
+    <T> ListenableFuture<T> time(final int operation, ListenableFuture<T> future) {
+        final long startNanos = now();
+        final int cookie = traceCookies.incrementAndGet();
+        BridgeTrace.beginAsync(traceNames[operation], cookie);
+
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                BridgeTrace.endAsync(traceNames[operation], cookie);
+                record(operation, startNanos, Operation.SUCCESS);
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                BridgeTrace.endAsync(traceNames[operation], cookie);
+                record(operation, startNanos, outcomeOf(t));
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private static int outcomeOf(Throwable t) {
+        if (t instanceof TimeoutException) {
+            return Operation.TIMEOUT;
+        }
+        if (t instanceof CancellationException) {
+            return RequestTracker.isExpiring() ? Operation.TIMEOUT : Operation.CANCELLED;
+        }
+        return Operation.FAILURE;
+    }
+
+    void reset() {
+        for (Operation op : operations) {
+            op.latency.reset();
+            for (AtomicLong outcome : op.outcomes) {
+                outcome.set(0);
+            }
+        }
+        sinceElapsed = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Write {"intervalMillis":...,"operations":{"aggregate":{"success":..,"failure":..,
+     * "timeout":..,"cancelled":..,"count":..,"meanMicros":..,...},...}} fields into an open object
+     */
+    void writeTo(JsonWriter json) {
+        json.field("intervalMillis", SystemClock.elapsedRealtime() - sinceElapsed)
+            .name("operations")
+            .beginObject();
+        for (int i = 0; i < operations.length; i++) {
+            Operation op = operations[i];
+            json.name(OPERATION_NAMES[i])
+                .beginObject()
+                .field("success", op.outcomes[Operation.SUCCESS].get())
+                .field("failure", op.outcomes[Operation.FAILURE].get())
+                .field("timeout", op.outcomes[Operation.TIMEOUT].get())
+                .field("cancelled", op.outcomes[Operation.CANCELLED].get());
+            op.latency.writeTo(json);
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    static final class Operation {
+        static final int SUCCESS = 0;
+        static final int FAILURE = 1;
+        static final int TIMEOUT = 2;
+        static final int CANCELLED = 3;
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong[] outcomes = { new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong() };
+    }
+}
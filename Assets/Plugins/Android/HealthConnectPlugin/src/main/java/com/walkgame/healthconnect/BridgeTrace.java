@@ -0,0 +1,106 @@
+/*
+ * BridgeTrace.java
+ * System trace sections for bridge work, visible in Perfetto next to Unity's frames
+ *
+ * Synchronous phases (building and issuing a request, encoding a result, flushing
+ * messages on the main looper, UnitySendMessage) are trace sections on the thread that
+ * runs them. Work that spans threads (a request from submission to its result, each
+ * Health Connect call until its future completes, messages waiting for the main looper)
+ * is an async slice keyed by a cookie, the request id where there is one.
+ *
+ * Off by default and switched at runtime with HealthConnectBridge.setTracingEnabled.
+ * Even when enabled nothing is emitted unless a trace is being captured. Async slices
+ * need API 29; on older devices only the sections are emitted.
+ *
+ *   boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_ENCODE);
+ *   try {
+ *       ...
+ *   } finally {
+ *       BridgeTrace.end(traced);
+ *   }
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import android.os.Build;
+import android.os.Trace;
+
+final class BridgeTrace {
+
+    static final String SECTION_BUILD_REQUEST = "HealthConnect:buildRequest";
+    static final String SECTION_ENCODE = "HealthConnect:encode";
+    static final String SECTION_FLUSH = "HealthConnect:flushToUnity";
+    static final String SECTION_UNITY_SEND = "UnitySendMessage";
+
+    static final String ASYNC_REQUEST = "HealthConnect:request";
+    static final String ASYNC_UNITY_QUEUE = "HealthConnect:unityQueue";
+    static final String ASYNC_CALL_PREFIX = "HealthConnect:";
+
+    private static volatile boolean enabled;
+
+    private BridgeTrace() {
+    }
+
+    static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Begin a section on the calling thread
+     * @return Whether a section was begun; pass it to end() so sections stay balanced
+     *         even if tracing is switched while the section is open
+     */
+    static boolean begin(String section) {
+        if (!enabled || !isCapturing()) {
+            return false;
+        }
+        Trace.beginSection(section);
+        return true;
+    }
+
+    static void end(boolean begun) {
+        if (begun) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Begin an async slice, which may end on another thread
+     */
+    static void beginAsync(String name, long cookie) {
+        if (enabled && isCapturingAsync()) {
+            Trace.beginAsyncSection(name, toCookie(cookie));
+        }
+    }
+
+    /**
+     * End an async slice. Ending a slice that was never begun is ignored by the trace viewer.
+     */
+    static void endAsync(String name, long cookie) {
+        if (enabled && isCapturingAsync()) {
+            Trace.endAsyncSection(name, toCookie(cookie));
+        }
+    }
+
+    private static int toCookie(long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    /**
+     * Trace.isEnabled needs API 29; below that sections are cheap no-ops when not capturing
+     */
+    private static boolean isCapturing() {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || Trace.isEnabled();
+    }
+
+    /**
+     * Async slices need API 29 and are skipped on older devices
+     */
+    private static boolean isCapturingAsync() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled();
+    }
+}
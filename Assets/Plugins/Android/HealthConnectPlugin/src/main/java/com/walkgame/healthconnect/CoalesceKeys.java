@@ -0,0 +1,63 @@
+/*
+ * CoalesceKeys.java
+ * SingleFlight keys of the bridge's Health Connect calls
+ *
+ * A key is "operation|metrics|start|end". Calls that share a key share one future, so every
+ * operation that produces a different result type (Long for a step total, long[] for a
+ * metrics aggregate, StepIntervals for grouped aggregates) has its own operation name, even
+ * when the metrics part happens to be the same.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+final class CoalesceKeys {
+
+    // Open-ended ("until now") queries started within this window are treated as identical
+    static final long COALESCE_WINDOW_MILLIS = 1000;
+
+    private static final String METRICS_KEY_STEPS = "steps";
+
+    private CoalesceKeys() {
+    }
+
+    /**
+     * Step total of [startMillis, endMillis); Long result
+     * @param openEnded Whether endMillis is "now"; such ends are bucketed to COALESCE_WINDOW_MILLIS
+     */
+    static String steps(long startMillis, long endMillis, boolean openEnded) {
+        return key("aggregate", METRICS_KEY_STEPS, startMillis, endMillis, openEnded);
+    }
+
+    /**
+     * Aggregate of the given sorted HealthMetrics ids; long[] result
+     */
+    static String metrics(long startMillis, long endMillis, int[] metrics) {
+        return key("aggregateMetrics", HealthMetrics.key(metrics), startMillis, endMillis, false);
+    }
+
+    /**
+     * Steps grouped by fixed-length buckets; StepIntervals result
+     */
+    static String stepsByDuration(int bucketMinutes, long startMillis, long endMillis) {
+        return key("groupByDuration:" + bucketMinutes, METRICS_KEY_STEPS, startMillis, endMillis, false);
+    }
+
+    /**
+     * Steps grouped by calendar days in a zone; StepIntervals result
+     */
+    static String stepsByPeriod(int bucketDays, String zoneId, long startMillis, long endMillis) {
+        return key("groupByPeriod:" + bucketDays + ":" + zoneId, METRICS_KEY_STEPS, startMillis, endMillis, false);
+    }
+
+    /**
+     * Hourly refresh of the step store for [startHour, endHour); StepIntervals result
+     */
+    static String storeRefresh(long startHour, long endHour) {
+        return key("storeRefresh", METRICS_KEY_STEPS, startHour, endHour, false);
+    }
+
+    private static String key(String operation, String metricsKey, long start, long end, boolean openEnded) {
+        long normalizedEnd = openEnded ? end / COALESCE_WINDOW_MILLIS : end;
+        return operation + '|' + metricsKey + '|' + start + '|' + (openEnded ? "~" : "") + normalizedEnd;
+    }
+}
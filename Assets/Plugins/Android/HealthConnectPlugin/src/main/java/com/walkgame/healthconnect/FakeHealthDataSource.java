@@ -0,0 +1,289 @@
+/*
+ * FakeHealthDataSource.java
+ * In-memory Health Connect backend for load testing
+ *
+ * Serves aggregates, step records and permission checks from a SyntheticStepData
+ * dataset instead of Health Connect. Every call can be delayed by a configurable base
+ * latency plus random jitter, and can fail at a configurable rate, so the bridge's
+ * scheduling, coalescing and paging can be exercised under load, on a device without
+ * Health Connect or on a plain JVM.
+ *
+ * With no latency, calls are answered on the calling thread; otherwise they complete on
+ * the scheduler.
+ *
+ * The dataset only holds steps; distance, active calories and exercise time are derived
+ * from them with fixed per-step rates.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+final class FakeHealthDataSource implements HealthDataSource {
+
+    static final String PERMISSION_READ_STEPS = "android.permission.health.READ_STEPS";
+    static final String PERMISSION_READ_IN_BACKGROUND = "android.permission.health.READ_HEALTH_DATA_IN_BACKGROUND";
+    static final String PERMISSION_READ_DISTANCE = "android.permission.health.READ_DISTANCE";
+    static final String PERMISSION_READ_ACTIVE_CALORIES = "android.permission.health.READ_ACTIVE_CALORIES_BURNED";
+    static final String PERMISSION_READ_EXERCISE = "android.permission.health.READ_EXERCISE";
+
+    // Rates the derived metrics are generated with
+    private static final double METERS_PER_STEP = 0.76;
+    private static final double KILOCALORIES_PER_STEP = 0.04;
+    private static final long EXERCISE_MILLIS_PER_STEP = 600;
+
+    private final SyntheticStepData data;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double failureRate;
+    private volatile Set<String> grantedPermissions = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        PERMISSION_READ_STEPS, PERMISSION_READ_IN_BACKGROUND, PERMISSION_READ_DISTANCE, PERMISSION_READ_ACTIVE_CALORIES,
+        PERMISSION_READ_EXERCISE)));
+
+    FakeHealthDataSource(SyntheticStepData data, ScheduledExecutorService scheduler) {
+        this.data = data;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Delay every call by latencyMillis plus a uniformly random 0..jitterMillis
+     */
+    void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = Math.max(0, latencyMillis);
+        this.jitterMillis = Math.max(0, jitterMillis);
+    }
+
+    /**
+     * Fail this fraction of calls (0..1) with an IOException
+     */
+    void setFailureRate(double failureRate) {
+        this.failureRate = Math.max(0, Math.min(1, failureRate));
+    }
+
+    void setGrantedPermissions(Set<String> permissions) {
+        grantedPermissions = Collections.unmodifiableSet(new HashSet<>(permissions));
+    }
+
+    SyntheticStepData getData() {
+        return data;
+    }
+
+    @Override
+    public ListenableFuture<Long> aggregateSteps(final long startMillis, final long endMillis) {
+        return serve("aggregate", new Callable<Long>() {
+            @Override
+            public Long call() {
+                return data.sumSteps(startMillis, endMillis);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<long[]> aggregateMetrics(final long startMillis, final long endMillis, final int[] metrics) {
+        return serve("aggregate", new Callable<long[]>() {
+            @Override
+            public long[] call() {
+                long steps = data.sumSteps(startMillis, endMillis);
+                long[] values = new long[metrics.length];
+                for (int i = 0; i < metrics.length; i++) {
+                    switch (metrics[i]) {
+                        case HealthMetrics.DISTANCE:
+                            values[i] = HealthMetrics.fromMeters(steps * METERS_PER_STEP);
+                            break;
+                        case HealthMetrics.ACTIVE_CALORIES:
+                            values[i] = HealthMetrics.fromKilocalories(steps * KILOCALORIES_PER_STEP);
+                            break;
+                        case HealthMetrics.EXERCISE_DURATION:
+                            values[i] = steps * EXERCISE_MILLIS_PER_STEP;
+                            break;
+                        default:
+                            values[i] = steps;
+                            break;
+                    }
+                }
+                return values;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<StepIntervals> aggregateStepsByDuration(final long startMillis, final long endMillis,
+                                                                   final long bucketMillis) {
+        return serve("aggregateGroupByDuration", new Callable<StepIntervals>() {
+            @Override
+            public StepIntervals call() {
+                int capacity = (int) Math.min(Integer.MAX_VALUE, (endMillis - startMillis + bucketMillis - 1) / bucketMillis);
+                IntervalCollector intervals = new IntervalCollector(capacity);
+                for (long start = startMillis; start < endMillis; start += bucketMillis) {
+                    intervals.add(start, Math.min(start + bucketMillis, endMillis));
+                }
+                return intervals.build();
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<StepIntervals> aggregateStepsByPeriod(final long startMillis, final long endMillis,
+                                                                 final int bucketDays, final ZoneId zone) {
+        return serve("aggregateGroupByPeriod", new Callable<StepIntervals>() {
+            @Override
+            public StepIntervals call() {
+                IntervalCollector intervals = new IntervalCollector(16);
+                ZonedDateTime start = Instant.ofEpochMilli(startMillis).atZone(zone);
+                while (start.toInstant().toEpochMilli() < endMillis) {
+                    ZonedDateTime end = start.plusDays(bucketDays);
+                    intervals.add(start.toInstant().toEpochMilli(), Math.min(end.toInstant().toEpochMilli(), endMillis));
+                    start = end;
+                }
+                return intervals.build();
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<StepRecordsPage> readStepRecords(final long startMillis, final long endMillis,
+                                                            final int pageSize, final String pageToken) {
+        return serve("readRecords", new Callable<StepRecordsPage>() {
+            @Override
+            public StepRecordsPage call() {
+                return readPage(startMillis, endMillis, pageSize, pageToken);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Set<String>> getGrantedPermissions() {
+        return serve("getGrantedPermissions", new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() {
+                return grantedPermissions;
+            }
+        });
+    }
+
+    /**
+     * Records in ascending start time, origins in priority order within a minute.
+     * The page token is the position to continue from: minuteIndex * originCount + origin.
+     */
+    private StepRecordsPage readPage(long startMillis, long endMillis, int pageSize, String pageToken) {
+        int originCount = data.getOriginCount();
+        long position = pageToken != null
+            ? Long.parseLong(pageToken)
+            : (long) data.firstIndex(startMillis) * originCount;
+        long endPosition = (long) data.endIndex(endMillis) * originCount;
+
+        long[] counts = new long[pageSize];
+        long[] starts = new long[pageSize];
+        long[] ends = new long[pageSize];
+        String[] origins = new String[pageSize];
+        int count = 0;
+
+        for (; position < endPosition; position++) {
+            int index = (int) (position / originCount);
+            int origin = (int) (position % originCount);
+            int steps = data.getSteps(origin, index);
+            if (steps == 0) {
+                continue;
+            }
+            if (count == pageSize) {
+                break;
+            }
+            counts[count] = steps;
+            starts[count] = data.toMillis(index);
+            ends[count] = starts[count] + SyntheticStepData.MINUTE_MILLIS;
+            origins[count] = data.getOrigin(origin);
+            count++;
+        }
+
+        String nextPageToken = position < endPosition ? String.valueOf(position) : null;
+        return new StepRecordsPage(counts, starts, ends, origins, count, nextPageToken);
+    }
+
+    private <T> ListenableFuture<T> serve(final String operation, final Callable<T> call) {
+        long delay = latencyMillis;
+        long jitter = jitterMillis;
+        if (jitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+
+        if (delay <= 0) {
+            return complete(operation, call);
+        }
+
+        final SettableFuture<T> future = SettableFuture.create();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.setFuture(complete(operation, call));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private <T> ListenableFuture<T> complete(String operation, Callable<T> call) {
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            return Futures.immediateFailedFuture(new IOException("Injected failure in " + operation));
+        }
+
+        try {
+            return Futures.immediateFuture(call.call());
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Collects the non-empty intervals of a grouped aggregate
+     */
+    private final class IntervalCollector {
+        private long[] steps;
+        private long[] starts;
+        private long[] ends;
+        private int count;
+
+        IntervalCollector(int capacity) {
+            int initial = Math.max(1, Math.min(capacity, 4096));
+            steps = new long[initial];
+            starts = new long[initial];
+            ends = new long[initial];
+        }
+
+        void add(long startMillis, long endMillis) {
+            long total = data.sumSteps(startMillis, endMillis);
+            if (total == 0) {
+                return;
+            }
+
+            if (count == steps.length) {
+                steps = Arrays.copyOf(steps, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            steps[count] = total;
+            starts[count] = startMillis;
+            ends[count] = endMillis;
+            count++;
+        }
+
+        StepIntervals build() {
+            return new StepIntervals(steps, starts, ends, count);
+        }
+    }
+}
@@ -9,57 +9,206 @@
 package com.gimgim.codenamei.healthconnect;
 
 import android.app.Activity;
+import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 import androidx.health.connect.client.HealthConnectClient;
 import androidx.health.connect.client.PermissionController;
+import androidx.health.connect.client.changes.Change;
+import androidx.health.connect.client.changes.DeletionChange;
+import androidx.health.connect.client.changes.UpsertionChange;
 import androidx.health.connect.client.permission.HealthPermission;
 import androidx.health.connect.client.records.StepsRecord;
-import androidx.health.connect.client.request.AggregateRequest;
+import androidx.health.connect.client.request.ChangesTokenRequest;
 import androidx.health.connect.client.request.ReadRecordsRequest;
-import androidx.health.connect.client.response.AggregateResponse;
+import androidx.health.connect.client.response.ChangesResponse;
 import androidx.health.connect.client.response.ReadRecordsResponse;
 import androidx.health.connect.client.time.TimeRangeFilter;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
 
+import com.google.common.util.concurrent.AsyncCallable;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.unity3d.player.UnityPlayer;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class HealthConnectBridge {
     
     private static final String TAG = "HealthConnectBridge";
     private static final String UNITY_GAME_OBJECT = "HealthConnectReceiver";
+    private static final String HEALTH_CONNECT_PACKAGE = "com.google.android.apps.healthdata";
     public static final int REQUEST_CODE_PERMISSIONS = 1001;
+    public static final int REQUEST_CODE_BACKGROUND_PERMISSION = 1002;
+    
+    // Request id used for errors that do not belong to a query (initialization, permissions)
+    public static final long NO_REQUEST_ID = RequestTracker.NO_REQUEST_ID;
+    
+    // getStoredSteps result while the step store is still being loaded from disk
+    public static final long STORED_STEPS_NOT_READY = -2;
+    
+    public static final int TRANSPORT_JSON = 0;
+    public static final int TRANSPORT_BINARY = 1;
+    
+    // Call types for configureQuota
+    public static final int QUOTA_AGGREGATE = QuotaScheduler.CALL_AGGREGATE;
+    public static final int QUOTA_READ_RECORDS = QuotaScheduler.CALL_READ_RECORDS;
+    public static final int QUOTA_CHANGES = QuotaScheduler.CALL_CHANGES;
+    
+    // Metric ids for getMetricsForDateRange
+    public static final int METRIC_STEPS = HealthMetrics.STEPS;
+    public static final int METRIC_DISTANCE = HealthMetrics.DISTANCE;
+    public static final int METRIC_ACTIVE_CALORIES = HealthMetrics.ACTIVE_CALORIES;
+    public static final int METRIC_EXERCISE_DURATION = HealthMetrics.EXERCISE_DURATION;
+    
+    // Request priorities, see setRequestPriority
+    public static final int PRIORITY_INTERACTIVE = PriorityWorkQueue.PRIORITY_INTERACTIVE;
+    public static final int PRIORITY_NORMAL = PriorityWorkQueue.PRIORITY_NORMAL;
+    public static final int PRIORITY_BACKGROUND = PriorityWorkQueue.PRIORITY_BACKGROUND;
+    
+    private static final int DEFAULT_RECORDS_PAGE_SIZE = 1000;
+    private static final int MAX_RECORDS_PAGE_SIZE = 5000;
+    
+    private static final String PREFS_NAME = "HealthConnectBridge";
+    private static final String PREF_CHANGES_TOKEN = "stepsChangesToken";
+    private static final String LEDGER_FILE_NAME = "healthconnect_step_ledger.bin";
+    private static final long CHANGES_TOKEN_LIFETIME_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    
+    // Upper bound on aggregate calls a single multi-range query keeps in flight
+    private static final int MAX_RANGE_CONCURRENCY = 4;
+    
+    // Availability has not been computed, or was invalidated by a package change
+    private static final int AVAILABILITY_UNKNOWN = -1;
+    
+    private static final int MIN_BACKGROUND_SYNC_MINUTES = 15;
+    
+    // A prefetched "today" total older than this is not served
+    private static final long WARM_TODAY_MAX_AGE_MILLIS = 60 * 1000;
+    
+    // Worker pool defaults, see configureExecutor
+    private static final int DEFAULT_WORKER_THREADS = 2;
+    private static final int DEFAULT_WORK_QUEUE_CAPACITY = 64;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
     
     private static volatile HealthConnectBridge instance;
     
-    private HealthConnectClient healthConnectClient;
-    private final Executor executor = Executors.newSingleThreadExecutor();
+    private volatile HealthConnectClient healthConnectClient;
+    
+    // Where queries are served from: Health Connect, or a fake backend installed for load testing
+    private volatile HealthDataSource dataSource;
+    private ScheduledExecutorService fakeBackendScheduler; // Guarded by this
+    
+    // Application context handed over by the startup warm-up, used before Unity's activity exists
+    private volatile Context appContext;
+    
+    // Today's aggregate prefetched by the warm-up, answered to the first today query
+    private final AtomicReference<WarmTodaySteps> warmTodaySteps = new AtomicReference<>();
+    
+    private volatile int workerThreads = DEFAULT_WORKER_THREADS;
+    private volatile int workQueueCapacity = DEFAULT_WORK_QUEUE_CAPACITY;
+    private ThreadPoolExecutor workerPool; // Guarded by this
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicBoolean stepStoreLoading = new AtomicBoolean();
+    
+    /**
+     * Run Health Connect completions on the worker pool, one executor per request priority.
+     * Background completions (record pages, backfills) run one at a time, so they hold at
+     * most one worker and an interactive request never waits behind more than one of them.
+     */
+    private final Executor[] laneExecutors = {
+        newLaneExecutor(PRIORITY_INTERACTIVE),
+        newLaneExecutor(PRIORITY_NORMAL),
+        MoreExecutors.newSequentialExecutor(newLaneExecutor(PRIORITY_BACKGROUND))
+    };
+    
+    // Completions that do not belong to a request (permissions, warm-up)
+    private final Executor executor = laneExecutors[PRIORITY_NORMAL];
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final BridgeMetrics bridgeMetrics = new BridgeMetrics();
+    private final UnityMessageBatcher messageBatcher = new UnityMessageBatcher(mainHandler, UNITY_GAME_OBJECT, bridgeMetrics);
     private final Set<String> permissions = new HashSet<>();
     
+    // Read permissions of the metrics beyond steps; requested with permissions but not required
+    private final Set<String> metricPermissions = new HashSet<>();
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final QuotaScheduler quotaScheduler = new QuotaScheduler(
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "HealthConnectQuota");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    private final RequestTracker requests = new RequestTracker(mainHandler, new RequestTracker.TimeoutListener() {
+        @Override
+        public void onTimeout(long requestId, long timeoutMillis) {
+            Log.w(TAG, "Request " + requestId + " timed out after " + timeoutMillis + " ms");
+            deliverError(requestId, "Timeout", "No result within " + timeoutMillis + " ms");
+        }
+    });
+    private final BinaryResultRegistry binaryResults = new BinaryResultRegistry();
+    private volatile int transportMode = TRANSPORT_JSON;
+    private volatile HealthConnectListener listener;
+    
+    private StepChangeLedger changeLedger; // Guarded by this
+    
+    // SDK availability, computed once and invalidated only by Health Connect package changes
+    private volatile int cachedAvailability = AVAILABILITY_UNKNOWN;
+    private Context packageReceiverContext; // Guarded by this
+    private BroadcastReceiver packageReceiver; // Guarded by this
+    
+    // Permission state cached from getGrantedPermissions, refreshed asynchronously
+    private volatile boolean permissionsGranted;
+    private volatile Set<String> grantedPermissions; // Null until first read
+    private Application lifecycleApplication; // Guarded by this
+    private Application.ActivityLifecycleCallbacks lifecycleCallbacks; // Guarded by this
+    
     private HealthConnectBridge() {
         permissions.add(HealthPermission.getReadPermission(StepsRecord.class));
+        for (int metric = 0; metric < HealthMetrics.COUNT; metric++) {
+            if (metric != HealthMetrics.STEPS) {
+                metricPermissions.add(HealthMetrics.readPermission(metric));
+            }
+        }
     }
     
     public static HealthConnectBridge getInstance() {
@@ -81,11 +230,15 @@ public class HealthConnectBridge {
      * Initialize Health Connect
      */
     public static void initialize() {
-        getInstance().init();
+        HealthConnectBridge bridge = getInstance();
+        bridge.startWorkerPool();
+        bridge.init();
     }
     
     /**
-     * Check if Health Connect is available
+     * Check if Health Connect is available. The status is computed once and cached until the
+     * Health Connect package is installed, updated or removed, which is also reported to
+     * Unity through OnAvailabilityChanged once initialize has been called.
      * @return 0 = unavailable, 1 = available, 2 = needs update
      */
     public static int checkAvailability() {
@@ -100,344 +253,1842 @@ public class HealthConnectBridge {
     }
     
     /**
-     * Check if permissions are granted
+     * Check if permissions are granted. Answers from the cached permission state without
+     * any IPC; the cache is refreshed at initialize, after permission results and whenever
+     * an activity resumes. Returns false until the first refresh has completed.
      */
     public static boolean checkPermissions() {
-        return getInstance().hasPermissions();
+        return getInstance().permissionsGranted;
+    }
+    
+    /**
+     * Re-read the granted permissions from Health Connect. The result arrives through
+     * OnPermissionsRefreshed as "true" or "false".
+     */
+    public static void refreshPermissions() {
+        HealthConnectBridge bridge = getInstance();
+        bridge.refreshPermissionState(bridge.permissions, "OnPermissionsRefreshed");
+    }
+    
+    /**
+     * Request READ_HEALTH_DATA_IN_BACKGROUND so the background sync can read steps.
+     * The result arrives through OnBackgroundPermissionResult; "false" if the device
+     * does not support background reads.
+     */
+    public static void requestBackgroundPermission() {
+        getInstance().requestBackgroundReadPermission();
+    }
+    
+    /**
+     * Periodically sync hourly steps into the plugin's step store in the background, so
+     * getStepsFromStore and getStoredSteps can answer at launch and only the hours of the
+     * last two days need fetching. Runs only while background reads are permitted.
+     * @param intervalMinutes Sync period, at least 15 minutes
+     * @return false if there is no Android context to schedule with
+     */
+    public static boolean scheduleBackgroundSync(int intervalMinutes) {
+        Context context = getInstance().getContext();
+        if (context == null) {
+            return false;
+        }
+        
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                StepSyncWorker.class,
+                Math.max(MIN_BACKGROUND_SYNC_MINUTES, intervalMinutes),
+                TimeUnit.MINUTES)
+            .setConstraints(new Constraints.Builder().setRequiresBatteryNotLow(true).build())
+            .build();
+        
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+            StepSyncWorker.UNIQUE_WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE, request);
+        return true;
+    }
+    
+    /**
+     * Stop the periodic background sync
+     */
+    public static void cancelBackgroundSync() {
+        Context context = getInstance().getContext();
+        if (context != null) {
+            WorkManager.getInstance(context).cancelUniqueWork(StepSyncWorker.UNIQUE_WORK_NAME);
+        }
     }
     
     /**
      * Get steps since a timestamp
+     * @param requestId Caller-chosen id echoed in the response
      * @param timestampMillis Milliseconds since epoch
      */
-    public static void getStepsSince(long timestampMillis) {
-        getInstance().queryStepsSince(timestampMillis);
+    public static void getStepsSince(final long requestId, final long timestampMillis) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_INTERACTIVE, "getStepsSince", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepsSince(requestId, timestampMillis);
+            }
+        });
     }
     
     /**
      * Get steps for a date range
+     * @param requestId Caller-chosen id echoed in the response
      * @param startMillis Start time in milliseconds
      * @param endMillis End time in milliseconds
      */
-    public static void getStepsForDateRange(long startMillis, long endMillis) {
-        getInstance().queryStepsForRange(startMillis, endMillis);
+    public static void getStepsForDateRange(final long requestId, final long startMillis, final long endMillis) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_NORMAL, "getStepsForDateRange", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepsForRange(requestId, startMillis, endMillis);
+            }
+        });
+    }
+    
+    /**
+     * Get steps for several arbitrary date ranges in one call. The ranges are aggregated
+     * with bounded concurrency and delivered together in one OnStepRangesReceived message.
+     * @param requestId Caller-chosen id echoed in the response
+     * @param startMillis Start time of each range in milliseconds
+     * @param endMillis End time of each range in milliseconds, same length as startMillis
+     */
+    public static void getStepsForRanges(final long requestId, final long[] startMillis, final long[] endMillis) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_BACKGROUND, "getStepsForRanges", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepsForRanges(requestId, startMillis, endMillis);
+            }
+        });
     }
     
     /**
      * Get steps for today
+     * @param requestId Caller-chosen id echoed in the response
      */
-    public static void getStepsToday() {
-        getInstance().queryStepsToday();
+    public static void getStepsToday(final long requestId) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_INTERACTIVE, "getStepsToday", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepsToday(requestId);
+            }
+        });
     }
     
     /**
-     * Open Health Connect settings
+     * Get steps for a date range split into fixed-length buckets, in a single aggregate call
+     * @param requestId Caller-chosen id echoed in the response
+     * @param startMillis Start time in milliseconds
+     * @param endMillis End time in milliseconds
+     * @param bucketMinutes Length of each bucket in minutes
      */
-    public static void openHealthConnectSettings() {
-        getInstance().openSettings();
+    public static void getStepsBucketed(final long requestId, final long startMillis, final long endMillis, final int bucketMinutes) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_NORMAL, "getStepsBucketed", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepsBucketedByDuration(requestId, startMillis, endMillis, bucketMinutes);
+            }
+        });
     }
     
     /**
-     * Open Play Store to install Health Connect
+     * Get steps for a date range split into calendar-day buckets in the device time zone,
+     * in a single aggregate call
+     * @param requestId Caller-chosen id echoed in the response
+     * @param startMillis Start time in milliseconds, floored to local midnight
+     * @param endMillis End time in milliseconds
+     * @param bucketDays Number of calendar days per bucket
      */
-    public static void openPlayStoreForHealthConnect() {
-        getInstance().openPlayStore();
+    public static void getStepsBucketedByDays(final long requestId, final long startMillis, final long endMillis, final int bucketDays) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_NORMAL, "getStepsBucketedByDays", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepsBucketedByPeriod(requestId, startMillis, endMillis, bucketDays);
+            }
+        });
     }
     
-    // ============================================================
-    // Implementation methods
-    // ============================================================
+    /**
+     * Sync steps incrementally using the Health Connect Changes API.
+     * Reports only the step delta since the previous sync; falls back to a full
+     * aggregate since timestampMillis when there is no valid changes token, or when
+     * timestampMillis differs from the one the previous full aggregate was taken for.
+     * @param requestId Caller-chosen id echoed in the response
+     * @param timestampMillis Start of the counting window in milliseconds
+     */
+    public static void syncStepChanges(final long requestId, final long timestampMillis) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_NORMAL, "syncStepChanges", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepChanges(requestId, timestampMillis);
+            }
+        });
+    }
     
     /**
-     * Initialize the Health Connect client
+     * Forget the stored changes token so the next sync does a full resync
      */
-    private void init() {
-        Log.d(TAG, "Initializing Health Connect Bridge");
-        
-        Context context = getContext();
-        if (context == null) {
-            sendErrorToUnity("NoContext", "Unable to get Android context");
-            return;
-        }
-        
-        int availability = HealthConnectClient.getSdkStatus(context);
-        
-        switch (availability) {
-            case HealthConnectClient.SDK_AVAILABLE:
-                try {
-                    healthConnectClient = HealthConnectClient.getOrCreate(context);
-                    Log.d(TAG, "Health Connect client created successfully");
-                    sendMessageToUnity("OnHealthConnectInitialized", "true");
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to create Health Connect client", e);
-                    sendErrorToUnity("InitFailed", e.getMessage() != null ? e.getMessage() : "Unknown error");
-                }
-                break;
-                
-            case HealthConnectClient.SDK_UNAVAILABLE:
-                Log.w(TAG, "Health Connect SDK is not available on this device");
-                sendMessageToUnity("OnHealthConnectInitialized", "false");
-                break;
-                
-            case HealthConnectClient.SDK_UNAVAILABLE_PROVIDER_UPDATE_REQUIRED:
-                Log.w(TAG, "Health Connect needs to be installed or updated");
-                sendMessageToUnity("OnHealthConnectInitialized", "needsUpdate");
-                break;
-                
-            default:
-                Log.w(TAG, "Unknown Health Connect availability status: " + availability);
-                sendMessageToUnity("OnHealthConnectInitialized", "false");
-                break;
-        }
+    public static void resetStepChanges() {
+        getInstance().clearChangesToken();
     }
     
     /**
-     * Check if Health Connect is available
-     * @return 0 = unavailable, 1 = available, 2 = needs update
+     * Get steps for a date range from the plugin's hourly step store, fetching from
+     * Health Connect only the hours that are not final yet (the last two days, which may still
+     * receive late data, and anything never stored).
+     * The range is widened to whole hours.
+     * @param requestId Caller-chosen id echoed in every response
+     * @param startMillis Start time in milliseconds
+     * @param endMillis End time in milliseconds
      */
-    private int checkHealthConnectAvailability() {
-        Context context = getContext();
-        if (context == null) {
-            return 0;
-        }
-        
-        int status = HealthConnectClient.getSdkStatus(context);
-        
-        switch (status) {
-            case HealthConnectClient.SDK_AVAILABLE:
-                return 1;
-            case HealthConnectClient.SDK_UNAVAILABLE_PROVIDER_UPDATE_REQUIRED:
-                return 2;
-            default:
-                return 0;
-        }
+    public static void getStepsFromStore(final long requestId, final long startMillis, final long endMillis) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_INTERACTIVE, "getStepsFromStore", new Runnable() {
+            @Override
+            public void run() {
+                bridge.queryStepsFromStore(requestId, startMillis, endMillis);
+            }
+        });
     }
     
     /**
-     * Request Health Connect permissions
+     * Read steps for a date range straight from the hourly step store without any IPC.
+     * Today's hours hold the value from the last refresh. The range is widened to whole hours.
+     * Never reads the disk on the calling thread: until the store has been loaded (by the
+     * warm-up or the worker pool) the answer is STORED_STEPS_NOT_READY.
+     * @return Step total, -1 if part of the range has never been stored, or STORED_STEPS_NOT_READY
      */
-    private void requestHealthPermissions() {
-        Activity activity = getActivity();
-        if (activity == null) {
-            sendErrorToUnity("NoActivity", "Unable to get Android activity");
-            return;
-        }
-        
-        if (healthConnectClient == null) {
-            sendErrorToUnity("NotInitialized", "Health Connect not initialized");
-            return;
+    public static long getStoredSteps(long startMillis, long endMillis) {
+        HourlyStepStore store = StepStoreSync.peekStore();
+        if (store == null) {
+            getInstance().loadStepStoreInBackground();
+            return STORED_STEPS_NOT_READY;
         }
-        
-        // Check if we already have permissions
-        ListenableFuture<Set<String>> grantedFuture = 
-            healthConnectClient.getPermissionController().getGrantedPermissions();
-        
-        Futures.addCallback(grantedFuture, new FutureCallback<Set<String>>() {
+        return store.sumHours(HourlyStepStore.hourOf(startMillis), HourlyStepStore.hourCeil(endMillis));
+    }
+    
+    /**
+     * Get several metrics for a date range from one aggregate call, delivered together in
+     * one OnMetricsReceived message (always JSON, whatever the transport mode). Metrics whose
+     * read permission is not granted are left out of the call and reported as -1.
+     * @param requestId Caller-chosen id echoed in the response
+     * @param startMillis Start time in milliseconds
+     * @param endMillis End time in milliseconds
+     * @param metrics METRIC_STEPS, METRIC_DISTANCE, METRIC_ACTIVE_CALORIES and/or METRIC_EXERCISE_DURATION
+     */
+    public static void getMetricsForDateRange(final long requestId, final long startMillis, final long endMillis,
+                                              final int[] metrics) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_NORMAL, "getMetricsForDateRange", new Runnable() {
             @Override
-            public void onSuccess(Set<String> granted) {
-                if (granted.containsAll(permissions)) {
-                    Log.d(TAG, "Permissions already granted");
-                    sendMessageToUnity("OnPermissionsResult", "true");
-                } else {
-                    try {
-                        Intent intent = PermissionController
-                            .createRequestPermissionResultContract()
-                            .createIntent(activity, permissions);
-                        
-                        activity.startActivityForResult(intent, REQUEST_CODE_PERMISSIONS);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to create permission intent", e);
-                        sendErrorToUnity("PermissionRequestFailed", e.getMessage());
-                    }
-                }
+            public void run() {
+                bridge.queryMetrics(requestId, startMillis, endMillis, metrics);
             }
-            
+        });
+    }
+    
+    /**
+     * Get raw step records for a date range, streamed to Unity one page per message
+     * @param requestId Caller-chosen id echoed in every response
+     * @param startMillis Start time in milliseconds
+     * @param endMillis End time in milliseconds
+     * @param pageSize Records per page
+     */
+    public static void getStepRecords(final long requestId, final long startMillis, final long endMillis, final int pageSize) {
+        final HealthConnectBridge bridge = getInstance();
+        bridge.submit(requestId, PRIORITY_BACKGROUND, "getStepRecords", new Runnable() {
             @Override
-            public void onFailure(@NonNull Throwable t) {
-                Log.e(TAG, "Failed to check permissions", t);
-                sendErrorToUnity("PermissionCheckFailed", t.getMessage());
+            public void run() {
+                bridge.queryStepRecords(requestId, startMillis, endMillis, pageSize);
             }
-        }, executor);
+        });
     }
     
     /**
-     * Check if we have the required permissions
+     * Stop a query: its pending Health Connect calls are cancelled and nothing more is sent
+     * for its request id, not even an error
+     * @return Whether the request was still in flight
      */
-    private boolean hasPermissions() {
-        if (healthConnectClient == null) {
+    public static boolean cancel(long requestId) {
+        if (!getInstance().requests.cancel(requestId)) {
             return false;
         }
         
-        try {
-            ListenableFuture<Set<String>> future = 
-                healthConnectClient.getPermissionController().getGrantedPermissions();
-            
-            // Block and wait for result (not ideal but needed for sync method)
-            Set<String> granted = future.get();
-            return granted.containsAll(permissions);
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to check permissions", e);
-            return false;
-        }
+        BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        Log.d(TAG, "Request " + requestId + " cancelled");
+        return true;
     }
     
     /**
-     * Query steps since a given timestamp
+     * Move a query to another priority. Queries start as interactive (getStepsToday,
+     * getStepsSince, getStepsFromStore), background (getStepRecords, getStepsForRanges) or
+     * normal (everything else). Interactive work is taken before normal and background work
+     * both on the worker pool and in the Health Connect call queue, and at most one
+     * background Health Connect call and completion run at a time. Work of the query that is
+     * already queued keeps its place; its later calls and completions use the new priority.
+     * @param priority PRIORITY_INTERACTIVE, PRIORITY_NORMAL or PRIORITY_BACKGROUND
+     * @return Whether the request was still in flight
      */
-    private void queryStepsSince(long timestampMillis) {
-        if (healthConnectClient == null) {
-            sendErrorToUnity("NotInitialized", "Health Connect not initialized");
-            return;
-        }
-        
-        Instant startTime = Instant.ofEpochMilli(timestampMillis);
-        Instant endTime = Instant.now();
-        
-        queryStepsInternal(startTime, endTime);
+    public static boolean setRequestPriority(long requestId, int priority) {
+        return getInstance().requests.setPriority(requestId, PriorityWorkQueue.clampPriority(priority));
     }
     
     /**
-     * Query steps for a specific date range
+     * Switch latest-wins on or off for one kind of query, for Unity code that polls it
+     * repeatedly. A new query of the kind drops an older one still waiting for a worker, and
+     * an older one finishing after a newer one has already answered successfully is
+     * suppressed; errors and timeouts do not count as answers. Dropped queries get no
+     * message at all, as if cancelled. Record streams are not supported.
+     * @param method Name of the query method, e.g. "getStepsToday" or "getStepsSince"
      */
-    private void queryStepsForRange(long startMillis, long endMillis) {
-        if (healthConnectClient == null) {
-            sendErrorToUnity("NotInitialized", "Health Connect not initialized");
+    public static void setLatestWins(String method, boolean enabled) {
+        if (method == null || method.equals("getStepRecords")) {
+            Log.w(TAG, "Latest-wins is not supported for " + method);
             return;
         }
-        
-        Instant startTime = Instant.ofEpochMilli(startMillis);
-        Instant endTime = Instant.ofEpochMilli(endMillis);
-        
-        queryStepsInternal(startTime, endTime);
+        getInstance().requests.setLatestWins(method, enabled);
     }
     
     /**
-     * Query steps for today
+     * Deadline of queries submitted from now on. A query still running when it passes is
+     * cancelled and reported with a Timeout error. Record streams restart the deadline with
+     * every page delivered.
+     * @param timeoutMillis Deadline in milliseconds (default 30000), 0 to wait indefinitely
      */
-    private void queryStepsToday() {
-        if (healthConnectClient == null) {
-            sendErrorToUnity("NotInitialized", "Health Connect not initialized");
+    public static void setRequestTimeout(long timeoutMillis) {
+        getInstance().requests.setTimeoutMillis(timeoutMillis);
+    }
+    
+    /**
+     * Tune the estimate of Health Connect's rate limit for one call type. Calls beyond it
+     * wait for quota instead of being sent and failing.
+     * @param callType QUOTA_AGGREGATE, QUOTA_READ_RECORDS or QUOTA_CHANGES
+     * @param burst Calls that may be made back to back after a quiet period
+     * @param refillPerSecond Sustained calls per second
+     * @param backgroundFactor Share of both available while the app is in the background, 0..1
+     */
+    public static void configureQuota(int callType, int burst, double refillPerSecond, double backgroundFactor) {
+        if (callType < 0 || callType >= QuotaScheduler.CALL_TYPE_COUNT) {
+            Log.w(TAG, "Unknown quota call type " + callType);
             return;
         }
-        
-        LocalDate today = LocalDate.now();
-        Instant startTime = today.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Instant endTime = Instant.now();
-        
-        queryStepsInternal(startTime, endTime);
+        getInstance().quotaScheduler.configure(callType, burst, refillPerSecond, backgroundFactor);
     }
     
     /**
-     * Internal method to query steps
+     * Configure the worker pool that runs queries and their completions. Takes effect
+     * immediately; work already queued on the previous pool still runs.
+     * @param threadCount Number of worker threads, so one slow read does not stall small aggregates
+     * @param queueCapacity Queries that may wait for a worker; further queries fail with Overloaded
      */
-    private void queryStepsInternal(Instant startTime, Instant endTime) {
-        Set<Object> metrics = new HashSet<>();
-        metrics.add(StepsRecord.COUNT_TOTAL);
-        
-        TimeRangeFilter timeRange = TimeRangeFilter.between(startTime, endTime);
-        
-        AggregateRequest request = new AggregateRequest(
-            metrics,
-            timeRange,
-            new HashSet<>()  // Empty data origins = all sources
-        );
-        
-        ListenableFuture<AggregateResponse> future = healthConnectClient.aggregate(request);
-        
-        final long startMillis = startTime.toEpochMilli();
-        final long endMillis = endTime.toEpochMilli();
-        
-        Futures.addCallback(future, new FutureCallback<AggregateResponse>() {
-            @Override
-            public void onSuccess(AggregateResponse response) {
-                try {
-                    Long totalSteps = response.get(StepsRecord.COUNT_TOTAL);
-                    if (totalSteps == null) {
-                        totalSteps = 0L;
-                    }
-                    
-                    JSONObject result = new JSONObject();
-                    result.put("success", true);
-                    result.put("steps", totalSteps);
-                    result.put("startTime", startMillis);
-                    result.put("endTime", endMillis);
-                    result.put("source", "HealthConnect");
-                    
-                    Log.d(TAG, "Steps query successful: " + totalSteps);
-                    sendMessageToUnity("OnStepsReceived", result.toString());
-                    
-                } catch (JSONException e) {
-                    Log.e(TAG, "Failed to create JSON response", e);
-                    sendErrorToUnity("JSONError", e.getMessage());
-                }
-            }
-            
-            @Override
-            public void onFailure(@NonNull Throwable t) {
-                Log.e(TAG, "Failed to query steps", t);
-                sendErrorToUnity("QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
-            }
-        }, executor);
+    public static void configureExecutor(int threadCount, int queueCapacity) {
+        HealthConnectBridge bridge = getInstance();
+        bridge.workerThreads = Math.max(1, threadCount);
+        bridge.workQueueCapacity = Math.max(1, queueCapacity);
+        bridge.restartWorkerPool();
     }
     
     /**
-     * Get detailed step records (not aggregated)
+     * Number of queries and completions waiting for a worker thread
      */
-    public void queryStepRecords(long startMillis, long endMillis) {
-        if (healthConnectClient == null) {
-            sendErrorToUnity("NotInitialized", "Health Connect not initialized");
+    public static int getExecutorQueueDepth() {
+        ThreadPoolExecutor pool = getInstance().getWorkerPool();
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+    
+    /**
+     * Number of queries rejected with Overloaded since the bridge was created
+     */
+    public static long getRejectedRequestCount() {
+        return getInstance().rejectedRequests.get();
+    }
+    
+    /**
+     * Latency histograms and success/failure/timeout/cancelled counts for every Health Connect call
+     * and the hop to Unity, plus the worker queue state, as one JSON object:
+     * {"intervalMillis":..,"queueDepth":..,"rejectedRequests":..,"activeRequests":..,"timedOutRequests":..,
+     * "cancelledRequests":..,"supersededRequests":..,"staleResponses":..,"quota":{"background":..,"deferred":..,"rateLimited":..,"aggregate":{"tokens":..,
+     * "queued":..,"blockedMillis":..},..},"operations":{"aggregate":{
+     * "success":..,"failure":..,"timeout":..,"cancelled":..,"count":..,"meanMicros":..,"p50Micros":..,
+     * "p90Micros":..,"p99Micros":..,"maxMicros":..,"buckets":[[lowerBoundMicros,count],..]},..}}
+     */
+    public static String getMetricsSnapshot() {
+        return getMetricsSnapshot(false);
+    }
+    
+    /**
+     * Same as getMetricsSnapshot()
+     * @param reset Start a new interval after taking the snapshot
+     */
+    public static String getMetricsSnapshot(boolean reset) {
+        HealthConnectBridge bridge = getInstance();
+        JsonWriter json = JsonWriter.obtain()
+            .beginObject()
+            .field("queueDepth", getExecutorQueueDepth())
+            .field("rejectedRequests", bridge.rejectedRequests.get())
+            .field("activeRequests", bridge.requests.getActiveCount())
+            .field("timedOutRequests", bridge.requests.getTimedOutCount())
+            .field("cancelledRequests", bridge.requests.getCancelledCount())
+            .field("supersededRequests", bridge.requests.getSupersededCount())
+            .field("staleResponses", bridge.requests.getStaleCount());
+        bridge.quotaScheduler.writeTo(json);
+        bridge.bridgeMetrics.writeTo(json);
+        String snapshot = json.endObject().finish();
+        
+        if (reset) {
+            bridge.bridgeMetrics.reset();
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Emit system trace sections and async slices for bridge work, for profiling with
+     * Perfetto or systrace. Off by default.
+     */
+    public static void setTracingEnabled(boolean enabled) {
+        BridgeTrace.setEnabled(enabled);
+    }
+    
+    /**
+     * Select how query results are delivered to Unity
+     * @param mode TRANSPORT_JSON (default) or TRANSPORT_BINARY
+     */
+    public static void setTransportMode(int mode) {
+        getInstance().transportMode = mode == TRANSPORT_BINARY ? TRANSPORT_BINARY : TRANSPORT_JSON;
+    }
+    
+    /**
+     * Get a binary result announced through OnBinaryResultReady. The buffer is a direct,
+     * little-endian ByteBuffer laid out as described in BinaryResultEncoder.
+     * @return The buffer, or null if the handle is unknown, released or evicted
+     */
+    public static ByteBuffer getResultBuffer(int handle) {
+        return getInstance().binaryResults.get(handle);
+    }
+    
+    /**
+     * Release a binary result once Unity has finished reading it
+     */
+    public static void releaseResultBuffer(int handle) {
+        getInstance().binaryResults.release(handle);
+    }
+    
+    /**
+     * Deliver step totals and errors through a listener instead of UnitySendMessage.
+     * Other results keep using the selected transport.
+     */
+    public static void setListener(HealthConnectListener listener) {
+        getInstance().listener = listener;
+    }
+    
+    /**
+     * Go back to delivering everything through UnitySendMessage
+     */
+    public static void clearListener() {
+        getInstance().listener = null;
+    }
+    
+    /**
+     * Coalesce results sent to Unity into OnBatchedMessages envelopes
+     * @param windowMillis How long a result may wait for others (e.g. 16 for one frame), 0 to disable
+     */
+    public static void setMessageBatching(int windowMillis) {
+        getInstance().messageBatcher.setWindowMillis(windowMillis);
+    }
+    
+    /**
+     * Deliver pending batched results on the next main looper turn without waiting for the window
+     */
+    public static void flushMessages() {
+        getInstance().messageBatcher.flushSoon();
+    }
+    
+    /**
+     * Deliver every outbound message to a sink instead of UnitySendMessage, e.g. a
+     * RecordingMessageSink to load test the bridge without a Unity player
+     * @param sink The sink, or null to go back to UnitySendMessage
+     */
+    public static void setMessageSink(UnityMessageSink sink) {
+        getInstance().messageBatcher.setSink(sink);
+    }
+    
+    /**
+     * Serve all queries from generated per-minute step records instead of Health Connect,
+     * for load testing. Reports available and granted. Step changes are not supported.
+     * Generating the data takes a moment for long spans; call it off the main thread.
+     * @param days Days of data, ending now
+     * @param originCount Data origins writing overlapping records, 1 to 3
+     * @param latencyMillis Base delay of every call
+     * @param jitterMillis Random extra delay of up to this much
+     * @param failureRate Fraction of calls (0..1) that fail
+     * @param seed Seed of the generated data
+     * @return Number of generated step records
+     */
+    public static long enableFakeBackend(int days, int originCount, long latencyMillis, long jitterMillis,
+                                         double failureRate, long seed) {
+        SyntheticStepData data = new SyntheticStepData(System.currentTimeMillis(), days, originCount,
+            ZoneId.systemDefault(), seed);
+        getInstance().installFakeBackend(data, latencyMillis, jitterMillis, failureRate);
+        return data.getRecordCount();
+    }
+    
+    /**
+     * Go back to Health Connect after enableFakeBackend. Call initialize again before querying
+     * if Health Connect was never initialized.
+     */
+    public static void disableFakeBackend() {
+        getInstance().removeFakeBackend();
+    }
+    
+    /**
+     * Open Health Connect settings
+     */
+    public static void openHealthConnectSettings() {
+        getInstance().openSettings();
+    }
+    
+    /**
+     * Open Play Store to install Health Connect
+     */
+    public static void openPlayStoreForHealthConnect() {
+        getInstance().openPlayStore();
+    }
+    
+    // ============================================================
+    // Implementation methods
+    // ============================================================
+    
+    private synchronized void installFakeBackend(SyntheticStepData data, long latencyMillis, long jitterMillis,
+                                                 double failureRate) {
+        if (fakeBackendScheduler == null) {
+            fakeBackendScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HealthConnectFakeBackend");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        FakeHealthDataSource fake = new FakeHealthDataSource(data, fakeBackendScheduler);
+        fake.setLatency(latencyMillis, jitterMillis);
+        fake.setFailureRate(failureRate);
+        
+        dataSource = fake;
+        cachedAvailability = 1;
+        permissionsGranted = true;
+        grantedPermissions = null;
+        Log.d(TAG, "Fake backend installed: " + data.getRecordCount() + " records, "
+            + data.getOriginCount() + " origins");
+    }
+    
+    private synchronized void removeFakeBackend() {
+        if (!(dataSource instanceof FakeHealthDataSource)) {
+            return;
+        }
+        
+        HealthConnectClient client = healthConnectClient;
+        dataSource = client != null ? new HealthConnectDataSource(client) : null;
+        cachedAvailability = AVAILABILITY_UNKNOWN;
+        permissionsGranted = false;
+        fakeBackendScheduler.shutdown();
+        fakeBackendScheduler = null;
+        refreshPermissionState(permissions, null);
+        Log.d(TAG, "Fake backend removed");
+    }
+    
+    /**
+     * Stop the fake backend's thread without switching back to Health Connect, for destroy
+     */
+    private synchronized void stopFakeBackend() {
+        if (fakeBackendScheduler != null) {
+            fakeBackendScheduler.shutdownNow();
+            fakeBackendScheduler = null;
+        }
+    }
+    
+    /**
+     * Take a newly created client into use. Queries keep going to the fake backend while one is installed.
+     */
+    private synchronized void useClient(HealthConnectClient client) {
+        healthConnectClient = client;
+        if (!(dataSource instanceof FakeHealthDataSource)) {
+            dataSource = new HealthConnectDataSource(client);
+        }
+    }
+    
+    /**
+     * Initialize the Health Connect client
+     */
+    private void init() {
+        Log.d(TAG, "Initializing Health Connect Bridge");
+        
+        Context context = getContext();
+        if (context == null) {
+            sendErrorToUnity(NO_REQUEST_ID, "NoContext", "Unable to get Android context");
+            return;
+        }
+        
+        registerPackageReceiver(context);
+        
+        if (dataSource instanceof FakeHealthDataSource) {
+            Log.d(TAG, "Fake backend installed, skipping Health Connect");
+            sendMessageToUnity("OnHealthConnectInitialized", "true", true);
+            return;
+        }
+        
+        if (healthConnectClient != null && cachedAvailability == 1) {
+            Log.d(TAG, "Health Connect client already created by warm-up");
+            registerResumeListener();
+            sendMessageToUnity("OnHealthConnectInitialized", "true", true);
+            return;
+        }
+        
+        int availability = HealthConnectClient.getSdkStatus(context);
+        cachedAvailability = toAvailability(availability);
+        
+        switch (availability) {
+            case HealthConnectClient.SDK_AVAILABLE:
+                try {
+                    useClient(HealthConnectClient.getOrCreate(context));
+                    Log.d(TAG, "Health Connect client created successfully");
+                    refreshPermissionState(permissions, null);
+                    registerResumeListener();
+                    sendMessageToUnity("OnHealthConnectInitialized", "true", true);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to create Health Connect client", e);
+                    sendErrorToUnity(NO_REQUEST_ID, "InitFailed", e.getMessage() != null ? e.getMessage() : "Unknown error");
+                }
+                break;
+                
+            case HealthConnectClient.SDK_UNAVAILABLE:
+                Log.w(TAG, "Health Connect SDK is not available on this device");
+                sendMessageToUnity("OnHealthConnectInitialized", "false", true);
+                break;
+                
+            case HealthConnectClient.SDK_UNAVAILABLE_PROVIDER_UPDATE_REQUIRED:
+                Log.w(TAG, "Health Connect needs to be installed or updated");
+                sendMessageToUnity("OnHealthConnectInitialized", "needsUpdate", true);
+                break;
+                
+            default:
+                Log.w(TAG, "Unknown Health Connect availability status: " + availability);
+                sendMessageToUnity("OnHealthConnectInitialized", "false", true);
+                break;
+        }
+    }
+    
+    /**
+     * Check if Health Connect is available
+     * @return 0 = unavailable, 1 = available, 2 = needs update
+     */
+    private int checkHealthConnectAvailability() {
+        int cached = cachedAvailability;
+        if (cached != AVAILABILITY_UNKNOWN) {
+            return cached;
+        }
+        
+        Context context = getContext();
+        if (context == null) {
+            return 0;
+        }
+        
+        cachedAvailability = toAvailability(HealthConnectClient.getSdkStatus(context));
+        return cachedAvailability;
+    }
+    
+    private static int toAvailability(int sdkStatus) {
+        switch (sdkStatus) {
+            case HealthConnectClient.SDK_AVAILABLE:
+                return 1;
+            case HealthConnectClient.SDK_UNAVAILABLE_PROVIDER_UPDATE_REQUIRED:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * Drop the cached availability when the Health Connect package is installed, updated or
+     * removed, and tell Unity if the status changed. Registered once from initialize; package
+     * broadcasts come from the system, so the receiver has to be exported.
+     */
+    private synchronized void registerPackageReceiver(Context context) {
+        if (packageReceiver != null) {
+            return;
+        }
+        
+        packageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context receiverContext, Intent intent) {
+                Uri data = intent.getData();
+                if (data == null || !HEALTH_CONNECT_PACKAGE.equals(data.getSchemeSpecificPart())) {
+                    return;
+                }
+                
+                int previous = cachedAvailability;
+                cachedAvailability = AVAILABILITY_UNKNOWN;
+                int current = checkHealthConnectAvailability();
+                
+                Log.d(TAG, "Health Connect package changed (" + intent.getAction() + "), availability " + current);
+                if (current != previous) {
+                    sendMessageToUnity("OnAvailabilityChanged", String.valueOf(current), true);
+                }
+            }
+        };
+        
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        
+        packageReceiverContext = context.getApplicationContext();
+        ContextCompat.registerReceiver(packageReceiverContext, packageReceiver, filter, ContextCompat.RECEIVER_EXPORTED);
+    }
+    
+    private synchronized void unregisterPackageReceiver() {
+        if (packageReceiver != null) {
+            packageReceiverContext.unregisterReceiver(packageReceiver);
+            packageReceiver = null;
+            packageReceiverContext = null;
+        }
+    }
+    
+    /**
+     * Request Health Connect permissions. The metric permissions are asked for on the same
+     * screen; only the step permission counts towards OnPermissionsResult.
+     */
+    private void requestHealthPermissions() {
+        Set<String> requested = new HashSet<>(permissions);
+        requested.addAll(metricPermissions);
+        launchPermissionRequest(requested, REQUEST_CODE_PERMISSIONS, "OnPermissionsResult");
+    }
+    
+    private void updateGrantedPermissions(Set<String> granted) {
+        grantedPermissions = granted;
+        permissionsGranted = granted.containsAll(permissions);
+    }
+    
+    /**
+     * Request background reads on top of the regular permissions, if the device supports them
+     */
+    private void requestBackgroundReadPermission() {
+        if (healthConnectClient == null) {
+            sendErrorToUnity(NO_REQUEST_ID, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        if (!StepSyncWorker.isBackgroundReadAvailable(healthConnectClient)) {
+            Log.w(TAG, "Background reads are not supported by this Health Connect version");
+            sendMessageToUnity("OnBackgroundPermissionResult", "false", true);
+            return;
+        }
+        
+        launchPermissionRequest(getBackgroundPermissions(), REQUEST_CODE_BACKGROUND_PERMISSION,
+            "OnBackgroundPermissionResult");
+    }
+    
+    private Set<String> getBackgroundPermissions() {
+        Set<String> requested = new HashSet<>(permissions);
+        requested.add(StepSyncWorker.PERMISSION_READ_IN_BACKGROUND);
+        return requested;
+    }
+    
+    /**
+     * Launch the Health Connect permission screen unless everything requested is already granted
+     * @param unityMethod Unity callback told "true" right away when nothing needs to be requested
+     */
+    private void launchPermissionRequest(final Set<String> requested, final int requestCode, final String unityMethod) {
+        final Activity activity = getActivity();
+        if (activity == null) {
+            sendErrorToUnity(NO_REQUEST_ID, "NoActivity", "Unable to get Android activity");
+            return;
+        }
+        
+        if (dataSource == null) {
+            sendErrorToUnity(NO_REQUEST_ID, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        // Check if we already have permissions
+        ListenableFuture<Set<String>> grantedFuture = 
+            bridgeMetrics.time(BridgeMetrics.OP_GET_GRANTED_PERMISSIONS, dataSource.getGrantedPermissions());
+        
+        Futures.addCallback(grantedFuture, new FutureCallback<Set<String>>() {
+            @Override
+            public void onSuccess(Set<String> granted) {
+                updateGrantedPermissions(granted);
+                if (granted.containsAll(requested)) {
+                    Log.d(TAG, "Permissions already granted");
+                    sendMessageToUnity(unityMethod, "true", true);
+                } else {
+                    try {
+                        Intent intent = PermissionController
+                            .createRequestPermissionResultContract()
+                            .createIntent(activity, requested);
+                        
+                        activity.startActivityForResult(intent, requestCode);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to create permission intent", e);
+                        sendErrorToUnity(NO_REQUEST_ID, "PermissionRequestFailed", e.getMessage());
+                    }
+                }
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to check permissions", t);
+                sendErrorToUnity(NO_REQUEST_ID, "PermissionCheckFailed", t.getMessage());
+            }
+        }, executor);
+    }
+    
+    /**
+     * Re-read the granted permissions into the cache without blocking the caller
+     * @param required Permissions whose grant is reported to unityMethod
+     * @param unityMethod Unity callback that receives the refreshed state, or null to refresh silently
+     */
+    private void refreshPermissionState(final Set<String> required, final String unityMethod) {
+        if (dataSource == null) {
+            if (unityMethod != null) {
+                sendMessageToUnity(unityMethod, "false", true);
+            }
+            return;
+        }
+        
+        ListenableFuture<Set<String>> future = 
+            bridgeMetrics.time(BridgeMetrics.OP_GET_GRANTED_PERMISSIONS, dataSource.getGrantedPermissions());
+        
+        Futures.addCallback(future, new FutureCallback<Set<String>>() {
+            @Override
+            public void onSuccess(Set<String> granted) {
+                updateGrantedPermissions(granted);
+                if (unityMethod != null) {
+                    sendMessageToUnity(unityMethod, String.valueOf(granted.containsAll(required)), true);
+                }
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to check permissions", t);
+                if (unityMethod != null) {
+                    sendMessageToUnity(unityMethod, "false", true);
+                }
+            }
+        }, executor);
+    }
+    
+    /**
+     * Refresh the permission cache whenever an activity resumes, which covers permissions
+     * changed in Health Connect settings while the game was in the background
+     */
+    private synchronized void registerResumeListener() {
+        if (lifecycleCallbacks != null) {
+            return;
+        }
+        
+        Activity activity = getActivity();
+        if (activity == null || activity.getApplication() == null) {
+            return;
+        }
+        
+        lifecycleCallbacks = new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityResumed(@NonNull Activity resumed) {
+                quotaScheduler.setBackground(false);
+                refreshPermissionState(permissions, null);
+            }
+            
+            @Override
+            public void onActivityCreated(@NonNull Activity created, Bundle savedInstanceState) {
+            }
+            
+            @Override
+            public void onActivityStarted(@NonNull Activity started) {
+            }
+            
+            @Override
+            public void onActivityPaused(@NonNull Activity paused) {
+            }
+            
+            @Override
+            public void onActivityStopped(@NonNull Activity stopped) {
+                quotaScheduler.setBackground(true);
+            }
+            
+            @Override
+            public void onActivitySaveInstanceState(@NonNull Activity saved, @NonNull Bundle outState) {
+            }
+            
+            @Override
+            public void onActivityDestroyed(@NonNull Activity destroyed) {
+            }
+        };
+        
+        lifecycleApplication = activity.getApplication();
+        lifecycleApplication.registerActivityLifecycleCallbacks(lifecycleCallbacks);
+    }
+    
+    private synchronized void unregisterResumeListener() {
+        if (lifecycleCallbacks != null) {
+            lifecycleApplication.unregisterActivityLifecycleCallbacks(lifecycleCallbacks);
+            lifecycleCallbacks = null;
+            lifecycleApplication = null;
+        }
+    }
+    
+    /**
+     * Query steps since a given timestamp
+     */
+    private void queryStepsSince(long requestId, long timestampMillis) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        Instant startTime = Instant.ofEpochMilli(timestampMillis);
+        Instant endTime = Instant.now();
+        
+        queryStepsInternal(requestId, startTime, endTime, true);
+    }
+    
+    /**
+     * Query steps for a specific date range
+     */
+    private void queryStepsForRange(long requestId, long startMillis, long endMillis) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        Instant startTime = Instant.ofEpochMilli(startMillis);
+        Instant endTime = Instant.ofEpochMilli(endMillis);
+        
+        queryStepsInternal(requestId, startTime, endTime, false);
+    }
+    
+    /**
+     * Query steps for today
+     */
+    private void queryStepsToday(final long requestId) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        LocalDate today = LocalDate.now();
+        final Instant startTime = today.atStartOfDay(ZoneId.systemDefault()).toInstant();
+        
+        final WarmTodaySteps warm = warmTodaySteps.getAndSet(null);
+        if (warm != null && warm.startMillis == startTime.toEpochMilli()
+                && SystemClock.elapsedRealtime() - warm.fetchedAtElapsed <= WARM_TODAY_MAX_AGE_MILLIS) {
+            Futures.addCallback(requests.attach(requestId, warm.future), new FutureCallback<Long>() {
+                @Override
+                public void onSuccess(Long totalSteps) {
+                    Log.d(TAG, "Today's steps served from warm-up: " + totalSteps);
+                    sendStepsResult(requestId, totalSteps, warm.startMillis, warm.endMillis, false);
+                }
+                
+                @Override
+                public void onFailure(@NonNull Throwable t) {
+                    queryStepsInternal(requestId, startTime, Instant.now(), true);
+                }
+            }, lane(requestId));
+            return;
+        }
+        
+        queryStepsInternal(requestId, startTime, Instant.now(), true);
+    }
+    
+    /**
+     * Internal method to query steps. Identical queries already in flight share one aggregate call.
+     * @param openEnded Whether endTime is "now", in which case it is normalized for coalescing
+     */
+    private void queryStepsInternal(final long requestId, Instant startTime, Instant endTime, boolean openEnded) {
+        final long startMillis = startTime.toEpochMilli();
+        final long endMillis = endTime.toEpochMilli();
+        
+        ListenableFuture<Long> future = singleFlight.run(
+            CoalesceKeys.steps(startMillis, endMillis, openEnded),
+            quotaScheduler.gate(QuotaScheduler.CALL_AGGREGATE, requests.getPriority(requestId), new AsyncCallable<Long>() {
+                @Override
+                public ListenableFuture<Long> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE, dataSource.aggregateSteps(startMillis, endMillis));
+                }
+            }));
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<Long>() {
+            @Override
+            public void onSuccess(Long totalSteps) {
+                Log.d(TAG, "Steps query successful: " + totalSteps);
+                sendStepsResult(requestId, totalSteps, startMillis, endMillis, false);
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to query steps", t);
+                sendErrorToUnity(requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    /**
+     * Query steps for several ranges, keeping at most MAX_RANGE_CONCURRENCY aggregates in flight
+     */
+    private void queryStepsForRanges(long requestId, long[] startMillis, long[] endMillis) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        if (startMillis == null || endMillis == null || startMillis.length != endMillis.length
+                || startMillis.length == 0) {
+            sendErrorToUnity(requestId, "InvalidArgument", "Range start and end arrays must be non-empty and of equal length");
+            return;
+        }
+        
+        for (int i = 0; i < startMillis.length; i++) {
+            if (endMillis[i] <= startMillis[i]) {
+                sendErrorToUnity(requestId, "InvalidArgument", "Invalid range " + i + ": "
+                    + startMillis[i] + ".." + endMillis[i]);
+                return;
+            }
+        }
+        
+        RangeBatch batch = new RangeBatch(requestId, startMillis.clone(), endMillis.clone());
+        int initial = Math.min(batch.starts.length, MAX_RANGE_CONCURRENCY);
+        for (int i = 0; i < initial; i++) {
+            launchNextRange(batch);
+        }
+    }
+    
+    /**
+     * Start the aggregate for the next range of the batch that has not been started yet.
+     * Each completion starts the next one, so concurrency stays bounded.
+     */
+    private void launchNextRange(final RangeBatch batch) {
+        final int index = batch.nextIndex.getAndIncrement();
+        if (index >= batch.starts.length || batch.failed.get() || !requests.isActive(batch.requestId)) {
+            return;
+        }
+        
+        final long startMillis = batch.starts[index];
+        final long endMillis = batch.ends[index];
+        
+        ListenableFuture<Long> future = singleFlight.run(
+            CoalesceKeys.steps(startMillis, endMillis, false),
+            quotaScheduler.gate(QuotaScheduler.CALL_AGGREGATE, requests.getPriority(batch.requestId), new AsyncCallable<Long>() {
+                @Override
+                public ListenableFuture<Long> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE, dataSource.aggregateSteps(startMillis, endMillis));
+                }
+            }));
+        
+        Futures.addCallback(requests.attach(batch.requestId, future), new FutureCallback<Long>() {
+            @Override
+            public void onSuccess(Long steps) {
+                batch.steps[index] = steps;
+                
+                if (batch.remaining.decrementAndGet() == 0) {
+                    Log.d(TAG, "Multi-range steps query successful: " + batch.starts.length + " ranges");
+                    sendRangesResult(batch.requestId, batch.steps, batch.starts, batch.ends);
+                } else {
+                    launchNextRange(batch);
+                }
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to query steps for range " + index, t);
+                if (batch.failed.compareAndSet(false, true)) {
+                    sendErrorToUnity(batch.requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+                }
+            }
+        }, lane(batch.requestId));
+    }
+    
+    /**
+     * Query steps grouped into fixed-length buckets (Health Connect group-by-duration)
+     */
+    private void queryStepsBucketedByDuration(final long requestId, final long startMillis, final long endMillis, final int bucketMinutes) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        if (bucketMinutes <= 0 || endMillis <= startMillis) {
+            sendErrorToUnity(requestId, "InvalidArgument", "Invalid bucket query: bucketMinutes=" + bucketMinutes
+                + ", range=" + startMillis + ".." + endMillis);
+            return;
+        }
+        
+        ListenableFuture<StepIntervals> future = singleFlight.run(
+            CoalesceKeys.stepsByDuration(bucketMinutes, startMillis, endMillis),
+            quotaScheduler.gate(QuotaScheduler.CALL_AGGREGATE, requests.getPriority(requestId), new AsyncCallable<StepIntervals>() {
+                @Override
+                public ListenableFuture<StepIntervals> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE_BY_DURATION,
+                        dataSource.aggregateStepsByDuration(startMillis, endMillis, bucketMinutes * 60L * 1000));
+                }
+            }));
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<StepIntervals>() {
+            @Override
+            public void onSuccess(StepIntervals buckets) {
+                Log.d(TAG, "Bucketed steps query successful: " + buckets.count + " buckets");
+                sendBucketsResult(requestId, buckets.steps, buckets.starts, buckets.ends, buckets.count,
+                    startMillis, endMillis);
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to query bucketed steps", t);
+                sendErrorToUnity(requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    /**
+     * Query steps grouped into calendar-day buckets (Health Connect group-by-period).
+     * The start is floored to local midnight in the device time zone, so every bucket boundary
+     * falls on local midnight and DST days are 23 or 25 hours long.
+     */
+    private void queryStepsBucketedByPeriod(final long requestId, long rangeStartMillis, final long endMillis, final int bucketDays) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        if (bucketDays <= 0 || endMillis <= rangeStartMillis) {
+            sendErrorToUnity(requestId, "InvalidArgument", "Invalid bucket query: bucketDays=" + bucketDays
+                + ", range=" + rangeStartMillis + ".." + endMillis);
+            return;
+        }
+        
+        final ZoneId zone = ZoneId.systemDefault();
+        final long startMillis = Instant.ofEpochMilli(rangeStartMillis).atZone(zone).toLocalDate()
+            .atStartOfDay(zone).toInstant().toEpochMilli();
+        
+        ListenableFuture<StepIntervals> future = singleFlight.run(
+            CoalesceKeys.stepsByPeriod(bucketDays, zone.getId(), startMillis, endMillis),
+            quotaScheduler.gate(QuotaScheduler.CALL_AGGREGATE, requests.getPriority(requestId), new AsyncCallable<StepIntervals>() {
+                @Override
+                public ListenableFuture<StepIntervals> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE_BY_PERIOD,
+                        dataSource.aggregateStepsByPeriod(startMillis, endMillis, bucketDays, zone));
+                }
+            }));
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<StepIntervals>() {
+            @Override
+            public void onSuccess(StepIntervals buckets) {
+                Log.d(TAG, "Period steps query successful: " + buckets.count + " buckets");
+                sendBucketsResult(requestId, buckets.steps, buckets.starts, buckets.ends, buckets.count,
+                    startMillis, endMillis);
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to query steps by period", t);
+                sendErrorToUnity(requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    /**
+     * Aggregate the requested metrics in one call. Identical queries already in flight share it.
+     */
+    private void queryMetrics(final long requestId, final long startMillis, final long endMillis, int[] metrics) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        if (metrics == null || metrics.length == 0 || endMillis <= startMillis) {
+            sendErrorToUnity(requestId, "InvalidArgument", "Invalid metrics query: range=" + startMillis + ".." + endMillis);
+            return;
+        }
+        
+        for (int metric : metrics) {
+            if (!HealthMetrics.isValid(metric)) {
+                sendErrorToUnity(requestId, "InvalidArgument", "Unknown metric " + metric);
+                return;
+            }
+        }
+        
+        // Unknown grants (fake backend, or not read yet) are left to Health Connect to enforce
+        final int[] read = HealthMetrics.readable(metrics, grantedPermissions);
+        if (read.length == 0) {
+            sendMetricsResult(requestId, HealthMetrics.expand(read, new long[0]), startMillis, endMillis);
+            return;
+        }
+        
+        ListenableFuture<long[]> future = singleFlight.run(
+            CoalesceKeys.metrics(startMillis, endMillis, read),
+            quotaScheduler.gate(QuotaScheduler.CALL_AGGREGATE, requests.getPriority(requestId), new AsyncCallable<long[]>() {
+                @Override
+                public ListenableFuture<long[]> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE, dataSource.aggregateMetrics(startMillis, endMillis, read));
+                }
+            }));
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<long[]>() {
+            @Override
+            public void onSuccess(long[] result) {
+                Log.d(TAG, "Metrics query successful: " + HealthMetrics.key(read));
+                sendMetricsResult(requestId, HealthMetrics.expand(read, result), startMillis, endMillis);
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to query metrics", t);
+                sendErrorToUnity(requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    /**
+     * Get detailed step records (not aggregated), streamed one page at a time.
+     * Each page is sent to Unity as its own OnStepRecordsReceived chunk with an increasing
+     * sequence number; the last chunk has endOfStream = true.
+     */
+    public void queryStepRecords(long requestId, long startMillis, long endMillis) {
+        queryStepRecords(requestId, startMillis, endMillis, DEFAULT_RECORDS_PAGE_SIZE);
+    }
+    
+    /**
+     * Get detailed step records with an explicit page size
+     * @param pageSize Records per page, clamped to [1, MAX_RECORDS_PAGE_SIZE]
+     */
+    public void queryStepRecords(long requestId, long startMillis, long endMillis, int pageSize) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        int clampedPageSize = Math.max(1, Math.min(pageSize, MAX_RECORDS_PAGE_SIZE));
+        readStepRecordsPage(requestId, startMillis, endMillis, clampedPageSize, null, 0, 0);
+    }
+    
+    /**
+     * Read one page of step records, send it to Unity and chain the next page read.
+     * Only one page is held in memory at a time.
+     */
+    private void readStepRecordsPage(final long requestId, final long startMillis, final long endMillis, final int pageSize,
+                                     final String pageToken, final int sequence, final long recordsSoFar) {
+        if (!requests.isActive(requestId)) {
+            return;
+        }
+        
+        // Pages after the first are bulk work and yield quota to interactive queries
+        int priority = sequence == 0 ? requests.getPriority(requestId) : PRIORITY_BACKGROUND;
+        ListenableFuture<StepRecordsPage> future = quotaScheduler.submit(QuotaScheduler.CALL_READ_RECORDS, priority,
+            new AsyncCallable<StepRecordsPage>() {
+                @Override
+                public ListenableFuture<StepRecordsPage> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_READ_RECORDS,
+                        dataSource.readStepRecords(startMillis, endMillis, pageSize, pageToken));
+                }
+            });
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<StepRecordsPage>() {
+            @Override
+            public void onSuccess(StepRecordsPage page) {
+                boolean endOfStream = page.isLastPage();
+                long totalRecords = recordsSoFar + page.count;
+                
+                Log.d(TAG, "Retrieved page " + sequence + " with " + page.count + " step records");
+                sendRecordsPage(requestId, sequence, endOfStream, totalRecords, page.counts, page.starts, page.ends,
+                    page.origins, page.count, startMillis, endMillis);
+                
+                if (!endOfStream) {
+                    readStepRecordsPage(requestId, startMillis, endMillis, pageSize, page.nextPageToken, sequence + 1, totalRecords);
+                }
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to query step records page " + sequence, t);
+                sendErrorToUnity(requestId, "QueryRecordsFailed", t.getMessage());
+            }
+        }, lane(requestId));
+    }
+    
+    /**
+     * Fetch step changes since the stored changes token, or start over with a full resync
+     * when there is no token, no baseline, or the baseline is of another window
+     */
+    private void queryStepChanges(final long requestId, final long sinceMillis) {
+        if (dataSource instanceof FakeHealthDataSource) {
+            sendErrorToUnity(requestId, "Unsupported", "Step changes are not served by the fake backend");
+            return;
+        }
+        
+        if (healthConnectClient == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
+            return;
+        }
+        
+        SharedPreferences prefs = getPreferences();
+        StepChangeLedger ledger = getChangeLedger();
+        if (prefs == null || ledger == null) {
+            sendErrorToUnity(requestId, "NoContext", "Unable to get Android context");
+            return;
+        }
+        
+        String token = prefs.getString(PREF_CHANGES_TOKEN, null);
+        if (token == null || ledger.getWindowStart() != sinceMillis) {
+            Log.d(TAG, "No changes token or baseline for this window, doing full resync");
+            fullResyncStepChanges(requestId, sinceMillis, ledger);
+            return;
+        }
+        
+        fetchStepChangesPage(requestId, token, sinceMillis, ledger, ledger.newBatch(), new long[2]);
+    }
+    
+    /**
+     * Read one page of changes into the batch. Pages are chained while the response reports
+     * more changes; nothing is applied to the ledger until the last one is read.
+     * @param counts Running counts: [0] upserted records, [1] deleted records
+     */
+    private void fetchStepChangesPage(final long requestId, final String token, final long sinceMillis,
+                                      final StepChangeLedger ledger, final StepChangeLedger.Batch batch,
+                                      final long[] counts) {
+        if (!requests.isActive(requestId)) {
+            return;
+        }
+        
+        ListenableFuture<ChangesResponse> future = quotaScheduler.submit(QuotaScheduler.CALL_CHANGES,
+            requests.getPriority(requestId), new AsyncCallable<ChangesResponse>() {
+                @Override
+                public ListenableFuture<ChangesResponse> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_GET_CHANGES, healthConnectClient.getChanges(token));
+                }
+            });
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<ChangesResponse>() {
+            @Override
+            public void onSuccess(ChangesResponse response) {
+                if (response.getChangesTokenExpired()) {
+                    Log.w(TAG, "Changes token expired, doing full resync");
+                    fullResyncStepChanges(requestId, sinceMillis, ledger);
+                    return;
+                }
+                
+                for (Change change : response.getChanges()) {
+                    if (change instanceof UpsertionChange) {
+                        if (!(((UpsertionChange) change).getRecord() instanceof StepsRecord)) {
+                            continue;
+                        }
+                        
+                        StepsRecord record = (StepsRecord) ((UpsertionChange) change).getRecord();
+                        batch.upsert(record.getMetadata().getId(), record.getStartTime().toEpochMilli(),
+                            record.getEndTime().toEpochMilli());
+                        counts[0]++;
+                    } else if (change instanceof DeletionChange) {
+                        batch.delete(((DeletionChange) change).getRecordId());
+                        counts[1]++;
+                    }
+                }
+                
+                String nextToken = response.getNextChangesToken();
+                
+                if (response.getHasMore()) {
+                    fetchStepChangesPage(requestId, nextToken, sinceMillis, ledger, batch, counts);
+                    return;
+                }
+                
+                reaggregateStepChanges(requestId, sinceMillis, ledger, batch, nextToken, counts);
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to fetch step changes", t);
+                sendErrorToUnity(requestId, "ChangesFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    /**
+     * Aggregate the hours the batch marked dirty again, then apply the batch and store the
+     * token it was read up to in one step
+     */
+    private void reaggregateStepChanges(final long requestId, final long sinceMillis, final StepChangeLedger ledger,
+                                        final StepChangeLedger.Batch batch, final String nextToken,
+                                        final long[] counts) {
+        if (!batch.hasDirtyHours()) {
+            commitStepChanges(requestId, sinceMillis, ledger, batch, null, nextToken, counts);
+            return;
+        }
+        
+        final long startMillis = batch.getDirtyStartMillis();
+        final long endMillis = batch.getDirtyEndMillis();
+        ListenableFuture<StepIntervals> future = quotaScheduler.submit(QuotaScheduler.CALL_AGGREGATE,
+            requests.getPriority(requestId), new AsyncCallable<StepIntervals>() {
+                @Override
+                public ListenableFuture<StepIntervals> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE_BY_DURATION,
+                        dataSource.aggregateStepsByDuration(startMillis, endMillis, StepChangeLedger.HOUR_MILLIS));
+                }
+            });
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<StepIntervals>() {
+            @Override
+            public void onSuccess(StepIntervals hourly) {
+                commitStepChanges(requestId, sinceMillis, ledger, batch, hourly, nextToken, counts);
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to aggregate changed hours", t);
+                sendErrorToUnity(requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    private void commitStepChanges(long requestId, long sinceMillis, StepChangeLedger ledger,
+                                   StepChangeLedger.Batch batch, StepIntervals hourly, String nextToken,
+                                   long[] counts) {
+        long delta;
+        synchronized (ledger) {
+            // A cancelled or superseded sync leaves the baseline and the token as they were
+            if (!requests.isActive(requestId)) {
+                return;
+            }
+            delta = ledger.apply(batch, hourly);
+            saveChangeLedger(ledger);
+            storeChangesToken(nextToken);
+        }
+        
+        Log.d(TAG, "Step changes synced: " + delta + " steps from " + counts[0] + " upserts and "
+            + counts[1] + " deletions, " + batch.getDirtyHourCount() + " hours aggregated again");
+        sendStepChangesResult(requestId, delta, counts[0], counts[1], false, sinceMillis, System.currentTimeMillis());
+    }
+    
+    /**
+     * Take a fresh changes token, then aggregate the window hour by hour as the new baseline
+     * and read the spans of its records. The token is taken first so no write can fall
+     * between the baseline and the first delta; a write in that instant only makes its hours
+     * be aggregated again.
+     */
+    private void fullResyncStepChanges(final long requestId, final long sinceMillis, final StepChangeLedger ledger) {
+        ListenableFuture<String> tokenFuture = quotaScheduler.submit(QuotaScheduler.CALL_CHANGES,
+            requests.getPriority(requestId), new AsyncCallable<String>() {
+                @Override
+                public ListenableFuture<String> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_GET_CHANGES_TOKEN,
+                        healthConnectClient.getChangesToken(
+                            new ChangesTokenRequest(Collections.singleton(StepsRecord.class), new HashSet<>())));
+                }
+            });
+        
+        Futures.addCallback(requests.attach(requestId, tokenFuture), new FutureCallback<String>() {
+            @Override
+            public void onSuccess(final String token) {
+                final long endMillis = System.currentTimeMillis();
+                ListenableFuture<StepIntervals> baseline = quotaScheduler.submit(QuotaScheduler.CALL_AGGREGATE,
+                    requests.getPriority(requestId), new AsyncCallable<StepIntervals>() {
+                        @Override
+                        public ListenableFuture<StepIntervals> call() {
+                            return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE_BY_DURATION,
+                                dataSource.aggregateStepsByDuration(sinceMillis, endMillis, StepChangeLedger.HOUR_MILLIS));
+                        }
+                    });
+                
+                Futures.addCallback(requests.attach(requestId, baseline), new FutureCallback<StepIntervals>() {
+                    @Override
+                    public void onSuccess(StepIntervals hourly) {
+                        readStepSpansPage(requestId, sinceMillis, endMillis, null, new HashMap<String, long[]>(),
+                            ledger, hourly, token);
+                    }
+                    
+                    @Override
+                    public void onFailure(@NonNull Throwable t) {
+                        Log.e(TAG, "Failed to aggregate steps for resync", t);
+                        sendErrorToUnity(requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+                    }
+                }, lane(requestId));
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to get changes token", t);
+                sendErrorToUnity(requestId, "ChangesFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    /**
+     * Read the ids and spans of the window's records for a resync, one page at a time, then
+     * replace the baseline and store the token in one step
+     */
+    private void readStepSpansPage(final long requestId, final long sinceMillis, final long endMillis,
+                                   String pageToken, final Map<String, long[]> spans, final StepChangeLedger ledger,
+                                   final StepIntervals hourly, final String token) {
+        if (!requests.isActive(requestId)) {
+            return;
+        }
+        
+        ReadRecordsRequest.Builder<StepsRecord> builder = new ReadRecordsRequest.Builder<>(StepsRecord.class)
+            .setTimeRangeFilter(TimeRangeFilter.between(Instant.ofEpochMilli(sinceMillis), Instant.ofEpochMilli(endMillis)))
+            .setPageSize(MAX_RECORDS_PAGE_SIZE);
+        if (pageToken != null) {
+            builder.setPageToken(pageToken);
+        }
+        final ReadRecordsRequest<StepsRecord> request = builder.build();
+        
+        ListenableFuture<ReadRecordsResponse<StepsRecord>> future = quotaScheduler.submit(QuotaScheduler.CALL_READ_RECORDS,
+            requests.getPriority(requestId), new AsyncCallable<ReadRecordsResponse<StepsRecord>>() {
+                @Override
+                public ListenableFuture<ReadRecordsResponse<StepsRecord>> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_READ_RECORDS, healthConnectClient.readRecords(request));
+                }
+            });
+        
+        Futures.addCallback(requests.attach(requestId, future), new FutureCallback<ReadRecordsResponse<StepsRecord>>() {
+            @Override
+            public void onSuccess(ReadRecordsResponse<StepsRecord> response) {
+                for (StepsRecord record : response.getRecords()) {
+                    spans.put(record.getMetadata().getId(), new long[] {
+                        record.getStartTime().toEpochMilli(), record.getEndTime().toEpochMilli() });
+                }
+                
+                String nextPageToken = response.getPageToken();
+                if (nextPageToken != null) {
+                    readStepSpansPage(requestId, sinceMillis, endMillis, nextPageToken, spans, ledger, hourly, token);
+                    return;
+                }
+                
+                long totalSteps;
+                synchronized (ledger) {
+                    if (!requests.isActive(requestId)) {
+                        return;
+                    }
+                    totalSteps = ledger.reset(sinceMillis, hourly, spans);
+                    saveChangeLedger(ledger);
+                    storeChangesToken(token);
+                }
+                
+                Log.d(TAG, "Full step resync successful: " + totalSteps + " steps, " + spans.size() + " records");
+                sendStepChangesResult(requestId, totalSteps, 0, 0, true, sinceMillis, endMillis);
+            }
+            
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(TAG, "Failed to read step records for resync", t);
+                sendErrorToUnity(requestId, "QueryRecordsFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+            }
+        }, lane(requestId));
+    }
+    
+    private void clearChangesToken() {
+        SharedPreferences prefs = getPreferences();
+        if (prefs != null) {
+            prefs.edit().remove(PREF_CHANGES_TOKEN).apply();
+        }
+    }
+    
+    private void storeChangesToken(String token) {
+        SharedPreferences prefs = getPreferences();
+        if (prefs != null) {
+            prefs.edit().putString(PREF_CHANGES_TOKEN, token).apply();
+        }
+    }
+    
+    private synchronized StepChangeLedger getChangeLedger() {
+        if (changeLedger != null) {
+            return changeLedger;
+        }
+        
+        Context context = getContext();
+        if (context == null) {
+            return null;
+        }
+        
+        File ledgerFile = new File(context.getNoBackupFilesDir(), LEDGER_FILE_NAME);
+        StepChangeLedger ledger = new StepChangeLedger(ledgerFile);
+        try {
+            ledger.load();
+        } catch (IOException e) {
+            // A lost ledger means a lost baseline: start empty, so the next sync does a full resync
+            Log.w(TAG, "Failed to load step ledger, resetting changes token", e);
+            ledgerFile.delete();
+            clearChangesToken();
+            ledger.clear();
+        }
+        
+        changeLedger = ledger;
+        return changeLedger;
+    }
+    
+    private void saveChangeLedger(StepChangeLedger ledger) {
+        ledger.prune(System.currentTimeMillis() - CHANGES_TOKEN_LIFETIME_MILLIS);
+        try {
+            ledger.save();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save step ledger", e);
+        }
+    }
+    
+    /**
+     * Answer a range from the hourly store, refreshing open hours from Health Connect first
+     */
+    private void queryStepsFromStore(final long requestId, long startMillis, long endMillis) {
+        if (dataSource == null) {
+            sendErrorToUnity(requestId, "NotInitialized", "Health Connect not initialized");
             return;
         }
         
-        Instant startTime = Instant.ofEpochMilli(startMillis);
-        Instant endTime = Instant.ofEpochMilli(endMillis);
+        final HourlyStepStore store = getStepStore();
+        if (store == null) {
+            sendErrorToUnity(requestId, "NoContext", "Unable to get Android context");
+            return;
+        }
         
-        TimeRangeFilter timeRange = TimeRangeFilter.between(startTime, endTime);
+        final long nowMillis = System.currentTimeMillis();
+        final long startHour = HourlyStepStore.hourOf(startMillis);
+        final long endHour = Math.min(HourlyStepStore.hourCeil(endMillis), HourlyStepStore.hourOf(nowMillis) + 1);
         
-        ReadRecordsRequest<StepsRecord> request = new ReadRecordsRequest.Builder<>(StepsRecord.class)
-            .setTimeRangeFilter(timeRange)
-            .build();
+        if (endHour <= startHour) {
+            sendErrorToUnity(requestId, "InvalidArgument", "Invalid store query: range=" + startMillis + ".." + endMillis);
+            return;
+        }
+        
+        final long[] fetch = store.planFetch(startHour, endHour);
+        if (fetch == null) {
+            sendStoredStepsToUnity(requestId, store, startHour, endHour, nowMillis);
+            return;
+        }
         
-        ListenableFuture<ReadRecordsResponse<StepsRecord>> future = 
-            healthConnectClient.readRecords(request);
+        final long closeBeforeHour = StepStoreSync.closeBeforeHour();
         
-        Futures.addCallback(future, new FutureCallback<ReadRecordsResponse<StepsRecord>>() {
-            @Override
-            public void onSuccess(ReadRecordsResponse<StepsRecord> response) {
-                try {
-                    List<StepsRecord> records = response.getRecords();
-                    JSONArray recordsArray = new JSONArray();
+        ListenableFuture<StepIntervals> future = singleFlight.run(
+            CoalesceKeys.storeRefresh(fetch[0], fetch[1]),
+            quotaScheduler.gate(QuotaScheduler.CALL_AGGREGATE, requests.getPriority(requestId), new AsyncCallable<StepIntervals>() {
+                @Override
+                public ListenableFuture<StepIntervals> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE_BY_DURATION,
+                        StepStoreSync.fetchHours(dataSource, fetch, nowMillis));
+                }
+            }));
+        
+        Futures.addCallback(requests.attach(requestId, future),
+            new FutureCallback<StepIntervals>() {
+                @Override
+                public void onSuccess(StepIntervals hours) {
+                    StepStoreSync.apply(store, fetch, hours, closeBeforeHour);
                     
-                    for (StepsRecord record : records) {
-                        JSONObject recordJson = new JSONObject();
-                        recordJson.put("count", record.getCount());
-                        recordJson.put("startTime", record.getStartTime().toEpochMilli());
-                        recordJson.put("endTime", record.getEndTime().toEpochMilli());
-                        recordJson.put("dataOrigin", record.getMetadata().getDataOrigin().getPackageName());
-                        recordsArray.put(recordJson);
+                    Log.d(TAG, "Step store refreshed " + (fetch[1] - fetch[0]) + " hours");
+                    sendStoredStepsToUnity(requestId, store, startHour, endHour, nowMillis);
+                }
+                
+                @Override
+                public void onFailure(@NonNull Throwable t) {
+                    Log.e(TAG, "Failed to refresh step store", t);
+                    sendErrorToUnity(requestId, "QueryFailed", t.getMessage() != null ? t.getMessage() : "Unknown error");
+                }
+            }, lane(requestId));
+    }
+    
+    private void sendStoredStepsToUnity(long requestId, HourlyStepStore store, long startHour, long endHour, long nowMillis) {
+        long steps = store.sumHours(startHour, endHour);
+        if (steps < 0) {
+            sendErrorToUnity(requestId, "StoreMiss", "Step store does not cover hours " + startHour + ".." + endHour);
+            return;
+        }
+        
+        sendStepsResult(requestId, steps, startHour * HourlyStepStore.HOUR_MILLIS,
+            Math.min(endHour * HourlyStepStore.HOUR_MILLIS, nowMillis), true);
+    }
+    
+    /**
+     * Load the step store on the worker pool, once at a time
+     */
+    private void loadStepStoreInBackground() {
+        if (getContext() == null || !stepStoreLoading.compareAndSet(false, true)) {
+            return;
+        }
+        
+        ThreadPoolExecutor pool = getWorkerPool();
+        if (pool == null) {
+            pool = startWorkerPool();
+        }
+        
+        try {
+            pool.execute(PriorityWorkQueue.task(PRIORITY_INTERACTIVE, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getStepStore();
+                    } finally {
+                        stepStoreLoading.set(false);
                     }
-                    
-                    JSONObject result = new JSONObject();
-                    result.put("success", true);
-                    result.put("records", recordsArray);
-                    result.put("count", records.size());
-                    
-                    Log.d(TAG, "Retrieved " + records.size() + " step records");
-                    sendMessageToUnity("OnStepRecordsReceived", result.toString());
-                    
-                } catch (JSONException e) {
-                    Log.e(TAG, "Failed to create JSON response", e);
-                    sendErrorToUnity("JSONError", e.getMessage());
                 }
+            }));
+        } catch (RejectedExecutionException e) {
+            stepStoreLoading.set(false);
+        }
+    }
+    
+    private HourlyStepStore getStepStore() {
+        Context context = getContext();
+        return context != null ? StepStoreSync.getStore(context) : null;
+    }
+    
+    // ============================================================
+    // Result delivery (JSON or binary transport)
+    // ============================================================
+    
+    private void sendStepsResult(long requestId, long steps, long startMillis, long endMillis, boolean fromStore) {
+        if (!requests.finish(requestId)) {
+            return;
+        }
+        
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_ENCODE);
+        try {
+            HealthConnectListener callback = listener;
+            if (callback != null) {
+                try {
+                    callback.onSteps(requestId, steps, startMillis, endMillis);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Listener failed to handle steps result", e);
+                }
+                return;
             }
             
-            @Override
-            public void onFailure(@NonNull Throwable t) {
-                Log.e(TAG, "Failed to query step records", t);
-                sendErrorToUnity("QueryRecordsFailed", t.getMessage());
+            if (transportMode == TRANSPORT_BINARY) {
+                sendBinaryToUnity(BinaryResultEncoder.encodeSteps(requestId, steps, startMillis, endMillis,
+                    fromStore ? BinaryResultEncoder.FLAG_LOCAL_STORE : 0));
+                return;
             }
-        }, executor);
+            
+            sendMessageToUnity("OnStepsReceived",
+                JsonResultEncoder.encodeSteps(requestId, steps, startMillis, endMillis, fromStore));
+        } finally {
+            BridgeTrace.end(traced);
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        }
+    }
+    
+    /**
+     * Buckets with no recorded data are omitted by Health Connect, so the result may be sparse
+     */
+    private void sendBucketsResult(long requestId, long[] steps, long[] starts, long[] ends, int count,
+                                   long startMillis, long endMillis) {
+        if (!requests.finish(requestId)) {
+            return;
+        }
+        
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_ENCODE);
+        try {
+            if (transportMode == TRANSPORT_BINARY) {
+                sendBinaryToUnity(BinaryResultEncoder.encodeIntervals(BinaryResultEncoder.TYPE_BUCKETS, requestId,
+                    steps, starts, ends, count, startMillis, endMillis));
+                return;
+            }
+            
+            sendMessageToUnity("OnStepBucketsReceived",
+                JsonResultEncoder.encodeBuckets(requestId, steps, starts, ends, count, startMillis, endMillis));
+        } finally {
+            BridgeTrace.end(traced);
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        }
+    }
+    
+    private void sendMetricsResult(long requestId, long[] values, long startMillis, long endMillis) {
+        if (!requests.finish(requestId)) {
+            return;
+        }
+        
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_ENCODE);
+        try {
+            sendMessageToUnity("OnMetricsReceived", JsonResultEncoder.encodeMetrics(requestId, values, startMillis, endMillis));
+        } finally {
+            BridgeTrace.end(traced);
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        }
+    }
+    
+    private void sendRangesResult(long requestId, long[] steps, long[] starts, long[] ends) {
+        if (!requests.finish(requestId)) {
+            return;
+        }
+        
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_ENCODE);
+        try {
+            if (transportMode == TRANSPORT_BINARY) {
+                sendBinaryToUnity(BinaryResultEncoder.encodeIntervals(BinaryResultEncoder.TYPE_RANGES, requestId,
+                    steps, starts, ends, steps.length, starts[0], ends[ends.length - 1]));
+                return;
+            }
+            
+            sendMessageToUnity("OnStepRangesReceived", JsonResultEncoder.encodeRanges(requestId, steps, starts, ends));
+        } finally {
+            BridgeTrace.end(traced);
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        }
+    }
+    
+    private void sendRecordsPage(long requestId, int sequence, boolean endOfStream, long totalRecords,
+                                 long[] counts, long[] starts, long[] ends, String[] origins, int count,
+                                 long startMillis, long endMillis) {
+        if (endOfStream ? !requests.finish(requestId) : !requests.isActive(requestId)) {
+            return;
+        }
+        if (!endOfStream) {
+            requests.extend(requestId);
+        }
+        
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_ENCODE);
+        try {
+            if (transportMode == TRANSPORT_BINARY) {
+                sendBinaryToUnity(BinaryResultEncoder.encodeRecords(requestId, sequence, endOfStream,
+                    counts, starts, ends, origins, count, startMillis, endMillis));
+                return;
+            }
+            
+            sendMessageToUnity("OnStepRecordsReceived", JsonResultEncoder.encodeRecords(requestId, sequence,
+                endOfStream, totalRecords, counts, starts, ends, origins, count, startMillis, endMillis));
+        } finally {
+            BridgeTrace.end(traced);
+            if (endOfStream) {
+                BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+            }
+        }
+    }
+    
+    /**
+     * Step changes always use JSON, whatever the transport mode
+     */
+    private void sendStepChangesResult(long requestId, long steps, long upserted, long deleted, boolean fullResync,
+                                       long startMillis, long endMillis) {
+        if (!requests.finish(requestId)) {
+            return;
+        }
+        
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_ENCODE);
+        try {
+            sendMessageToUnity("OnStepChangesReceived", JsonResultEncoder.encodeStepChanges(requestId, steps,
+                upserted, deleted, fullResync, startMillis, endMillis));
+        } finally {
+            BridgeTrace.end(traced);
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        }
+    }
+    
+    /**
+     * Park a binary result and tell Unity its handle. Unity reads the buffer through
+     * getResultBuffer and must call releaseResultBuffer afterwards.
+     */
+    private void sendBinaryToUnity(ByteBuffer buffer) {
+        int handle = binaryResults.register(buffer);
+        sendMessageToUnity("OnBinaryResultReady", String.valueOf(handle));
     }
     
     /**
@@ -469,7 +2120,7 @@ public class HealthConnectBridge {
         
         try {
             Intent intent = new Intent(Intent.ACTION_VIEW);
-            intent.setData(Uri.parse("https://play.google.com/store/apps/details?id=com.google.android.apps.healthdata"));
+            intent.setData(Uri.parse("https://play.google.com/store/apps/details?id=" + HEALTH_CONNECT_PACKAGE));
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             context.startActivity(intent);
         } catch (Exception e) {
@@ -483,18 +2134,228 @@ public class HealthConnectBridge {
      */
     public void onActivityResult(int requestCode, int resultCode) {
         if (requestCode == REQUEST_CODE_PERMISSIONS) {
-            boolean hasPerms = hasPermissions();
-            sendMessageToUnity("OnPermissionsResult", String.valueOf(hasPerms));
+            refreshPermissionState(permissions, "OnPermissionsResult");
+        } else if (requestCode == REQUEST_CODE_BACKGROUND_PERMISSION) {
+            refreshPermissionState(getBackgroundPermissions(), "OnBackgroundPermissionResult");
+        }
+    }
+    
+    // ============================================================
+    // Startup warm-up
+    // ============================================================
+    
+    /**
+     * Called by HealthConnectInitializer on the main thread when a foreground process starts.
+     * Creates the client, caches availability and permission state, loads the step store and
+     * prefetches today's total on the worker pool, so initialize and the first today query
+     * find everything in memory.
+     */
+    void warmUp(Context context) {
+        appContext = context.getApplicationContext();
+        submit(NO_REQUEST_ID, PRIORITY_BACKGROUND, null, new Runnable() {
+            @Override
+            public void run() {
+                runWarmUp();
+            }
+        });
+    }
+    
+    private void runWarmUp() {
+        final long startedAt = SystemClock.elapsedRealtime();
+        Context context = appContext;
+        
+        int status = HealthConnectClient.getSdkStatus(context);
+        cachedAvailability = toAvailability(status);
+        if (status != HealthConnectClient.SDK_AVAILABLE) {
+            Log.d(TAG, "Warm-up skipped, Health Connect status " + status);
+            return;
         }
+        
+        try {
+            useClient(HealthConnectClient.getOrCreate(context));
+        } catch (Exception e) {
+            Log.w(TAG, "Warm-up failed to create Health Connect client", e);
+            return;
+        }
+        
+        StepStoreSync.getStore(context);
+        
+        ListenableFuture<Set<String>> grantedFuture = bridgeMetrics.time(BridgeMetrics.OP_GET_GRANTED_PERMISSIONS,
+            dataSource.getGrantedPermissions());
+        
+        Futures.addCallback(grantedFuture,
+            new FutureCallback<Set<String>>() {
+                @Override
+                public void onSuccess(Set<String> granted) {
+                    updateGrantedPermissions(granted);
+                    if (permissionsGranted) {
+                        prefetchTodaySteps();
+                    }
+                    Log.d(TAG, "Warm-up finished in " + (SystemClock.elapsedRealtime() - startedAt) + " ms");
+                }
+                
+                @Override
+                public void onFailure(@NonNull Throwable t) {
+                    Log.w(TAG, "Warm-up failed to read permissions", t);
+                }
+            }, executor);
+    }
+    
+    private void prefetchTodaySteps() {
+        final long startMillis = LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        final long endMillis = System.currentTimeMillis();
+        
+        ListenableFuture<Long> future = quotaScheduler.submit(QuotaScheduler.CALL_AGGREGATE,
+            PRIORITY_BACKGROUND, new AsyncCallable<Long>() {
+                @Override
+                public ListenableFuture<Long> call() {
+                    return bridgeMetrics.time(BridgeMetrics.OP_AGGREGATE, dataSource.aggregateSteps(startMillis, endMillis));
+                }
+            });
+        warmTodaySteps.set(new WarmTodaySteps(startMillis, endMillis, future));
     }
     
     /**
      * Clean up resources
      */
     public void destroy() {
+        unregisterResumeListener();
+        unregisterPackageReceiver();
+        stopWorkerPool();
+        quotaScheduler.shutdown();
+        stopFakeBackend();
         instance = null;
     }
     
+    // ============================================================
+    // Worker pool
+    // ============================================================
+    
+    /**
+     * Run a query on the worker pool, or report Overloaded to Unity if the queue is full.
+     * Queued queries are taken in priority order, first come first served within a priority.
+     * @param priority Starting priority of the request, see setRequestPriority
+     * @param kind Name of the query method, for latest-wins
+     */
+    private void submit(final long requestId, int priority, String kind, final Runnable query) {
+        ThreadPoolExecutor pool = getWorkerPool();
+        if (pool == null) {
+            pool = startWorkerPool();
+        }
+        
+        if (requestId != NO_REQUEST_ID) {
+            BridgeTrace.beginAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        }
+        long superseded = requests.start(requestId, priority, kind);
+        if (superseded != NO_REQUEST_ID) {
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, superseded);
+            Log.d(TAG, "Request " + superseded + " superseded by " + requestId);
+        }
+        
+        try {
+            pool.execute(PriorityWorkQueue.task(priority, new Runnable() {
+                @Override
+                public void run() {
+                    // Cancelled, expired or superseded while queued
+                    if (!requests.begin(requestId)) {
+                        return;
+                    }
+                    
+                    boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_BUILD_REQUEST);
+                    try {
+                        query.run();
+                    } finally {
+                        BridgeTrace.end(traced);
+                    }
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            rejectedRequests.incrementAndGet();
+            Log.w(TAG, "Worker queue full, rejecting request " + requestId);
+            sendErrorToUnity(requestId, "Overloaded", "Too many pending Health Connect requests");
+        }
+    }
+    
+    private synchronized ThreadPoolExecutor getWorkerPool() {
+        return workerPool;
+    }
+    
+    private synchronized ThreadPoolExecutor startWorkerPool() {
+        if (workerPool == null || workerPool.isShutdown()) {
+            workerPool = createWorkerPool(workerThreads, workQueueCapacity);
+        }
+        return workerPool;
+    }
+    
+    private synchronized void restartWorkerPool() {
+        ThreadPoolExecutor previous = workerPool;
+        workerPool = createWorkerPool(workerThreads, workQueueCapacity);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+    
+    /**
+     * Stop accepting work; queued work still runs before the threads exit
+     */
+    private synchronized void stopWorkerPool() {
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+    }
+    
+    /**
+     * Executor of one priority lane. Completions belong to requests that were already
+     * admitted, so they bypass the work queue's capacity instead of being rejected; only
+     * once the pool has been shut down do they run on the thread that completed the future.
+     */
+    private Executor newLaneExecutor(final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                ThreadPoolExecutor pool = getWorkerPool();
+                if (pool != null) {
+                    try {
+                        pool.execute(PriorityWorkQueue.completion(priority, command));
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // Pool shut down; fall through and run inline
+                    }
+                }
+                command.run();
+            }
+        };
+    }
+    
+    /**
+     * Executor for the completions of a request, in its current priority lane
+     */
+    private Executor lane(long requestId) {
+        return laneExecutors[requests.getPriority(requestId)];
+    }
+    
+    private static ThreadPoolExecutor createWorkerPool(int threads, int queueCapacity) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threads,
+            threads,
+            WORKER_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new PriorityWorkQueue(queueCapacity),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    return new Thread(runnable, "HealthConnectWorker-" + count.incrementAndGet());
+                }
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+    
     // ============================================================
     // Helper methods
     // ============================================================
@@ -508,7 +2369,12 @@ public class HealthConnectBridge {
         } catch (Exception e) {
             Log.e(TAG, "Failed to get context", e);
         }
-        return null;
+        return appContext;
+    }
+    
+    private SharedPreferences getPreferences() {
+        Context context = getContext();
+        return context != null ? context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE) : null;
     }
     
     private Activity getActivity() {
@@ -520,28 +2386,79 @@ public class HealthConnectBridge {
         return null;
     }
     
-    private void sendMessageToUnity(final String methodName, final String message) {
-        mainHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    UnityPlayer.UnitySendMessage(UNITY_GAME_OBJECT, methodName, message);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to send message to Unity: " + methodName, e);
-                }
-            }
-        });
+    private void sendMessageToUnity(String methodName, String message) {
+        sendMessageToUnity(methodName, message, false);
     }
     
-    private void sendErrorToUnity(String errorCode, String errorMessage) {
-        try {
-            JSONObject error = new JSONObject();
-            error.put("success", false);
-            error.put("errorCode", errorCode);
-            error.put("errorMessage", errorMessage != null ? errorMessage : "Unknown error");
-            sendMessageToUnity("OnHealthConnectError", error.toString());
-        } catch (JSONException e) {
-            Log.e(TAG, "Failed to create error JSON", e);
+    /**
+     * @param immediate Skip the batching window, for latency-sensitive messages
+     */
+    private void sendMessageToUnity(String methodName, String message, boolean immediate) {
+        messageBatcher.send(methodName, message, immediate);
+    }
+    
+    /**
+     * State of one multi-range query. Results are written by index from executor callbacks;
+     * the remaining counter publishes them to the thread that sends the response.
+     */
+    private static final class RangeBatch {
+        final long requestId;
+        final long[] starts;
+        final long[] ends;
+        final long[] steps;
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicInteger remaining;
+        final AtomicBoolean failed = new AtomicBoolean();
+        
+        RangeBatch(long requestId, long[] starts, long[] ends) {
+            this.requestId = requestId;
+            this.starts = starts;
+            this.ends = ends;
+            this.steps = new long[starts.length];
+            this.remaining = new AtomicInteger(starts.length);
+        }
+    }
+    
+    /**
+     * Today's aggregate started by the warm-up, before Unity asked for it
+     */
+    private static final class WarmTodaySteps {
+        final long startMillis;
+        final long endMillis;
+        final long fetchedAtElapsed = SystemClock.elapsedRealtime();
+        final ListenableFuture<Long> future;
+        
+        WarmTodaySteps(long startMillis, long endMillis, ListenableFuture<Long> future) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.future = future;
+        }
+    }
+    
+    private void sendErrorToUnity(long requestId, String errorCode, String errorMessage) {
+        if (requests.fail(requestId)) {
+            deliverError(requestId, errorCode, errorMessage);
+        }
+    }
+    
+    /**
+     * Send an error without claiming the request, for requests the tracker has already ended
+     */
+    private void deliverError(long requestId, String errorCode, String errorMessage) {
+        if (requestId != NO_REQUEST_ID) {
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_REQUEST, requestId);
+        }
+        
+        HealthConnectListener callback = listener;
+        if (callback != null) {
+            try {
+                callback.onError(requestId, errorCode, errorMessage != null ? errorMessage : "Unknown error");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Listener failed to handle error " + errorCode, e);
+            }
+            return;
         }
+        
+        sendMessageToUnity("OnHealthConnectError", JsonResultEncoder.encodeError(requestId, errorCode, errorMessage));
     }
 }
@@ -0,0 +1,238 @@
+/*
+ * HealthConnectDataSource.java
+ * HealthDataSource backed by the Health Connect client
+ *
+ * Builds the Health Connect requests and converts the responses into plugin types.
+ * Every call reads from all data origins.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import androidx.health.connect.client.HealthConnectClient;
+import androidx.health.connect.client.aggregate.AggregationResultGroupedByDuration;
+import androidx.health.connect.client.aggregate.AggregationResultGroupedByPeriod;
+import androidx.health.connect.client.records.ActiveCaloriesBurnedRecord;
+import androidx.health.connect.client.records.DistanceRecord;
+import androidx.health.connect.client.records.ExerciseSessionRecord;
+import androidx.health.connect.client.records.StepsRecord;
+import androidx.health.connect.client.request.AggregateGroupByDurationRequest;
+import androidx.health.connect.client.request.AggregateGroupByPeriodRequest;
+import androidx.health.connect.client.request.AggregateRequest;
+import androidx.health.connect.client.request.ReadRecordsRequest;
+import androidx.health.connect.client.response.AggregateResponse;
+import androidx.health.connect.client.response.ReadRecordsResponse;
+import androidx.health.connect.client.time.TimeRangeFilter;
+import androidx.health.connect.client.units.Energy;
+import androidx.health.connect.client.units.Length;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+final class HealthConnectDataSource implements HealthDataSource {
+
+    private final HealthConnectClient client;
+
+    HealthConnectDataSource(HealthConnectClient client) {
+        this.client = client;
+    }
+
+    HealthConnectClient getClient() {
+        return client;
+    }
+
+    @Override
+    public ListenableFuture<Long> aggregateSteps(long startMillis, long endMillis) {
+        AggregateRequest request = new AggregateRequest(
+            stepsMetric(),
+            TimeRangeFilter.between(Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(endMillis)),
+            new HashSet<>()  // Empty data origins = all sources
+        );
+
+        return Futures.transform(client.aggregate(request), new Function<AggregateResponse, Long>() {
+            @Override
+            public Long apply(AggregateResponse response) {
+                Long steps = response.get(StepsRecord.COUNT_TOTAL);
+                return steps != null ? steps : 0L;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<long[]> aggregateMetrics(long startMillis, long endMillis, final int[] metrics) {
+        Set<Object> aggregateMetrics = new HashSet<>();
+        for (int metric : metrics) {
+            aggregateMetrics.add(aggregateMetric(metric));
+        }
+
+        AggregateRequest request = new AggregateRequest(
+            aggregateMetrics,
+            TimeRangeFilter.between(Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(endMillis)),
+            new HashSet<>()  // Empty data origins = all sources
+        );
+
+        return Futures.transform(client.aggregate(request), new Function<AggregateResponse, long[]>() {
+            @Override
+            public long[] apply(AggregateResponse response) {
+                long[] values = new long[metrics.length];
+                for (int i = 0; i < metrics.length; i++) {
+                    values[i] = metricValue(response, metrics[i]);
+                }
+                return values;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<StepIntervals> aggregateStepsByDuration(long startMillis, long endMillis, long bucketMillis) {
+        AggregateGroupByDurationRequest request = new AggregateGroupByDurationRequest(
+            stepsMetric(),
+            TimeRangeFilter.between(Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(endMillis)),
+            Duration.ofMillis(bucketMillis),
+            new HashSet<>()  // Empty data origins = all sources
+        );
+
+        return Futures.transform(client.aggregateGroupByDuration(request),
+            new Function<List<AggregationResultGroupedByDuration>, StepIntervals>() {
+                @Override
+                public StepIntervals apply(List<AggregationResultGroupedByDuration> groups) {
+                    int count = groups.size();
+                    long[] steps = new long[count];
+                    long[] starts = new long[count];
+                    long[] ends = new long[count];
+
+                    for (int i = 0; i < count; i++) {
+                        AggregationResultGroupedByDuration group = groups.get(i);
+                        Long bucketSteps = group.getResult().get(StepsRecord.COUNT_TOTAL);
+                        steps[i] = bucketSteps != null ? bucketSteps : 0L;
+                        starts[i] = group.getStartTime().toEpochMilli();
+                        ends[i] = group.getEndTime().toEpochMilli();
+                    }
+                    return new StepIntervals(steps, starts, ends, count);
+                }
+            }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<StepIntervals> aggregateStepsByPeriod(long startMillis, long endMillis, int bucketDays,
+                                                                 final ZoneId zone) {
+        AggregateGroupByPeriodRequest request = new AggregateGroupByPeriodRequest(
+            stepsMetric(),
+            TimeRangeFilter.between(
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(startMillis), zone),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(endMillis), zone)
+            ),
+            Period.ofDays(bucketDays),
+            new HashSet<>()  // Empty data origins = all sources
+        );
+
+        return Futures.transform(client.aggregateGroupByPeriod(request),
+            new Function<List<AggregationResultGroupedByPeriod>, StepIntervals>() {
+                @Override
+                public StepIntervals apply(List<AggregationResultGroupedByPeriod> groups) {
+                    int count = groups.size();
+                    long[] steps = new long[count];
+                    long[] starts = new long[count];
+                    long[] ends = new long[count];
+
+                    for (int i = 0; i < count; i++) {
+                        AggregationResultGroupedByPeriod group = groups.get(i);
+                        Long bucketSteps = group.getResult().get(StepsRecord.COUNT_TOTAL);
+                        steps[i] = bucketSteps != null ? bucketSteps : 0L;
+                        starts[i] = group.getStartTime().atZone(zone).toInstant().toEpochMilli();
+                        ends[i] = group.getEndTime().atZone(zone).toInstant().toEpochMilli();
+                    }
+                    return new StepIntervals(steps, starts, ends, count);
+                }
+            }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<StepRecordsPage> readStepRecords(long startMillis, long endMillis, int pageSize,
+                                                            String pageToken) {
+        ReadRecordsRequest.Builder<StepsRecord> builder = new ReadRecordsRequest.Builder<>(StepsRecord.class)
+            .setTimeRangeFilter(TimeRangeFilter.between(Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(endMillis)))
+            .setAscendingOrder(true)
+            .setPageSize(pageSize);
+
+        if (pageToken != null) {
+            builder.setPageToken(pageToken);
+        }
+
+        return Futures.transform(client.readRecords(builder.build()),
+            new Function<ReadRecordsResponse<StepsRecord>, StepRecordsPage>() {
+                @Override
+                public StepRecordsPage apply(ReadRecordsResponse<StepsRecord> response) {
+                    List<StepsRecord> records = response.getRecords();
+                    int count = records.size();
+                    long[] counts = new long[count];
+                    long[] starts = new long[count];
+                    long[] ends = new long[count];
+                    String[] origins = new String[count];
+
+                    for (int i = 0; i < count; i++) {
+                        StepsRecord record = records.get(i);
+                        counts[i] = record.getCount();
+                        starts[i] = record.getStartTime().toEpochMilli();
+                        ends[i] = record.getEndTime().toEpochMilli();
+                        origins[i] = record.getMetadata().getDataOrigin().getPackageName();
+                    }
+                    return new StepRecordsPage(counts, starts, ends, origins, count, response.getPageToken());
+                }
+            }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public ListenableFuture<Set<String>> getGrantedPermissions() {
+        return client.getPermissionController().getGrantedPermissions();
+    }
+
+    private static Object aggregateMetric(int metric) {
+        switch (metric) {
+            case HealthMetrics.DISTANCE:
+                return DistanceRecord.DISTANCE_TOTAL;
+            case HealthMetrics.ACTIVE_CALORIES:
+                return ActiveCaloriesBurnedRecord.ACTIVE_CALORIES_TOTAL;
+            case HealthMetrics.EXERCISE_DURATION:
+                return ExerciseSessionRecord.EXERCISE_DURATION_TOTAL;
+            default:
+                return StepsRecord.COUNT_TOTAL;
+        }
+    }
+
+    /**
+     * Metric value in the unit HealthMetrics names it with; 0 when there is no data
+     */
+    private static long metricValue(AggregateResponse response, int metric) {
+        switch (metric) {
+            case HealthMetrics.DISTANCE:
+                Length distance = response.get(DistanceRecord.DISTANCE_TOTAL);
+                return distance != null ? HealthMetrics.fromMeters(distance.getMeters()) : 0L;
+            case HealthMetrics.ACTIVE_CALORIES:
+                Energy energy = response.get(ActiveCaloriesBurnedRecord.ACTIVE_CALORIES_TOTAL);
+                return energy != null ? HealthMetrics.fromKilocalories(energy.getKilocalories()) : 0L;
+            case HealthMetrics.EXERCISE_DURATION:
+                Duration exercise = response.get(ExerciseSessionRecord.EXERCISE_DURATION_TOTAL);
+                return exercise != null ? HealthMetrics.fromDuration(exercise) : 0L;
+            default:
+                Long steps = response.get(StepsRecord.COUNT_TOTAL);
+                return steps != null ? steps : 0L;
+        }
+    }
+
+    private static Set<Object> stepsMetric() {
+        Set<Object> metrics = new HashSet<>();
+        metrics.add(StepsRecord.COUNT_TOTAL);
+        return metrics;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * HealthConnectInitializer.java
+ * androidx.startup entry point that warms up the bridge at process start
+ *
+ * Declared in the plugin's AndroidManifest.xml. create() only hands the application
+ * context to the bridge; creating the client, reading the permission state and
+ * prefetching today's steps happen on the bridge's worker pool, so process start is
+ * not delayed. Processes started in the background (e.g. by WorkManager for
+ * StepSyncWorker) skip the warm-up: Health Connect only allows foreground reads there and
+ * nothing will show the prefetched steps. Apps that do not want the warm-up remove the
+ * meta-data entry with tools:node="remove".
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.startup.Initializer;
+
+import java.util.Collections;
+import java.util.List;
+
+public class HealthConnectInitializer implements Initializer<HealthConnectBridge> {
+
+    @NonNull
+    @Override
+    public HealthConnectBridge create(@NonNull Context context) {
+        HealthConnectBridge bridge = HealthConnectBridge.getInstance();
+        if (isForegroundProcess()) {
+            bridge.warmUp(context);
+        }
+        return bridge;
+    }
+
+    /**
+     * Whether the process was started for a visible component (an activity launch)
+     * rather than for a worker, receiver or service
+     */
+    private static boolean isForegroundProcess() {
+        ActivityManager.RunningAppProcessInfo info = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(info);
+        return info.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+    }
+
+    @NonNull
+    @Override
+    public List<Class<? extends Initializer<?>>> dependencies() {
+        return Collections.emptyList();
+    }
+}
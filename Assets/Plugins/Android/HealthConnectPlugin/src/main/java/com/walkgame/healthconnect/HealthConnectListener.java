@@ -0,0 +1,25 @@
+/*
+ * HealthConnectListener.java
+ * Typed result callbacks for the Unity bridge
+ *
+ * Implemented on the Unity side through AndroidJavaProxy and registered with
+ * HealthConnectBridge.setListener. Callbacks are invoked directly on the plugin's
+ * worker thread with primitive arguments, skipping the main looper hop and the
+ * GameObject lookup of UnitySendMessage. Implementations must hand results over to
+ * their own main thread.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+public interface HealthConnectListener {
+
+    /**
+     * A step total for the query with the given request id
+     */
+    void onSteps(long requestId, long steps, long startMillis, long endMillis);
+
+    /**
+     * A query failed, or requestId is NO_REQUEST_ID for errors outside a query
+     */
+    void onError(long requestId, String errorCode, String errorMessage);
+}
@@ -0,0 +1,53 @@
+/*
+ * HealthDataSource.java
+ * The Health Connect calls the bridge makes, in plugin types
+ *
+ * HealthConnectDataSource is the real implementation on top of HealthConnectClient;
+ * FakeHealthDataSource serves a generated dataset for load testing, on device or on a
+ * plain JVM. Results use plain arrays so they can be produced without the Health
+ * Connect classes.
+ *
+ * Step changes (getChanges / getChangesToken) are not part of this interface and are
+ * only available with the real client.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.time.ZoneId;
+import java.util.Set;
+
+interface HealthDataSource {
+
+    /**
+     * Total steps in [startMillis, endMillis), deduplicated across data origins
+     */
+    ListenableFuture<Long> aggregateSteps(long startMillis, long endMillis);
+
+    /**
+     * Totals of several metrics in [startMillis, endMillis) from one aggregate call
+     * @param metrics HealthMetrics ids
+     * @return One value per metric, in the same order
+     */
+    ListenableFuture<long[]> aggregateMetrics(long startMillis, long endMillis, int[] metrics);
+
+    /**
+     * Step totals in fixed-length buckets starting at startMillis
+     */
+    ListenableFuture<StepIntervals> aggregateStepsByDuration(long startMillis, long endMillis, long bucketMillis);
+
+    /**
+     * Step totals in buckets of bucketDays calendar days in zone, starting at startMillis.
+     * Pass a local midnight to get buckets that follow local midnight.
+     */
+    ListenableFuture<StepIntervals> aggregateStepsByPeriod(long startMillis, long endMillis, int bucketDays, ZoneId zone);
+
+    /**
+     * One page of raw step records in ascending order
+     * @param pageToken Token from the previous page, or null for the first one
+     */
+    ListenableFuture<StepRecordsPage> readStepRecords(long startMillis, long endMillis, int pageSize, String pageToken);
+
+    ListenableFuture<Set<String>> getGrantedPermissions();
+}
@@ -0,0 +1,114 @@
+/*
+ * HealthMetrics.java
+ * Ids of the aggregate metrics the bridge can read in one call
+ *
+ * Values are whole numbers in the unit given by the name: steps, meters of distance,
+ * kilocalories of active energy and milliseconds of exercise sessions. A metric that was
+ * not read (not requested, or its read permission is not granted) is reported as
+ * NOT_READ.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+
+final class HealthMetrics {
+
+    static final int STEPS = 0;
+    static final int DISTANCE = 1;
+    static final int ACTIVE_CALORIES = 2;
+    static final int EXERCISE_DURATION = 3;
+    static final int COUNT = 4;
+
+    static final long NOT_READ = -1;
+
+    // Result field of each metric, by id
+    private static final String[] NAMES = {"steps", "distanceMeters", "activeCalories", "exerciseMillis"};
+
+    // Health Connect read permission of each metric, by id
+    private static final String[] READ_PERMISSIONS = {
+        "android.permission.health.READ_STEPS",
+        "android.permission.health.READ_DISTANCE",
+        "android.permission.health.READ_ACTIVE_CALORIES_BURNED",
+        "android.permission.health.READ_EXERCISE"
+    };
+
+    private HealthMetrics() {
+    }
+
+    static boolean isValid(int metric) {
+        return metric >= 0 && metric < COUNT;
+    }
+
+    static String name(int metric) {
+        return NAMES[metric];
+    }
+
+    static String readPermission(int metric) {
+        return READ_PERMISSIONS[metric];
+    }
+
+    /**
+     * The valid metrics of a request that can be read, sorted and without duplicates, so
+     * the same set always coalesces under the same key
+     * @param granted Granted permissions, or null when unknown (everything is tried)
+     */
+    static int[] readable(int[] metrics, Set<String> granted) {
+        boolean[] selected = new boolean[COUNT];
+        int count = 0;
+        for (int metric : metrics) {
+            if (!selected[metric] && (granted == null || granted.contains(READ_PERMISSIONS[metric]))) {
+                selected[metric] = true;
+                count++;
+            }
+        }
+
+        int[] read = new int[count];
+        for (int metric = 0, i = 0; metric < COUNT; metric++) {
+            if (selected[metric]) {
+                read[i++] = metric;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Values of all metrics by id, from those of the read ones; the rest are NOT_READ
+     */
+    static long[] expand(int[] read, long[] readValues) {
+        long[] values = new long[COUNT];
+        Arrays.fill(values, NOT_READ);
+        for (int i = 0; i < read.length; i++) {
+            values[read[i]] = readValues[i];
+        }
+        return values;
+    }
+
+    static long fromMeters(double meters) {
+        return Math.round(meters);
+    }
+
+    static long fromKilocalories(double kilocalories) {
+        return Math.round(kilocalories);
+    }
+
+    static long fromDuration(Duration duration) {
+        return duration.toMillis();
+    }
+
+    /**
+     * Cache key of a metric list, e.g. "steps+distanceMeters"
+     */
+    static String key(int[] metrics) {
+        StringBuilder key = new StringBuilder();
+        for (int metric : metrics) {
+            if (key.length() > 0) {
+                key.append('+');
+            }
+            key.append(NAMES[metric]);
+        }
+        return key.toString();
+    }
+}
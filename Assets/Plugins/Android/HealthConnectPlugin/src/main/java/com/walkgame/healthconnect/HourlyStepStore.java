@@ -0,0 +1,251 @@
+/*
+ * HourlyStepStore.java
+ * On-device store of hourly step totals
+ *
+ * Hours are indexed by epoch hour (epochMillis / 1 hour) and kept in one dense array,
+ * so a range sum is a loop over a few hundred longs and never touches Health Connect.
+ * Hours before closedUntilHour are final and are never fetched again; hours from
+ * closedUntilHour to filledUntilHour hold the last refreshed value and may still change.
+ * The stored range is kept contiguous: when bridging a gap would take more than
+ * MAX_FETCH_HOURS of fetching, the store is re-based on the new range instead.
+ *
+ * File layout (big-endian): magic, version, baseHour, closedUntilHour, filledUntilHour,
+ * hour count, then one long per hour starting at baseHour.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+class HourlyStepStore {
+
+    static final long HOUR_MILLIS = 60L * 60 * 1000;
+
+    private static final int FILE_MAGIC = 0x48435354; // "HCST"
+    private static final int FILE_VERSION = 1;
+    private static final int INITIAL_CAPACITY = 24 * 32;
+
+    // Longest span planFetch will bridge to keep the stored range contiguous (the sync window)
+    static final long MAX_FETCH_HOURS = 7 * 24;
+
+    private final File file;
+
+    private long baseHour;
+    private long closedUntilHour;
+    private long filledUntilHour;
+    private long[] steps = new long[0];
+    private boolean dirty;
+
+    HourlyStepStore(File file) {
+        this.file = file;
+    }
+
+    static long hourOf(long millis) {
+        return Math.floorDiv(millis, HOUR_MILLIS);
+    }
+
+    static long hourCeil(long millis) {
+        return -Math.floorDiv(-millis, HOUR_MILLIS);
+    }
+
+    /**
+     * Sum steps for [startHour, endHour)
+     * @return The total, or -1 if any hour in the range has never been stored
+     */
+    synchronized long sumHours(long startHour, long endHour) {
+        if (endHour <= startHour) {
+            return 0;
+        }
+
+        if (startHour < baseHour || endHour > filledUntilHour) {
+            return -1;
+        }
+
+        long total = 0;
+        for (int i = (int) (startHour - baseHour), end = (int) (endHour - baseHour); i < end; i++) {
+            total += steps[i];
+        }
+        return total;
+    }
+
+    /**
+     * Whether every hour in [startHour, endHour) is stored and final
+     */
+    synchronized boolean isClosed(long startHour, long endHour) {
+        return startHour >= baseHour && endHour <= closedUntilHour;
+    }
+
+    /**
+     * Work out which hours must be fetched to answer [startHour, endHour).
+     * The returned span never leaves a gap next to the stored hours, and it only starts inside
+     * the stored range at or after closedUntilHour, so final hours are not fetched again
+     * unless the query also reaches before the first stored hour. When bridging to the stored
+     * range would fetch more than MAX_FETCH_HOURS (and more than the query itself), only the
+     * query range is fetched and putHours re-bases the store on it.
+     * @return {fetchStartHour, fetchEndHour}, or null if the range is already final
+     */
+    synchronized long[] planFetch(long startHour, long endHour) {
+        if (filledUntilHour == 0) {
+            return new long[] { startHour, endHour };
+        }
+
+        if (isClosed(startHour, endHour)) {
+            return null;
+        }
+
+        long fetchStart;
+        if (startHour < baseHour) {
+            fetchStart = startHour;
+        } else if (startHour <= filledUntilHour) {
+            fetchStart = Math.max(startHour, closedUntilHour);
+        } else {
+            fetchStart = closedUntilHour;
+        }
+
+        long fetchEnd = Math.max(endHour, baseHour);
+        if (fetchEnd - fetchStart > Math.max(MAX_FETCH_HOURS, endHour - startHour)) {
+            return new long[] { startHour, endHour };
+        }
+        return new long[] { fetchStart, fetchEnd };
+    }
+
+    /**
+     * Store fetched hourly totals for [startHour, endHour). If the range does not touch or
+     * overlap the stored range, the stored hours are dropped and the store restarts from the
+     * fetched range. Hours missing from hourlySteps (no data in Health Connect) are stored as 0,
+     * hours that are already final are left untouched, and fetched hours before
+     * closeBeforeHour become final.
+     * @param hourlySteps Pairs of {epochHour, steps}
+     */
+    synchronized void putHours(long startHour, long endHour, long[][] hourlySteps, long closeBeforeHour) {
+        if (endHour <= startHour) {
+            return;
+        }
+
+        if (filledUntilHour != 0 && (startHour > filledUntilHour || endHour < baseHour)) {
+            clear();
+        }
+
+        boolean empty = filledUntilHour == 0;
+
+        long oldBase = empty ? startHour : baseHour;
+        long oldClosed = empty ? startHour : closedUntilHour;
+        long newBase = Math.min(oldBase, startHour);
+        long newFilled = Math.max(empty ? endHour : filledUntilHour, endHour);
+
+        if (empty) {
+            steps = new long[Math.max(INITIAL_CAPACITY, (int) (newFilled - newBase))];
+        } else if (newBase < baseHour || newFilled - newBase > steps.length) {
+            long[] grown = new long[Math.max((int) (newFilled - newBase), steps.length * 2)];
+            System.arraycopy(steps, 0, grown, (int) (baseHour - newBase), (int) (filledUntilHour - baseHour));
+            steps = grown;
+        }
+        baseHour = newBase;
+
+        for (long hour = startHour; hour < endHour; hour++) {
+            if (hour < oldBase || hour >= oldClosed) {
+                steps[(int) (hour - baseHour)] = 0;
+            }
+        }
+
+        for (long[] entry : hourlySteps) {
+            long hour = entry[0];
+            if (hour >= startHour && hour < endHour && (hour < oldBase || hour >= oldClosed)) {
+                steps[(int) (hour - baseHour)] = entry[1];
+            }
+        }
+
+        // Extend the final prefix [baseHour, closedUntilHour) with fetched hours that are now in the past
+        long fetchedClosedEnd = Math.max(startHour, Math.min(endHour, closeBeforeHour));
+        long closed;
+        if (startHour <= oldBase) {
+            closed = fetchedClosedEnd >= oldBase ? Math.max(fetchedClosedEnd, oldClosed) : fetchedClosedEnd;
+        } else {
+            closed = startHour <= oldClosed ? Math.max(oldClosed, fetchedClosedEnd) : oldClosed;
+        }
+
+        closedUntilHour = Math.max(baseHour, Math.min(closed, newFilled));
+        filledUntilHour = newFilled;
+        dirty = true;
+    }
+
+    /**
+     * Make the final hours from fromHour on refreshable again
+     */
+    synchronized void reopen(long fromHour) {
+        if (fromHour < closedUntilHour) {
+            closedUntilHour = Math.max(baseHour, fromHour);
+            dirty = true;
+        }
+    }
+
+    synchronized void clear() {
+        baseHour = 0;
+        closedUntilHour = 0;
+        filledUntilHour = 0;
+        steps = new long[0];
+        dirty = true;
+    }
+
+    synchronized void load() throws IOException {
+        clear();
+        dirty = false;
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Unsupported step store file format");
+            }
+
+            long base = in.readLong();
+            long closedUntil = in.readLong();
+            long filledUntil = in.readLong();
+            int count = in.readInt();
+
+            long[] loaded = new long[Math.max(INITIAL_CAPACITY, count)];
+            for (int i = 0; i < count; i++) {
+                loaded[i] = in.readLong();
+            }
+
+            baseHour = base;
+            closedUntilHour = closedUntil;
+            filledUntilHour = filledUntil;
+            steps = loaded;
+        }
+    }
+
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        int count = filledUntilHour == 0 ? 0 : (int) (filledUntilHour - baseHour);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(baseHour);
+            out.writeLong(closedUntilHour);
+            out.writeLong(filledUntilHour);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(steps[i]);
+            }
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        dirty = false;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JsonResultEncoder.java
+ * JSON result transport for the Unity bridge
+ *
+ * Builds the payloads of the On*Received and OnHealthConnectError messages with
+ * JsonWriter. The JSON twin of BinaryResultEncoder; kept free of Android classes so the
+ * encoding paths can be benchmarked on a plain JVM.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+final class JsonResultEncoder {
+
+    static final String SOURCE_HEALTH_CONNECT = "HealthConnect";
+    static final String SOURCE_LOCAL_STORE = "LocalStore";
+
+    private JsonResultEncoder() {
+    }
+
+    static String encodeSteps(long requestId, long steps, long startMillis, long endMillis, boolean fromStore) {
+        return JsonWriter.obtain()
+            .beginObject()
+            .field("success", true)
+            .field("requestId", requestId)
+            .field("steps", steps)
+            .field("startTime", startMillis)
+            .field("endTime", endMillis)
+            .field("source", fromStore ? SOURCE_LOCAL_STORE : SOURCE_HEALTH_CONNECT)
+            .endObject()
+            .finish();
+    }
+
+    static String encodeBuckets(long requestId, long[] steps, long[] starts, long[] ends, int count,
+                                long startMillis, long endMillis) {
+        long totalSteps = 0;
+        for (int i = 0; i < count; i++) {
+            totalSteps += steps[i];
+        }
+
+        JsonWriter json = JsonWriter.obtain()
+            .beginObject()
+            .field("success", true)
+            .field("requestId", requestId);
+        return writeIntervals(json.name("buckets"), steps, starts, ends, count)
+            .field("count", count)
+            .field("steps", totalSteps)
+            .field("startTime", startMillis)
+            .field("endTime", endMillis)
+            .field("source", SOURCE_HEALTH_CONNECT)
+            .endObject()
+            .finish();
+    }
+
+    static String encodeRanges(long requestId, long[] steps, long[] starts, long[] ends) {
+        JsonWriter json = JsonWriter.obtain()
+            .beginObject()
+            .field("success", true)
+            .field("requestId", requestId);
+        return writeIntervals(json.name("ranges"), steps, starts, ends, steps.length)
+            .field("count", steps.length)
+            .field("source", SOURCE_HEALTH_CONNECT)
+            .endObject()
+            .finish();
+    }
+
+    static String encodeRecords(long requestId, int sequence, boolean endOfStream, long totalRecords,
+                                long[] counts, long[] starts, long[] ends, String[] origins, int count,
+                                long startMillis, long endMillis) {
+        JsonWriter json = JsonWriter.obtain()
+            .beginObject()
+            .field("success", true)
+            .field("requestId", requestId)
+            .name("records")
+            .beginArray();
+
+        for (int i = 0; i < count; i++) {
+            json.beginObject()
+                .field("count", counts[i])
+                .field("startTime", starts[i])
+                .field("endTime", ends[i])
+                .field("dataOrigin", origins[i])
+                .endObject();
+        }
+
+        return json.endArray()
+            .field("count", count)
+            .field("sequence", sequence)
+            .field("endOfStream", endOfStream)
+            .field("totalCount", totalRecords)
+            .field("startTime", startMillis)
+            .field("endTime", endMillis)
+            .endObject()
+            .finish();
+    }
+
+    static String encodeStepChanges(long requestId, long steps, long upserted, long deleted, boolean fullResync,
+                                    long startMillis, long endMillis) {
+        return JsonWriter.obtain()
+            .beginObject()
+            .field("success", true)
+            .field("requestId", requestId)
+            .field("steps", steps)
+            .field("upserted", upserted)
+            .field("deleted", deleted)
+            .field("fullResync", fullResync)
+            .field("startTime", startMillis)
+            .field("endTime", endMillis)
+            .field("source", SOURCE_HEALTH_CONNECT)
+            .endObject()
+            .finish();
+    }
+
+    /**
+     * @param values Value of every HealthMetrics id, by id; NOT_READ for metrics that were not read
+     */
+    static String encodeMetrics(long requestId, long[] values, long startMillis, long endMillis) {
+        JsonWriter json = JsonWriter.obtain()
+            .beginObject()
+            .field("success", true)
+            .field("requestId", requestId);
+        for (int metric = 0; metric < HealthMetrics.COUNT; metric++) {
+            json.field(HealthMetrics.name(metric), values[metric]);
+        }
+        return json.field("startTime", startMillis)
+            .field("endTime", endMillis)
+            .field("source", SOURCE_HEALTH_CONNECT)
+            .endObject()
+            .finish();
+    }
+
+    static String encodeError(long requestId, String errorCode, String errorMessage) {
+        return JsonWriter.obtain()
+            .beginObject()
+            .field("success", false)
+            .field("requestId", requestId)
+            .field("errorCode", errorCode)
+            .field("errorMessage", errorMessage != null ? errorMessage : "Unknown error")
+            .endObject()
+            .finish();
+    }
+
+    /**
+     * Write an array of {steps, startTime, endTime} objects
+     */
+    private static JsonWriter writeIntervals(JsonWriter json, long[] steps, long[] starts, long[] ends, int count) {
+        json.beginArray();
+        for (int i = 0; i < count; i++) {
+            json.beginObject()
+                .field("steps", steps[i])
+                .field("startTime", starts[i])
+                .field("endTime", ends[i])
+                .endObject();
+        }
+        return json.endArray();
+    }
+}
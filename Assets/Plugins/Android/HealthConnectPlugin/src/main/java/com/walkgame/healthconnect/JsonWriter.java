@@ -0,0 +1,187 @@
+/*
+ * JsonWriter.java
+ * Streaming JSON writer for bridge payloads
+ *
+ * Appends straight into a StringBuilder owned by the calling thread, so building a
+ * response allocates nothing but the final String handed to UnitySendMessage: no
+ * JSONObject maps, no boxed numbers, no per-record objects. Each message type writes
+ * its fixed schema field by field.
+ *
+ * A writer is reused by every payload built on its thread; finish it before starting
+ * the next one.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+final class JsonWriter {
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    // Buffers that grew past this for a large page are dropped instead of being kept per thread
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<JsonWriter> WRITERS = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter();
+        }
+    };
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+    private boolean first;
+    private boolean afterName;
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Get the calling thread's writer, emptied and ready for a new payload
+     */
+    static JsonWriter obtain() {
+        JsonWriter writer = WRITERS.get();
+        writer.reset();
+        return writer;
+    }
+
+    private void reset() {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        } else {
+            buffer.setLength(0);
+        }
+        first = true;
+        afterName = false;
+    }
+
+    JsonWriter beginObject() {
+        beforeValue();
+        buffer.append('{');
+        first = true;
+        return this;
+    }
+
+    JsonWriter endObject() {
+        buffer.append('}');
+        first = false;
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        beforeValue();
+        buffer.append('[');
+        first = true;
+        return this;
+    }
+
+    JsonWriter endArray() {
+        buffer.append(']');
+        first = false;
+        return this;
+    }
+
+    JsonWriter name(String name) {
+        beforeValue();
+        appendString(name);
+        buffer.append(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    JsonWriter value(boolean value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            buffer.append("null");
+        } else {
+            appendString(value);
+        }
+        return this;
+    }
+
+    JsonWriter field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    JsonWriter field(String name, boolean value) {
+        return name(name).value(value);
+    }
+
+    JsonWriter field(String name, String value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * Number of chars written so far
+     */
+    int length() {
+        return buffer.length();
+    }
+
+    /**
+     * The payload written since obtain()
+     */
+    String finish() {
+        return buffer.toString();
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else if (!first) {
+            buffer.append(',');
+        }
+        first = false;
+    }
+
+    private void appendString(String value) {
+        buffer.append('"');
+
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    buffer.append("\\\"");
+                    break;
+                case '\\':
+                    buffer.append("\\\\");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        buffer.append("\\u")
+                            .append(HEX[(c >> 12) & 0xF])
+                            .append(HEX[(c >> 8) & 0xF])
+                            .append(HEX[(c >> 4) & 0xF])
+                            .append(HEX[c & 0xF]);
+                    } else {
+                        buffer.append(c);
+                    }
+                    break;
+            }
+        }
+
+        buffer.append('"');
+    }
+}
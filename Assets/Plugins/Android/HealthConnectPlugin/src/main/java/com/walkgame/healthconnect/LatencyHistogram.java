@@ -0,0 +1,138 @@
+/*
+ * LatencyHistogram.java
+ * Lock-free, fixed-size latency histogram
+ *
+ * Buckets follow the HdrHistogram layout: values below 8 get one bucket each, and every
+ * power of two above that is split into 8 linear sub-buckets, so any recorded value is
+ * off by at most 12.5%. Values are microseconds; anything past MAX_TRACKABLE_MICROS
+ * lands in the last bucket. Recording is a handful of atomic increments and never
+ * allocates.
+ *
+ * A snapshot reads the buckets one by one while recording continues, so under load its
+ * counts may be off by the few samples recorded during the read.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // 2^36 us is a little over 19 hours
+    private static final int MAX_MAGNITUDE = 35;
+    static final long MAX_TRACKABLE_MICROS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_TRACKABLE_MICROS);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(value);
+
+        long max = maxMicros.get();
+        while (value > max && !maxMicros.compareAndSet(max, value)) {
+            max = maxMicros.get();
+        }
+    }
+
+    long getCount() {
+        return totalCount.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + (magnitude - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Smallest value that falls into the bucket
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    /**
+     * Largest value that falls into the bucket
+     */
+    static long bucketUpperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? bucketLowerBound(index + 1) - 1 : MAX_TRACKABLE_MICROS;
+    }
+
+    /**
+     * Write count, mean, p50/p90/p99, max and the non-empty buckets as
+     * [lowerBoundMicros, count] pairs, which analytics can merge across devices
+     */
+    void writeTo(JsonWriter json) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+
+        long max = maxMicros.get();
+        json.field("count", count)
+            .field("meanMicros", count > 0 ? totalMicros.get() / count : 0)
+            .field("p50Micros", Math.min(percentile(snapshot, count, 50), max))
+            .field("p90Micros", Math.min(percentile(snapshot, count, 90), max))
+            .field("p99Micros", Math.min(percentile(snapshot, count, 99), max))
+            .field("maxMicros", max)
+            .name("buckets")
+            .beginArray();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (snapshot[i] > 0) {
+                json.beginArray()
+                    .value(bucketLowerBound(i))
+                    .value(snapshot[i])
+                    .endArray();
+            }
+        }
+        json.endArray();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, 0 when empty
+     */
+    private static long percentile(long[] snapshot, long count, int percent) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (count * percent + 99) / 100);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return MAX_TRACKABLE_MICROS;
+    }
+}
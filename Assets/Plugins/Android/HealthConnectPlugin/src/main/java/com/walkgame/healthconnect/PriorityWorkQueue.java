@@ -0,0 +1,95 @@
+/*
+ * PriorityWorkQueue.java
+ * Bounded priority work queue for the bridge's worker pool
+ *
+ * Tasks wrapped with task() are taken in priority order (interactive, normal,
+ * background), first-in first-out within a priority, so a query the player is waiting on
+ * runs on the next free worker instead of behind queued backfill work. Other runnables
+ * count as normal priority. Offers beyond the capacity are refused, which the pool's
+ * AbortPolicy turns into a RejectedExecutionException. Tasks wrapped with completion()
+ * finish work that was already admitted and are always accepted, so a full queue never
+ * pushes them back onto the thread that completed the call.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class PriorityWorkQueue extends PriorityBlockingQueue<Runnable> {
+
+    static final int PRIORITY_INTERACTIVE = 0;
+    static final int PRIORITY_NORMAL = 1;
+    static final int PRIORITY_BACKGROUND = 2;
+    static final int PRIORITY_COUNT = 3;
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static final Comparator<Runnable> ORDER = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable a, Runnable b) {
+            Task first = (Task) a;
+            Task second = (Task) b;
+            if (first.priority != second.priority) {
+                return first.priority < second.priority ? -1 : 1;
+            }
+            return Long.compare(first.sequence, second.sequence);
+        }
+    };
+
+    private final int capacity;
+    private final Object insertLock = new Object();
+
+    PriorityWorkQueue(int capacity) {
+        super(Math.min(capacity, 16), ORDER);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Wrap a runnable so the pool orders it by priority
+     */
+    static Runnable task(int priority, Runnable runnable) {
+        return new Task(priority, false, runnable);
+    }
+
+    /**
+     * Wrap a completion of admitted work; it is ordered like task() but never refused
+     */
+    static Runnable completion(int priority, Runnable runnable) {
+        return new Task(priority, true, runnable);
+    }
+
+    static int clampPriority(int priority) {
+        return Math.max(PRIORITY_INTERACTIVE, Math.min(priority, PRIORITY_BACKGROUND));
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        Task task = runnable instanceof Task ? (Task) runnable : new Task(PRIORITY_NORMAL, false, runnable);
+        synchronized (insertLock) {
+            if (!task.completion && size() >= capacity) {
+                return false;
+            }
+            return super.offer(task);
+        }
+    }
+
+    private static final class Task implements Runnable {
+        final int priority;
+        final boolean completion;
+        final long sequence = PriorityWorkQueue.sequence.incrementAndGet();
+        final Runnable runnable;
+
+        Task(int priority, boolean completion, Runnable runnable) {
+            this.priority = priority;
+            this.completion = completion;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+    }
+}
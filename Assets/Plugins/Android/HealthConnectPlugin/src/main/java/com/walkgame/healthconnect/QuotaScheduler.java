@@ -0,0 +1,597 @@
+/*
+ * QuotaScheduler.java
+ * Paces Health Connect calls against an estimate of the app's rate limit quota
+ *
+ * Health Connect limits how many calls an app may make, more strictly while it is in the
+ * background, and fails every call once the quota is used up. The bridge cannot read the
+ * remaining quota, so each call type keeps a token bucket estimating it: a call takes a
+ * token, tokens refill at a steady rate up to a burst size, and calls that find the
+ * bucket empty wait in a queue until a token is available instead of being sent.
+ *
+ * Calls are queued in the request's priority lane (PriorityWorkQueue constants) and taken
+ * interactive first. Background calls (warm-up prefetches, record streams, backfills) only
+ * run while the bucket is more than BACKGROUND_RESERVE full, so they never take the last
+ * tokens from calls Unity is waiting on, and only one of them is in flight at a time across
+ * all call types, so an interactive call never waits behind more than one bulk call.
+ * When Health Connect still reports the quota as exceeded, the bucket is emptied, blocked
+ * for an exponential backoff with jitter and the call is retried, up to
+ * MAX_RATE_LIMIT_RETRIES times.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class QuotaScheduler {
+
+    static final int CALL_AGGREGATE = 0;
+    static final int CALL_READ_RECORDS = 1;
+    static final int CALL_CHANGES = 2;
+    static final int CALL_TYPE_COUNT = 3;
+
+    // Share of the burst that background calls leave untouched
+    static final double BACKGROUND_RESERVE = 0.5;
+    static final int MAX_RATE_LIMIT_RETRIES = 3;
+
+    private static final long BACKOFF_BASE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BACKOFF_MAX_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long MIN_DRAIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final String[] CALL_TYPE_NAMES = {"aggregate", "readRecords", "changes"};
+
+    // What Health Connect's rate limiter throws: the platform exception on Android 14+, the
+    // RemoteException the client library maps it to before that. Matched by name so the
+    // scheduler does not load API 34 classes on older versions.
+    private static final String HEALTH_CONNECT_EXCEPTION = "android.health.connect.HealthConnectException";
+    private static final String REMOTE_EXCEPTION = "android.os.RemoteException";
+    private static final String RATE_LIMIT_MESSAGE = "quota exceeded";
+
+    private final ScheduledExecutorService timer;
+    private final Bucket[] buckets = new Bucket[CALL_TYPE_COUNT];
+    private final AtomicLong deferredCalls = new AtomicLong();
+    private final AtomicLong rateLimitedCalls = new AtomicLong();
+    private final AtomicBoolean backgroundInFlight = new AtomicBoolean();
+
+    private volatile boolean background;
+    private volatile boolean shutdown;
+
+    QuotaScheduler(ScheduledExecutorService timer) {
+        this.timer = timer;
+        // Estimates; Health Connect does not publish exact limits
+        buckets[CALL_AGGREGATE] = new Bucket(CALL_AGGREGATE, 60, 1.0, 0.25);
+        buckets[CALL_READ_RECORDS] = new Bucket(CALL_READ_RECORDS, 30, 0.5, 0.25);
+        buckets[CALL_CHANGES] = new Bucket(CALL_CHANGES, 30, 0.5, 0.25);
+    }
+
+    /**
+     * @param burst Calls that may be made back to back with a full bucket
+     * @param refillPerSecond Sustained calls per second
+     * @param backgroundFactor Share of burst and refill rate available while the app is in the background
+     */
+    void configure(int callType, int burst, double refillPerSecond, double backgroundFactor) {
+        Bucket bucket = buckets[callType];
+        synchronized (bucket) {
+            bucket.burst = Math.max(1, burst);
+            bucket.refillPerSecond = Math.max(0.001, refillPerSecond);
+            bucket.backgroundFactor = Math.max(0.01, Math.min(1, backgroundFactor));
+            bucket.tokens = Math.min(bucket.tokens, bucket.capacity());
+        }
+        drainLater(bucket, 0);
+    }
+
+    /**
+     * Switch to the background limits, or back
+     */
+    void setBackground(boolean background) {
+        if (this.background == background) {
+            return;
+        }
+        this.background = background;
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                bucket.refill(System.nanoTime());
+                bucket.tokens = Math.min(bucket.tokens, bucket.capacity());
+            }
+            drainLater(bucket, 0);
+        }
+    }
+
+    /**
+     * Wrap a call so it goes through the scheduler when invoked, e.g. by SingleFlight.
+     * A caller joining the flight with a higher priority moves the queued call to its lane.
+     */
+    <T> AsyncCallable<T> gate(int callType, int priority, AsyncCallable<T> call) {
+        return new Gate<>(buckets[callType], PriorityWorkQueue.clampPriority(priority), call);
+    }
+
+    /**
+     * Make the call now if the bucket has a token for it, or queue it until it does.
+     * Cancelling the returned future drops a queued call and cancels a running one.
+     */
+    <T> ListenableFuture<T> submit(int callType, int priority, AsyncCallable<T> call) {
+        return enqueue(new Pending<>(buckets[callType], PriorityWorkQueue.clampPriority(priority), call));
+    }
+
+    private <T> ListenableFuture<T> enqueue(Pending<T> pending) {
+        Bucket bucket = pending.bucket;
+        int priority = pending.priority;
+
+        boolean runNow;
+        synchronized (bucket) {
+            if (shutdown) {
+                pending.result.cancel(false);
+                return pending.result;
+            }
+            // Keep FIFO order: nothing overtakes calls already queued at the same or higher priority
+            runNow = !bucket.queuedAhead(priority) && tryAcquire(bucket, pending, System.nanoTime());
+            if (!runNow) {
+                bucket.queue(priority).addLast(pending);
+            }
+        }
+
+        if (runNow) {
+            start(pending);
+        } else {
+            deferredCalls.incrementAndGet();
+            drainLater(bucket, 0);
+        }
+        return pending.result;
+    }
+
+    /**
+     * Stop the timer and cancel every queued call, along with pending retries and drains.
+     * Calls made after this are cancelled right away; calls already running are left to finish.
+     */
+    void shutdown() {
+        List<Pending<?>> dropped = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                shutdown = true;
+                for (ArrayDeque<Pending<?>> queue : bucket.queues) {
+                    dropped.addAll(queue);
+                    queue.clear();
+                }
+            }
+        }
+        timer.shutdownNow();
+
+        for (Pending<?> pending : dropped) {
+            pending.result.cancel(false);
+        }
+    }
+
+    long getDeferredCount() {
+        return deferredCalls.get();
+    }
+
+    long getRateLimitedCount() {
+        return rateLimitedCalls.get();
+    }
+
+    /**
+     * Write "quota":{"background":..,"deferred":..,"rateLimited":..,"<callType>":{"tokens":..,"queued":..,"blockedMillis":..},..}
+     */
+    void writeTo(JsonWriter json) {
+        long now = System.nanoTime();
+        json.name("quota").beginObject()
+            .field("background", background)
+            .field("deferred", deferredCalls.get())
+            .field("rateLimited", rateLimitedCalls.get())
+            .field("backgroundInFlight", backgroundInFlight.get());
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                bucket.refill(now);
+                json.name(CALL_TYPE_NAMES[bucket.callType]).beginObject()
+                    .field("tokens", (long) bucket.tokens)
+                    .field("queued", bucket.queuedCount())
+                    .field("blockedMillis", TimeUnit.NANOSECONDS.toMillis(Math.max(0, bucket.blockedUntilNanos - now)))
+                    .endObject();
+            }
+        }
+        json.endObject();
+    }
+
+    /**
+     * Whether a failure is Health Connect reporting the quota as exceeded ("API call quota
+     * exceeded" / "Memory quota exceeded"). Only the failure itself and its direct cause are
+     * checked, so an unrelated error that merely wraps such a message deeper down is not retried.
+     */
+    static boolean isRateLimit(Throwable t) {
+        return t != null && (isRateLimitException(t) || isRateLimitException(t.getCause()));
+    }
+
+    private static boolean isRateLimitException(Throwable t) {
+        if (t == null) {
+            return false;
+        }
+        String type = t.getClass().getName();
+        if (!type.equals(HEALTH_CONNECT_EXCEPTION) && !type.equals(REMOTE_EXCEPTION)) {
+            return false;
+        }
+        String message = t.getMessage();
+        return message != null && message.toLowerCase(Locale.ROOT).contains(RATE_LIMIT_MESSAGE);
+    }
+
+    /**
+     * Move a call that is still queued to a higher priority lane, behind the calls already
+     * queued there. A call that already started keeps its slot and only retries at the new
+     * priority.
+     */
+    private void raisePriority(Pending<?> pending, int priority) {
+        Bucket bucket = pending.bucket;
+        synchronized (bucket) {
+            if (priority >= pending.priority) {
+                return;
+            }
+            boolean queued = bucket.queue(pending.priority).remove(pending);
+            pending.priority = priority;
+            if (queued) {
+                bucket.queue(priority).addLast(pending);
+            }
+        }
+        drainLater(bucket, 0);
+    }
+
+    /**
+     * Take a token for the call, and the background slot if it is a background call.
+     * Caller holds the bucket.
+     */
+    private boolean tryAcquire(Bucket bucket, Pending<?> pending, long now) {
+        if (!bucket.canAcquire(pending.priority, now)) {
+            return false;
+        }
+        if (pending.priority == PriorityWorkQueue.PRIORITY_BACKGROUND) {
+            if (!backgroundInFlight.compareAndSet(false, true)) {
+                return false;
+            }
+            pending.holdsBackgroundSlot = true;
+        }
+        bucket.tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Give back the background slot once the call holding it is done, and let the next
+     * background call of any type go
+     */
+    private void releaseBackgroundSlot(Pending<?> pending) {
+        if (!pending.holdsBackgroundSlot) {
+            return;
+        }
+        pending.holdsBackgroundSlot = false;
+        backgroundInFlight.set(false);
+        for (Bucket bucket : buckets) {
+            drainLater(bucket, 0);
+        }
+    }
+
+    private <T> void start(final Pending<T> pending) {
+        if (pending.result.isCancelled()) {
+            releaseBackgroundSlot(pending);
+            return;
+        }
+
+        final ListenableFuture<T> call;
+        try {
+            call = pending.call.call();
+        } catch (Exception e) {
+            releaseBackgroundSlot(pending);
+            pending.result.setException(e);
+            return;
+        }
+        pending.running = call;
+        if (pending.result.isCancelled()) {
+            call.cancel(true);
+        }
+
+        Futures.addCallback(call, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                releaseBackgroundSlot(pending);
+                pending.bucket.onSuccess();
+                pending.result.set(value);
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                releaseBackgroundSlot(pending);
+                if (!call.isCancelled() && isRateLimit(t) && pending.attempts < MAX_RATE_LIMIT_RETRIES) {
+                    pending.attempts++;
+                    rateLimitedCalls.incrementAndGet();
+                    long delay;
+                    synchronized (pending.bucket) {
+                        delay = pending.bucket.onRateLimited(System.nanoTime());
+                        if (!shutdown) {
+                            pending.bucket.queue(pending.priority).addFirst(pending);
+                        }
+                    }
+                    if (shutdown) {
+                        pending.result.cancel(false);
+                        return;
+                    }
+                    drainLater(pending.bucket, delay);
+                    return;
+                }
+                pending.result.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void drainLater(final Bucket bucket, long delayNanos) {
+        synchronized (bucket) {
+            if (bucket.drainScheduled || bucket.queuedCount() == 0) {
+                return;
+            }
+            bucket.drainScheduled = true;
+        }
+        schedule(bucket, Math.max(delayNanos, 0));
+    }
+
+    private void schedule(final Bucket bucket, long delayNanos) {
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    drain(bucket);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down; the queued calls were cancelled
+        }
+    }
+
+    /**
+     * Start every queued call the bucket has tokens for, interactive first, and come back
+     * when the next one can go. A background call waiting only for the background slot is
+     * picked up again when the slot is released.
+     */
+    private void drain(Bucket bucket) {
+        List<Pending<?>> ready = new ArrayList<>();
+        long nextDelay = -1;
+
+        synchronized (bucket) {
+            bucket.drainScheduled = false;
+            long now = System.nanoTime();
+
+            while (true) {
+                ArrayDeque<Pending<?>> queue = bucket.firstNonEmpty();
+                if (queue == null) {
+                    break;
+                }
+                Pending<?> head = queue.peekFirst();
+                if (head.result.isCancelled()) {
+                    queue.pollFirst();
+                    continue;
+                }
+                if (!tryAcquire(bucket, head, now)) {
+                    if (bucket.canAcquire(head.priority, now)) {
+                        break;
+                    }
+                    nextDelay = bucket.nanosUntilAvailable(head.priority, now);
+                    break;
+                }
+                ready.add(queue.pollFirst());
+            }
+
+            if (nextDelay >= 0) {
+                bucket.drainScheduled = true;
+            }
+        }
+
+        if (nextDelay >= 0) {
+            schedule(bucket, Math.max(nextDelay, MIN_DRAIN_DELAY_NANOS));
+        }
+
+        for (Pending<?> pending : ready) {
+            start(pending);
+        }
+    }
+
+    /**
+     * Scheduler entry point of a coalesced call; remembers its queued call so joiners can raise it
+     */
+    private final class Gate<T> implements AsyncCallable<T>, SingleFlight.Prioritized {
+        final Bucket bucket;
+        final AsyncCallable<T> call;
+        volatile int priority;
+        volatile Pending<T> pending;
+
+        Gate(Bucket bucket, int priority, AsyncCallable<T> call) {
+            this.bucket = bucket;
+            this.priority = priority;
+            this.call = call;
+        }
+
+        @Override
+        public ListenableFuture<T> call() {
+            int queuedAt = priority;
+            Pending<T> started = new Pending<>(bucket, queuedAt, call);
+            pending = started;
+            ListenableFuture<T> future = enqueue(started);
+
+            // SingleFlight starts the call outside its lock, so a joiner may have raised
+            // the priority before the pending call was published
+            if (priority < queuedAt) {
+                QuotaScheduler.this.raisePriority(started, priority);
+            }
+            return future;
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+
+        @Override
+        public void raisePriority(int priority) {
+            priority = PriorityWorkQueue.clampPriority(priority);
+            if (priority >= this.priority) {
+                return;
+            }
+            this.priority = priority;
+            Pending<T> started = pending;
+            if (started != null) {
+                QuotaScheduler.this.raisePriority(started, priority);
+            }
+        }
+    }
+
+    /**
+     * A call waiting for, or holding, a token
+     */
+    private static final class Pending<T> {
+        final Bucket bucket;
+        int priority; // Guarded by bucket once queued
+        final AsyncCallable<T> call;
+        final SettableFuture<T> result = SettableFuture.create();
+        volatile ListenableFuture<T> running;
+        int attempts;
+        volatile boolean holdsBackgroundSlot;
+
+        Pending(Bucket bucket, int priority, AsyncCallable<T> call) {
+            this.bucket = bucket;
+            this.priority = priority;
+            this.call = call;
+
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    ListenableFuture<T> current = running;
+                    if (result.isCancelled() && current != null) {
+                        current.cancel(true);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    /**
+     * Token bucket of one call type. All fields guarded by the bucket.
+     */
+    private final class Bucket {
+        final int callType;
+        final List<ArrayDeque<Pending<?>>> queues = new ArrayList<>(PriorityWorkQueue.PRIORITY_COUNT);
+        int burst;
+        double refillPerSecond;
+        double backgroundFactor;
+        double tokens;
+        long lastRefillNanos = System.nanoTime();
+        long blockedUntilNanos = lastRefillNanos;
+        int consecutiveLimits;
+        boolean drainScheduled;
+
+        Bucket(int callType, int burst, double refillPerSecond, double backgroundFactor) {
+            this.callType = callType;
+            this.burst = burst;
+            this.refillPerSecond = refillPerSecond;
+            this.backgroundFactor = backgroundFactor;
+            this.tokens = burst;
+            for (int i = 0; i < PriorityWorkQueue.PRIORITY_COUNT; i++) {
+                queues.add(new ArrayDeque<Pending<?>>());
+            }
+        }
+
+        ArrayDeque<Pending<?>> queue(int priority) {
+            return queues.get(priority);
+        }
+
+        ArrayDeque<Pending<?>> firstNonEmpty() {
+            for (ArrayDeque<Pending<?>> queue : queues) {
+                if (!queue.isEmpty()) {
+                    return queue;
+                }
+            }
+            return null;
+        }
+
+        boolean queuedAhead(int priority) {
+            for (int i = 0; i <= priority; i++) {
+                if (!queues.get(i).isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int queuedCount() {
+            int count = 0;
+            for (ArrayDeque<Pending<?>> queue : queues) {
+                count += queue.size();
+            }
+            return count;
+        }
+
+        double capacity() {
+            return background ? Math.max(1, burst * backgroundFactor) : burst;
+        }
+
+        double ratePerNano() {
+            return (background ? refillPerSecond * backgroundFactor : refillPerSecond) / 1e9;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(capacity(), tokens + (now - lastRefillNanos) * ratePerNano());
+            lastRefillNanos = now;
+        }
+
+        /**
+         * Tokens that must remain after a call of this priority
+         */
+        double reserve(int priority) {
+            return priority == PriorityWorkQueue.PRIORITY_BACKGROUND ? capacity() * BACKGROUND_RESERVE : 0;
+        }
+
+        boolean canAcquire(int priority, long now) {
+            if (now - blockedUntilNanos < 0) {
+                return false;
+            }
+            refill(now);
+            return tokens - 1 >= reserve(priority);
+        }
+
+        long nanosUntilAvailable(int priority, long now) {
+            long blocked = blockedUntilNanos - now;
+            double missing = 1 + reserve(priority) - tokens;
+            long refill = missing > 0 ? (long) (missing / ratePerNano()) : 0;
+            return Math.max(blocked, refill);
+        }
+
+        void onSuccess() {
+            synchronized (this) {
+                consecutiveLimits = 0;
+            }
+        }
+
+        /**
+         * Empty the bucket and block it for an exponential backoff with jitter
+         * @return The backoff in nanoseconds
+         */
+        long onRateLimited(long now) {
+            int exponent = Math.min(consecutiveLimits++, 6);
+            long backoff = Math.min(BACKOFF_MAX_NANOS, BACKOFF_BASE_NANOS << exponent);
+            backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            tokens = 0;
+            lastRefillNanos = now;
+            blockedUntilNanos = now + backoff;
+            return backoff;
+        }
+    }
+}
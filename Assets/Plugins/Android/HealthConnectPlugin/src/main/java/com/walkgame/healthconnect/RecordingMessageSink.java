@@ -0,0 +1,77 @@
+/*
+ * RecordingMessageSink.java
+ * Fake Unity message sink for load tests
+ *
+ * Counts messages and payload chars per method and keeps the last message of each
+ * method, instead of delivering anything. Nothing else is retained, so it can take
+ * millions of messages.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public final class RecordingMessageSink implements UnityMessageSink {
+
+    // Guarded by this
+    private final Map<String, long[]> totals = new HashMap<>(); // method -> {messages, chars}
+    private final Map<String, String> lastMessages = new HashMap<>();
+    private long messageCount;
+
+    @Override
+    public synchronized void sendMessage(String gameObject, String methodName, String message) {
+        long[] total = totals.get(methodName);
+        if (total == null) {
+            total = new long[2];
+            totals.put(methodName, total);
+        }
+        total[0]++;
+        total[1] += message != null ? message.length() : 0;
+
+        lastMessages.put(methodName, message);
+        messageCount++;
+        notifyAll();
+    }
+
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    public synchronized long getMessageCount(String methodName) {
+        long[] total = totals.get(methodName);
+        return total != null ? total[0] : 0;
+    }
+
+    public synchronized long getPayloadChars(String methodName) {
+        long[] total = totals.get(methodName);
+        return total != null ? total[1] : 0;
+    }
+
+    public synchronized String getLastMessage(String methodName) {
+        return lastMessages.get(methodName);
+    }
+
+    /**
+     * Wait until at least count messages have been received in total
+     * @return Whether they arrived before the timeout
+     */
+    public synchronized boolean awaitMessages(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (messageCount < count) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        totals.clear();
+        lastMessages.clear();
+        messageCount = 0;
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * RequestTracker.java
+ * Deadlines and cancellation for bridge requests
+ *
+ * Every request submitted with an id is tracked from submission until its terminal
+ * message (result, last records page or error). The futures a request waits on are
+ * attached to it; when the request is cancelled or its deadline passes, they are
+ * cancelled so the Health Connect calls behind them stop, and later results for the id
+ * are dropped. Exactly one terminal message is sent per request: whoever calls finish
+ * first owns it.
+ *
+ * Deadlines run on the given handler. A request that makes progress (a records page)
+ * can push its deadline out with extend.
+ *
+ * Each request also carries its priority lane (PriorityWorkQueue constants), which the
+ * bridge reads when scheduling the request's follow-up work and Health Connect calls.
+ *
+ * Kinds of request (the bridge uses the query method name) can be switched to latest-wins:
+ * a new request of the kind drops an older one still waiting for a worker, and an older
+ * one that finishes after a newer one already sent a successful result is suppressed, so
+ * repeated polls against a slow provider neither pile up nor arrive out of order. Both are
+ * dropped like cancelled requests, without a terminal message. Errors and timeouts of a
+ * newer request do not suppress older ones, which may still have a result to deliver.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import android.os.Handler;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class RequestTracker {
+
+    // Requests with this id are not tracked; HealthConnectBridge.NO_REQUEST_ID
+    static final long NO_REQUEST_ID = 0;
+    static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    // Set while expire cancels the futures of a request, see isExpiring
+    private static final ThreadLocal<Boolean> EXPIRING = new ThreadLocal<>();
+
+    interface TimeoutListener {
+        /**
+         * Called on the handler's thread once a request has expired and its futures were cancelled
+         */
+        void onTimeout(long requestId, long timeoutMillis);
+    }
+
+    private final Handler handler;
+    private final TimeoutListener timeoutListener;
+    private final Map<Long, Request> requests = new HashMap<>(); // Guarded by this
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    // Latest-wins state, all guarded by this
+    private final Set<String> latestWinsKinds = new HashSet<>();
+    private final Map<String, Request> queuedByKind = new HashMap<>();
+    private final Map<String, Long> finishedSequenceByKind = new HashMap<>();
+    private long nextSequence;
+
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    RequestTracker(Handler handler, TimeoutListener timeoutListener) {
+        this.handler = handler;
+        this.timeoutListener = timeoutListener;
+    }
+
+    /**
+     * @param timeoutMillis Deadline of requests started from now on, 0 for none
+     */
+    void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+    /**
+     * Switch latest-wins on or off for requests of a kind started from now on
+     */
+    synchronized void setLatestWins(String kind, boolean enabled) {
+        if (enabled) {
+            latestWinsKinds.add(kind);
+        } else {
+            latestWinsKinds.remove(kind);
+            queuedByKind.remove(kind);
+            finishedSequenceByKind.remove(kind);
+        }
+    }
+
+    /**
+     * Start tracking a request. An id still in flight is replaced; its futures are left running.
+     * @param kind Kind of request for latest-wins, or null
+     * @return Id of an older request of a latest-wins kind that was still queued and is
+     *         dropped in favour of this one, or NO_REQUEST_ID
+     */
+    long start(long requestId, int priority, String kind) {
+        if (requestId == NO_REQUEST_ID) {
+            return NO_REQUEST_ID;
+        }
+
+        Request previous;
+        Request dropped = null;
+        Request request;
+        synchronized (this) {
+            boolean latestWins = kind != null && latestWinsKinds.contains(kind);
+            request = new Request(requestId, timeoutMillis, priority, latestWins ? kind : null, nextSequence++);
+            previous = requests.put(requestId, request);
+            if (latestWins) {
+                Request queued = queuedByKind.put(kind, request);
+                if (queued != null && queued != previous && requests.get(queued.requestId) == queued) {
+                    requests.remove(queued.requestId);
+                    dropped = queued;
+                }
+            }
+        }
+        if (previous != null) {
+            handler.removeCallbacks(previous);
+        }
+        if (dropped != null) {
+            handler.removeCallbacks(dropped);
+            superseded.incrementAndGet();
+        }
+        schedule(request);
+        return dropped != null ? dropped.requestId : NO_REQUEST_ID;
+    }
+
+    /**
+     * Mark a request as picked up by a worker, so a newer one of its kind no longer drops it
+     * @return Whether the request is still active
+     */
+    boolean begin(long requestId) {
+        if (requestId == NO_REQUEST_ID) {
+            return true;
+        }
+        synchronized (this) {
+            Request request = requests.get(requestId);
+            if (request == null) {
+                return false;
+            }
+            forgetQueued(request);
+            return true;
+        }
+    }
+
+    /**
+     * Whether the request is still waiting for its terminal message. Untracked ids
+     * (NO_REQUEST_ID) are always active.
+     */
+    boolean isActive(long requestId) {
+        if (requestId == NO_REQUEST_ID) {
+            return true;
+        }
+        synchronized (this) {
+            return requests.containsKey(requestId);
+        }
+    }
+
+    /**
+     * Priority lane of the request; normal for untracked or finished ids
+     */
+    int getPriority(long requestId) {
+        synchronized (this) {
+            Request request = requests.get(requestId);
+            return request != null ? request.priority : PriorityWorkQueue.PRIORITY_NORMAL;
+        }
+    }
+
+    /**
+     * Move an active request to another lane. Work already queued keeps its place.
+     * @return Whether the request was still active
+     */
+    boolean setPriority(long requestId, int priority) {
+        synchronized (this) {
+            Request request = requests.get(requestId);
+            if (request == null) {
+                return false;
+            }
+            request.priority = priority;
+            return true;
+        }
+    }
+
+    /**
+     * Tie a future to the request, so it is cancelled with it. A request that is already
+     * over gets the future cancelled right away.
+     * @return The same future
+     */
+    <T> ListenableFuture<T> attach(long requestId, final ListenableFuture<T> future) {
+        if (requestId == NO_REQUEST_ID) {
+            return future;
+        }
+
+        final Request request;
+        synchronized (this) {
+            request = requests.get(requestId);
+            if (request != null) {
+                request.futures.add(future);
+            }
+        }
+
+        if (request == null) {
+            future.cancel(true);
+            return future;
+        }
+
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RequestTracker.this) {
+                    request.futures.remove(future);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Restart the request's deadline from now
+     */
+    void extend(long requestId) {
+        Request request;
+        synchronized (this) {
+            request = requests.get(requestId);
+        }
+        if (request != null) {
+            handler.removeCallbacks(request);
+            schedule(request);
+        }
+    }
+
+    /**
+     * Stop tracking a request that is about to send its result
+     * @return Whether the caller should send it; false if the request was cancelled, timed out,
+     *         superseded by a newer request of its kind or already finished
+     */
+    boolean finish(long requestId) {
+        return finish(requestId, true);
+    }
+
+    /**
+     * Stop tracking a request that is about to send an error. Unlike a result, an error does
+     * not make older requests of a latest-wins kind outdated.
+     * @return Whether the caller should send it, as for finish
+     */
+    boolean fail(long requestId) {
+        return finish(requestId, false);
+    }
+
+    private boolean finish(long requestId, boolean succeeded) {
+        if (requestId == NO_REQUEST_ID) {
+            return true;
+        }
+
+        Request request;
+        boolean outdated = false;
+        synchronized (this) {
+            request = requests.remove(requestId);
+            if (request != null && request.kind != null) {
+                forgetQueued(request);
+                Long finishedSequence = finishedSequenceByKind.get(request.kind);
+                if (finishedSequence != null && finishedSequence > request.sequence) {
+                    outdated = true;
+                } else if (succeeded) {
+                    finishedSequenceByKind.put(request.kind, request.sequence);
+                }
+            }
+        }
+        if (request == null) {
+            return false;
+        }
+        handler.removeCallbacks(request);
+        if (outdated) {
+            stale.incrementAndGet();
+            cancelFutures(request);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop a request and cancel the futures it waits on. No terminal message is sent for it.
+     * @return Whether the request was still active
+     */
+    boolean cancel(long requestId) {
+        Request request;
+        synchronized (this) {
+            request = requests.remove(requestId);
+            if (request != null) {
+                forgetQueued(request);
+            }
+        }
+        if (request == null) {
+            return false;
+        }
+
+        handler.removeCallbacks(request);
+        cancelled.incrementAndGet();
+        cancelFutures(request);
+        return true;
+    }
+
+    /**
+     * Whether the calling thread is cancelling the futures of a request whose deadline passed.
+     * Cancellation listeners on a direct executor run inline, so they can tell a timeout from
+     * other cancellations.
+     */
+    static boolean isExpiring() {
+        return EXPIRING.get() != null;
+    }
+
+    long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    long getSupersededCount() {
+        return superseded.get();
+    }
+
+    long getStaleCount() {
+        return stale.get();
+    }
+
+    int getActiveCount() {
+        synchronized (this) {
+            return requests.size();
+        }
+    }
+
+    private void schedule(Request request) {
+        if (request.timeoutMillis > 0) {
+            handler.postDelayed(request, request.timeoutMillis);
+        }
+    }
+
+    private void expire(Request request) {
+        synchronized (this) {
+            if (requests.get(request.requestId) != request) {
+                return;
+            }
+            requests.remove(request.requestId);
+            forgetQueued(request);
+        }
+
+        timedOut.incrementAndGet();
+        EXPIRING.set(Boolean.TRUE);
+        try {
+            cancelFutures(request);
+        } finally {
+            EXPIRING.remove();
+        }
+        timeoutListener.onTimeout(request.requestId, request.timeoutMillis);
+    }
+
+    /**
+     * Caller holds this
+     */
+    private void forgetQueued(Request request) {
+        if (request.kind != null && queuedByKind.get(request.kind) == request) {
+            queuedByKind.remove(request.kind);
+        }
+    }
+
+    private void cancelFutures(Request request) {
+        List<ListenableFuture<?>> futures;
+        synchronized (this) {
+            futures = new ArrayList<>(request.futures);
+            request.futures.clear();
+        }
+        for (ListenableFuture<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * A tracked request; runs as its own deadline task
+     */
+    private final class Request implements Runnable {
+        final long requestId;
+        final long timeoutMillis;
+        final String kind; // Only set for latest-wins kinds
+        final long sequence;
+        final List<ListenableFuture<?>> futures = new ArrayList<>(2); // Guarded by RequestTracker.this
+        int priority; // Guarded by RequestTracker.this
+
+        Request(long requestId, long timeoutMillis, int priority, String kind, long sequence) {
+            this.requestId = requestId;
+            this.timeoutMillis = timeoutMillis;
+            this.priority = priority;
+            this.kind = kind;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            expire(this);
+        }
+    }
+}
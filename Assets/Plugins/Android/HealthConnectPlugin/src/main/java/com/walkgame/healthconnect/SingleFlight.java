@@ -0,0 +1,138 @@
+/*
+ * SingleFlight.java
+ * Coalesces identical in-flight Health Connect calls
+ *
+ * While a call for a key is in flight, further calls for the same key get the same
+ * future instead of issuing another IPC. The key is dropped as soon as the future
+ * completes, so results are never cached beyond the lifetime of the call.
+ *
+ * Each caller gets its own view of the shared future, so a cancelled request does not
+ * cancel the call for the others. When both the running call and a joining caller's call
+ * are Prioritized, the running call is raised to the joiner's priority if that is higher.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SingleFlight {
+
+    private final Map<String, Flight> inFlight = new HashMap<>();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    /**
+     * Return a view of the in-flight future for key, or start a new call with the given callable.
+     * Cancelling a view only cancels the call once every caller sharing it has cancelled.
+     */
+    @SuppressWarnings("unchecked")
+    <T> ListenableFuture<T> run(final String key, AsyncCallable<T> call) {
+        final SettableFuture<T> result = SettableFuture.create();
+        final Flight flight = new Flight(call, result);
+
+        // Only reserve the key under the lock; the call itself may block on IPC or other locks
+        synchronized (inFlight) {
+            Flight existing = inFlight.get(key);
+            if (existing != null) {
+                coalescedCalls.incrementAndGet();
+                existing.waiters++;
+                if (existing.call instanceof Prioritized && call instanceof Prioritized) {
+                    ((Prioritized) existing.call).raisePriority(((Prioritized) call).priority());
+                }
+                return view(key, existing);
+            }
+            inFlight.put(key, flight);
+        }
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (inFlight) {
+                    if (inFlight.get(key) == flight) {
+                        inFlight.remove(key);
+                    }
+                }
+            }
+        }, MoreExecutors.directExecutor());
+
+        ListenableFuture<T> view = view(key, flight);
+        try {
+            result.setFuture(call.call());
+        } catch (Exception e) {
+            result.setException(e);
+        }
+        return view;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ListenableFuture<T> view(final String key, final Flight flight) {
+        final ListenableFuture<T> view = Futures.nonCancellationPropagating((ListenableFuture<T>) flight.future);
+        view.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (view.isCancelled()) {
+                    release(key, flight);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return view;
+    }
+
+    /**
+     * One caller gave up on the flight; cancel the call when it was the last one
+     */
+    private void release(String key, Flight flight) {
+        synchronized (inFlight) {
+            if (--flight.waiters > 0) {
+                return;
+            }
+            if (inFlight.get(key) == flight) {
+                inFlight.remove(key);
+            }
+        }
+        flight.future.cancel(true);
+    }
+
+    /**
+     * Number of calls that were served by an already in-flight future
+     */
+    long getCoalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    int getInFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * A call that runs at a priority (PriorityWorkQueue constants, lower runs first)
+     */
+    interface Prioritized {
+        int priority();
+
+        /**
+         * Run at least at the given priority from now on
+         */
+        void raisePriority(int priority);
+    }
+
+    private static final class Flight {
+        final AsyncCallable<?> call;
+        final ListenableFuture<?> future;
+        int waiters = 1; // Guarded by inFlight
+
+        Flight(AsyncCallable<?> call, ListenableFuture<?> future) {
+            this.call = call;
+            this.future = future;
+        }
+    }
+}
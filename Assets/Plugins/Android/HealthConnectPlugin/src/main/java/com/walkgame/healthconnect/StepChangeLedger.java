@@ -0,0 +1,272 @@
+/*
+ * StepChangeLedger.java
+ * Baseline for Health Connect delta sync
+ *
+ * Raw record counts cannot be added up into a delta: records of several data origins
+ * (phone and watch) overlap, and Health Connect only deduplicates them when aggregating.
+ * So the ledger keeps the aggregated step total of every hour of the sync window, and a
+ * change only marks the hours its record covered before and after the change as dirty.
+ * Those hours are aggregated again and the delta is the difference to the stored totals,
+ * which also makes replaying a change harmless. The Changes API reports deletions only by
+ * record id, so the ledger also remembers the time span of every StepsRecord it has seen.
+ *
+ * Hours are counted from the window start. The changes of one sync are staged in a Batch
+ * and applied in one step together with storing the new changes token, so a sync that
+ * fails or is cancelled half-way leaves the ledger untouched.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+class StepChangeLedger {
+
+    static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    // Window start of a ledger that has no baseline yet
+    static final long NO_WINDOW = Long.MIN_VALUE;
+
+    private static final int FILE_MAGIC = 0x48434C47; // "HCLG"
+    private static final int FILE_VERSION = 2;
+
+    private final File file;
+    private long windowStartMillis = NO_WINDOW;
+    private final Map<String, long[]> records = new HashMap<>(); // id -> {startMillis, endMillis}
+    private final Map<Long, Long> hours = new HashMap<>(); // hour of the window -> steps
+
+    StepChangeLedger(File file) {
+        this.file = file;
+    }
+
+    synchronized long getWindowStart() {
+        return windowStartMillis;
+    }
+
+    /**
+     * Replace the baseline after a full resync
+     * @param hourly Hourly aggregate of the window, starting at windowStartMillis
+     * @param spans Record id -> {startMillis, endMillis} of the records in the window
+     * @return Steps of the window, the sum of its hours
+     */
+    synchronized long reset(long windowStartMillis, StepIntervals hourly, Map<String, long[]> spans) {
+        this.windowStartMillis = windowStartMillis;
+        records.clear();
+        records.putAll(spans);
+        hours.clear();
+
+        long total = 0;
+        for (int i = 0; i < hourly.count; i++) {
+            long hour = hourOf(windowStartMillis, hourly.starts[i]);
+            if (hour >= 0 && hourly.steps[i] != 0) {
+                hours.put(hour, hourly.steps[i]);
+                total += hourly.steps[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Start staging the changes of one sync
+     */
+    Batch newBatch() {
+        return new Batch(getWindowStart());
+    }
+
+    /**
+     * Apply a batch, with the dirty hours aggregated again
+     * @param hourly Hourly aggregate from batch.getDirtyStartMillis() to batch.getDirtyEndMillis(),
+     *               or null when the batch has no dirty hours
+     * @return Step delta of the dirty hours. 0 if the ledger was reset to another window
+     *         since the batch was started; the batch is dropped then.
+     */
+    synchronized long apply(Batch batch, StepIntervals hourly) {
+        if (batch.windowStartMillis != windowStartMillis) {
+            return 0;
+        }
+
+        Map<Long, Long> fresh = new HashMap<>();
+        if (hourly != null) {
+            for (int i = 0; i < hourly.count; i++) {
+                fresh.put(hourOf(windowStartMillis, hourly.starts[i]), hourly.steps[i]);
+            }
+        }
+
+        long delta = 0;
+        for (Long hour : batch.dirtyHours) {
+            Long steps = fresh.get(hour);
+            Long previous = steps != null && steps != 0 ? hours.put(hour, steps) : hours.remove(hour);
+            delta += (steps != null ? steps : 0) - (previous != null ? previous : 0);
+        }
+
+        for (String id : batch.deleted) {
+            records.remove(id);
+        }
+        records.putAll(batch.upserted);
+        return delta;
+    }
+
+    /**
+     * Drop records that ended before the cutoff. Changes tokens expire after 30 days,
+     * so older records can never be referenced by a change again.
+     */
+    synchronized void prune(long cutoffMillis) {
+        Iterator<long[]> it = records.values().iterator();
+        while (it.hasNext()) {
+            if (it.next()[1] < cutoffMillis) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        windowStartMillis = NO_WINDOW;
+        records.clear();
+        hours.clear();
+    }
+
+    synchronized int size() {
+        return records.size();
+    }
+
+    private synchronized long[] span(String recordId) {
+        return records.get(recordId);
+    }
+
+    synchronized void load() throws IOException {
+        clear();
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                // Unknown format, start over. The next sync will fall back to a full resync.
+                throw new IOException("Unsupported ledger file format");
+            }
+
+            windowStartMillis = in.readLong();
+            int recordCount = in.readInt();
+            for (int i = 0; i < recordCount; i++) {
+                String id = in.readUTF();
+                long startMillis = in.readLong();
+                long endMillis = in.readLong();
+                records.put(id, new long[] { startMillis, endMillis });
+            }
+
+            int hourCount = in.readInt();
+            for (int i = 0; i < hourCount; i++) {
+                long hour = in.readLong();
+                hours.put(hour, in.readLong());
+            }
+        }
+    }
+
+    synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(windowStartMillis);
+            out.writeInt(records.size());
+            for (Map.Entry<String, long[]> entry : records.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+            out.writeInt(hours.size());
+            for (Map.Entry<Long, Long> entry : hours.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private static long hourOf(long windowStartMillis, long millis) {
+        return Math.floorDiv(millis - windowStartMillis, HOUR_MILLIS);
+    }
+
+    /**
+     * Changes of one sync, staged until they are applied. Not thread-safe; a sync reads its
+     * pages one after the other.
+     */
+    final class Batch {
+        private final long windowStartMillis;
+        private final Map<String, long[]> upserted = new HashMap<>();
+        private final Set<String> deleted = new HashSet<>();
+        private final TreeSet<Long> dirtyHours = new TreeSet<>();
+
+        private Batch(long windowStartMillis) {
+            this.windowStartMillis = windowStartMillis;
+        }
+
+        void upsert(String recordId, long startMillis, long endMillis) {
+            markDirty(lookup(recordId));
+            long[] span = { startMillis, endMillis };
+            markDirty(span);
+            upserted.put(recordId, span);
+            deleted.remove(recordId);
+        }
+
+        /**
+         * Records deleted before the ledger ever saw them (or pruned since) mark nothing
+         */
+        void delete(String recordId) {
+            markDirty(lookup(recordId));
+            upserted.remove(recordId);
+            deleted.add(recordId);
+        }
+
+        boolean hasDirtyHours() {
+            return !dirtyHours.isEmpty();
+        }
+
+        int getDirtyHourCount() {
+            return dirtyHours.size();
+        }
+
+        long getDirtyStartMillis() {
+            return windowStartMillis + dirtyHours.first() * HOUR_MILLIS;
+        }
+
+        long getDirtyEndMillis() {
+            return windowStartMillis + (dirtyHours.last() + 1) * HOUR_MILLIS;
+        }
+
+        private long[] lookup(String recordId) {
+            if (deleted.contains(recordId)) {
+                return null;
+            }
+            long[] span = upserted.get(recordId);
+            return span != null ? span : span(recordId);
+        }
+
+        private void markDirty(long[] span) {
+            if (span == null || span[1] <= windowStartMillis) {
+                return;
+            }
+            long first = Math.max(0, hourOf(windowStartMillis, span[0]));
+            long last = hourOf(windowStartMillis, Math.max(span[0], span[1] - 1));
+            for (long hour = first; hour <= last; hour++) {
+                dirtyHours.add(hour);
+            }
+        }
+    }
+}
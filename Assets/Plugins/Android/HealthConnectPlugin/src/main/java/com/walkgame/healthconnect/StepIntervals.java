@@ -0,0 +1,24 @@
+/*
+ * StepIntervals.java
+ * Step totals per time interval, as returned by the grouped aggregates of a HealthDataSource
+ *
+ * Intervals are in ascending order. Intervals without any data are omitted, so the
+ * result may be sparse.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+final class StepIntervals {
+
+    final long[] steps;
+    final long[] starts;
+    final long[] ends;
+    final int count;
+
+    StepIntervals(long[] steps, long[] starts, long[] ends, int count) {
+        this.steps = steps;
+        this.starts = starts;
+        this.ends = ends;
+        this.count = count;
+    }
+}
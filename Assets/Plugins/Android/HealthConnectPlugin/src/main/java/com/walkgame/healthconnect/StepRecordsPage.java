@@ -0,0 +1,31 @@
+/*
+ * StepRecordsPage.java
+ * One page of raw step records read from a HealthDataSource
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+final class StepRecordsPage {
+
+    final long[] counts;
+    final long[] starts;
+    final long[] ends;
+    final String[] origins;
+    final int count;
+
+    // Token for the next page, or null when this is the last one
+    final String nextPageToken;
+
+    StepRecordsPage(long[] counts, long[] starts, long[] ends, String[] origins, int count, String nextPageToken) {
+        this.counts = counts;
+        this.starts = starts;
+        this.ends = ends;
+        this.origins = origins;
+        this.count = count;
+        this.nextPageToken = nextPageToken;
+    }
+
+    boolean isLastPage() {
+        return nextPageToken == null || nextPageToken.isEmpty();
+    }
+}
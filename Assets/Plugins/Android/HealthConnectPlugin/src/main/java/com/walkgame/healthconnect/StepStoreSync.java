@@ -0,0 +1,102 @@
+/*
+ * StepStoreSync.java
+ * Shared plumbing for filling the hourly step store from a HealthDataSource
+ *
+ * Used by the bridge for foreground store queries and by StepSyncWorker in the
+ * background. Both go through the one process-wide store instance returned by
+ * getStore, so a background sync is visible to the bridge immediately.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.IOException;
+
+final class StepStoreSync {
+
+    private static final String TAG = "HealthConnectBridge";
+    private static final String STEP_STORE_FILE_NAME = "healthconnect_hourly_steps.bin";
+
+    // Health Connect data often arrives late (a watch that syncs the next morning), so hours
+    // only become final once they are this old
+    static final long CLOSE_GRACE_HOURS = 48;
+
+    private static volatile HourlyStepStore store;
+
+    private StepStoreSync() {
+    }
+
+    /**
+     * The process-wide hourly step store, loaded from disk on first use
+     */
+    static HourlyStepStore getStore(Context context) {
+        HourlyStepStore current = store;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (StepStoreSync.class) {
+            if (store == null) {
+                File storeFile = new File(context.getNoBackupFilesDir(), STEP_STORE_FILE_NAME);
+                HourlyStepStore loaded = new HourlyStepStore(storeFile);
+                try {
+                    loaded.load();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to load step store, starting empty", e);
+                    loaded.clear();
+                }
+                // Stores written with a shorter grace period may have closed hours too early
+                loaded.reopen(closeBeforeHour());
+                store = loaded;
+            }
+            return store;
+        }
+    }
+
+    /**
+     * The process-wide store if it has been loaded already, without touching the disk
+     */
+    static HourlyStepStore peekStore() {
+        return store;
+    }
+
+    /**
+     * Hourly aggregate covering the planned fetch range, clipped to now
+     * @param fetch {startHour, endHour} as returned by HourlyStepStore.planFetch
+     */
+    static ListenableFuture<StepIntervals> fetchHours(HealthDataSource source, long[] fetch, long nowMillis) {
+        return source.aggregateStepsByDuration(
+            fetch[0] * HourlyStepStore.HOUR_MILLIS,
+            Math.min(fetch[1] * HourlyStepStore.HOUR_MILLIS, nowMillis),
+            HourlyStepStore.HOUR_MILLIS);
+    }
+
+    /**
+     * Hours older than CLOSE_GRACE_HOURS are final; later ones keep being refreshed
+     */
+    static long closeBeforeHour() {
+        return HourlyStepStore.hourOf(System.currentTimeMillis()) - CLOSE_GRACE_HOURS;
+    }
+
+    /**
+     * Write an hourly aggregate into the store and persist it
+     */
+    static void apply(HourlyStepStore target, long[] fetch, StepIntervals hours, long closeBeforeHour) {
+        long[][] hourlySteps = new long[hours.count][];
+        for (int i = 0; i < hours.count; i++) {
+            hourlySteps[i] = new long[] {HourlyStepStore.hourOf(hours.starts[i]), hours.steps[i]};
+        }
+
+        target.putHours(fetch[0], fetch[1], hourlySteps, closeBeforeHour);
+        try {
+            target.save();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save step store", e);
+        }
+    }
+}
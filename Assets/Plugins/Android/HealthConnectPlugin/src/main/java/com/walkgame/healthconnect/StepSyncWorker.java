@@ -0,0 +1,106 @@
+/*
+ * StepSyncWorker.java
+ * Periodic background sync of hourly steps into the plugin's step store
+ *
+ * Scheduled through HealthConnectBridge.scheduleBackgroundSync. Each run fetches only
+ * the hours the store does not hold as final yet (the last two days, plus any gap within
+ * the sync window), so the bridge can answer store queries at launch without a full round
+ * trip.
+ *
+ * Health Connect only allows reads while the app is in the background when the
+ * background read feature is available and READ_HEALTH_DATA_IN_BACKGROUND is granted;
+ * otherwise a run does nothing.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.health.connect.client.HealthConnectClient;
+import androidx.health.connect.client.HealthConnectFeatures;
+import androidx.health.connect.client.permission.HealthPermission;
+import androidx.health.connect.client.records.StepsRecord;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class StepSyncWorker extends Worker {
+
+    private static final String TAG = "HealthConnectBridge";
+
+    static final String UNIQUE_WORK_NAME = "HealthConnectStepSync";
+    static final String PERMISSION_READ_IN_BACKGROUND = "android.permission.health.READ_HEALTH_DATA_IN_BACKGROUND";
+
+    // How far back a run fills gaps in the store
+    private static final int SYNC_WINDOW_DAYS = 7;
+    private static final long CALL_TIMEOUT_SECONDS = 60;
+
+    public StepSyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Whether Health Connect on this device supports reading in the background at all
+     */
+    static boolean isBackgroundReadAvailable(HealthConnectClient client) {
+        return client.getFeatures().getFeatureStatus(HealthConnectFeatures.FEATURE_READ_HEALTH_DATA_IN_BACKGROUND)
+            == HealthConnectFeatures.FEATURE_STATUS_AVAILABLE;
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+
+        if (HealthConnectClient.getSdkStatus(context) != HealthConnectClient.SDK_AVAILABLE) {
+            Log.d(TAG, "Background step sync skipped, Health Connect not available");
+            return Result.success();
+        }
+
+        HealthConnectClient client = HealthConnectClient.getOrCreate(context);
+        if (!isBackgroundReadAvailable(client)) {
+            Log.d(TAG, "Background step sync skipped, background reads not supported");
+            return Result.success();
+        }
+
+        try {
+            Set<String> granted = client.getPermissionController().getGrantedPermissions()
+                .get(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!granted.contains(HealthPermission.getReadPermission(StepsRecord.class))
+                || !granted.contains(PERMISSION_READ_IN_BACKGROUND)) {
+                Log.d(TAG, "Background step sync skipped, permissions not granted");
+                return Result.success();
+            }
+
+            HourlyStepStore store = StepStoreSync.getStore(context);
+            long nowMillis = System.currentTimeMillis();
+            long endHour = HourlyStepStore.hourOf(nowMillis) + 1;
+            long startHour = endHour - SYNC_WINDOW_DAYS * 24L;
+
+            long[] fetch = store.planFetch(startHour, endHour);
+            if (fetch == null) {
+                return Result.success();
+            }
+
+            StepIntervals hours = StepStoreSync.fetchHours(new HealthConnectDataSource(client), fetch, nowMillis)
+                .get(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            StepStoreSync.apply(store, fetch, hours, StepStoreSync.closeBeforeHour());
+            Log.d(TAG, "Background step sync stored " + (fetch[1] - fetch[0]) + " hours");
+            return Result.success();
+
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Background step sync failed, will retry", e);
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+}
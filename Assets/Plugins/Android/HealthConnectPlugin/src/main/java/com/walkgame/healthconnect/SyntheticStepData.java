@@ -0,0 +1,164 @@
+/*
+ * SyntheticStepData.java
+ * Generated per-minute step records from several data origins
+ *
+ * Every origin holds one step count per minute of the covered span (0 = no record), in
+ * a short[] per origin, so two years from three origins take about 6 MB. Activity
+ * follows a day/night pattern in the given zone. The first origin (a phone) records
+ * every walk; the others (a watch, a third-party app) record part of them with their own
+ * counts, so the origins overlap the way real devices do.
+ *
+ * Generation is deterministic for a given seed.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+final class SyntheticStepData {
+
+    static final long MINUTE_MILLIS = 60 * 1000;
+
+    static final String[] ORIGINS = {
+        "com.google.android.apps.fitness",
+        "com.samsung.android.wear.shealth",
+        "com.strava"
+    };
+
+    private final long startMinute;
+    private final int minuteCount;
+    private final String[] origins;
+    private final short[][] steps; // [origin][minute - startMinute]
+    private final long recordCount;
+
+    /**
+     * @param endMillis End of the generated span; it covers the days before it
+     * @param originCount 1 to ORIGINS.length
+     */
+    SyntheticStepData(long endMillis, int days, int originCount, ZoneId zone, long seed) {
+        if (days <= 0 || originCount <= 0 || originCount > ORIGINS.length) {
+            throw new IllegalArgumentException("days=" + days + ", originCount=" + originCount);
+        }
+
+        long endMinute = Math.floorDiv(endMillis, MINUTE_MILLIS);
+        minuteCount = days * 24 * 60;
+        startMinute = endMinute - minuteCount;
+        origins = new String[originCount];
+        System.arraycopy(ORIGINS, 0, origins, 0, originCount);
+        steps = new short[originCount][minuteCount];
+
+        Random random = new Random(seed);
+        long records = 0;
+        ZonedDateTime local = Instant.ofEpochMilli(startMinute * MINUTE_MILLIS).atZone(zone);
+        int minuteOfDay = local.getHour() * 60 + local.getMinute();
+        boolean walking = false;
+
+        for (int i = 0; i < minuteCount; i++) {
+            int hour = minuteOfDay / 60;
+            boolean awake = hour >= 7 && hour < 22;
+
+            // Walks start and stop at random, mostly while awake
+            if (walking) {
+                walking = random.nextInt(100) < 85;
+            } else {
+                walking = random.nextInt(1000) < (awake ? 25 : 1);
+            }
+
+            if (walking) {
+                int count = 60 + random.nextInt(60);
+                steps[0][i] = (short) count;
+                records++;
+                if (originCount > 1 && random.nextInt(100) < 70) {
+                    steps[1][i] = (short) (count - 5 + random.nextInt(11));
+                    records++;
+                }
+                if (originCount > 2 && random.nextInt(100) < 20) {
+                    steps[2][i] = (short) (count - 10 + random.nextInt(21));
+                    records++;
+                }
+            }
+
+            minuteOfDay = minuteOfDay + 1 == 24 * 60 ? 0 : minuteOfDay + 1;
+        }
+        recordCount = records;
+    }
+
+    long getStartMillis() {
+        return startMinute * MINUTE_MILLIS;
+    }
+
+    long getEndMillis() {
+        return (startMinute + minuteCount) * MINUTE_MILLIS;
+    }
+
+    long getRecordCount() {
+        return recordCount;
+    }
+
+    int getOriginCount() {
+        return origins.length;
+    }
+
+    String getOrigin(int origin) {
+        return origins[origin];
+    }
+
+    /**
+     * Steps of one origin in one minute, 0 when it has no record
+     * @param index Minute index from getStartMillis, see firstIndex
+     */
+    int getSteps(int origin, int index) {
+        return steps[origin][index];
+    }
+
+    /**
+     * Steps of the highest-priority origin that has a record in this minute, the way
+     * Health Connect deduplicates aggregates (origins are in priority order)
+     */
+    int getDedupedSteps(int index) {
+        for (short[] originSteps : steps) {
+            if (originSteps[index] != 0) {
+                return originSteps[index];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Index of the first minute that starts at or after millis, clamped to [0, minute count]
+     */
+    int firstIndex(long millis) {
+        return clampIndex(-Math.floorDiv(-millis, MINUTE_MILLIS) - startMinute);
+    }
+
+    /**
+     * Index after the last minute that ends at or before millis, clamped to [0, minute count]
+     */
+    int endIndex(long millis) {
+        return clampIndex(Math.floorDiv(millis, MINUTE_MILLIS) - startMinute);
+    }
+
+    private int clampIndex(long index) {
+        return (int) Math.max(0, Math.min(index, minuteCount));
+    }
+
+    long toMillis(int index) {
+        return (startMinute + index) * MINUTE_MILLIS;
+    }
+
+    /**
+     * Deduplicated steps for [startMillis, endMillis); partial minutes are left out
+     */
+    long sumSteps(long startMillis, long endMillis) {
+        int start = firstIndex(startMillis);
+        int end = endIndex(endMillis);
+        long total = 0;
+        for (int i = start; i < end; i++) {
+            total += getDedupedSteps(i);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * UnityMessageBatcher.java
+ * Coalesces outbound UnitySendMessage calls
+ *
+ * Messages queued within the batching window are delivered to Unity as one
+ * OnBatchedMessages envelope, in the order they were sent, so a backfill posts one
+ * main looper task and one UnitySendMessage per window instead of one per result.
+ * With a window of 0 (the default) every message is posted on its own, as before.
+ *
+ * Envelope: {"messages":[{"method":"OnStepsReceived","payload":"..."}, ...]}
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.unity3d.player.UnityPlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class UnityMessageBatcher {
+
+    private static final String TAG = "HealthConnectBridge";
+
+    static final String BATCH_METHOD = "OnBatchedMessages";
+
+    static final UnityMessageSink UNITY_PLAYER_SINK = new UnityMessageSink() {
+        @Override
+        public void sendMessage(String gameObject, String methodName, String message) {
+            UnityPlayer.UnitySendMessage(gameObject, methodName, message);
+        }
+    };
+
+    private final Handler mainHandler;
+    private final String gameObject;
+    private final BridgeMetrics metrics;
+
+    // Guarded by this
+    private final List<String> pendingMethods = new ArrayList<>();
+    private final List<String> pendingMessages = new ArrayList<>();
+    private boolean flushScheduled;
+    private long oldestPendingNanos;
+    private int batchCookie; // Trace cookie of the pending batch
+
+    private volatile long windowMillis;
+    private volatile UnityMessageSink sink = UNITY_PLAYER_SINK;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    UnityMessageBatcher(Handler mainHandler, String gameObject, BridgeMetrics metrics) {
+        this.mainHandler = mainHandler;
+        this.gameObject = gameObject;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param sink Receiver of every delivery, null for UnitySendMessage
+     */
+    void setSink(UnityMessageSink sink) {
+        this.sink = sink != null ? sink : UNITY_PLAYER_SINK;
+    }
+
+    /**
+     * @param windowMillis How long a message may wait for others to share its envelope, 0 to disable batching
+     */
+    void setWindowMillis(long windowMillis) {
+        this.windowMillis = Math.max(0, windowMillis);
+        if (windowMillis <= 0) {
+            flushSoon();
+        }
+    }
+
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Queue a message for Unity
+     * @param immediate Deliver on the next looper turn together with anything already pending,
+     *                  instead of waiting for the window to close
+     */
+    void send(String methodName, String message, boolean immediate) {
+        long window = windowMillis;
+
+        synchronized (this) {
+            if (pendingMethods.isEmpty()) {
+                oldestPendingNanos = BridgeMetrics.now();
+                BridgeTrace.beginAsync(BridgeTrace.ASYNC_UNITY_QUEUE, ++batchCookie);
+            }
+            pendingMethods.add(methodName);
+            pendingMessages.add(message);
+
+            if (immediate || window <= 0) {
+                mainHandler.removeCallbacks(flushTask);
+                flushScheduled = true;
+                mainHandler.post(flushTask);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                mainHandler.postDelayed(flushTask, window);
+            }
+        }
+    }
+
+    /**
+     * Deliver everything pending on the next looper turn
+     */
+    void flushSoon() {
+        synchronized (this) {
+            if (pendingMethods.isEmpty()) {
+                return;
+            }
+            mainHandler.removeCallbacks(flushTask);
+            flushScheduled = true;
+            mainHandler.post(flushTask);
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return pendingMethods.size();
+    }
+
+    /**
+     * Runs on the main looper
+     */
+    private void flush() {
+        String[] methods;
+        String[] messages;
+        long queuedNanos;
+
+        synchronized (this) {
+            flushScheduled = false;
+            if (pendingMethods.isEmpty()) {
+                return;
+            }
+            methods = pendingMethods.toArray(new String[0]);
+            messages = pendingMessages.toArray(new String[0]);
+            queuedNanos = oldestPendingNanos;
+            pendingMethods.clear();
+            pendingMessages.clear();
+            BridgeTrace.endAsync(BridgeTrace.ASYNC_UNITY_QUEUE, batchCookie);
+        }
+
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_FLUSH);
+        try {
+            deliverAll(methods, messages, queuedNanos);
+        } finally {
+            BridgeTrace.end(traced);
+        }
+    }
+
+    private void deliverAll(String[] methods, String[] messages, long queuedNanos) {
+        if (methods.length == 1) {
+            deliver(methods[0], messages[0], queuedNanos);
+            return;
+        }
+
+        JsonWriter json = JsonWriter.obtain()
+            .beginObject()
+            .name("messages")
+            .beginArray();
+        for (int i = 0; i < methods.length; i++) {
+            json.beginObject()
+                .field("method", methods[i])
+                .field("payload", messages[i])
+                .endObject();
+        }
+        json.endArray().endObject();
+
+        deliver(BATCH_METHOD, json.finish(), queuedNanos);
+    }
+
+    /**
+     * @param queuedNanos When the oldest message of this delivery was queued, for the unityPost metric
+     */
+    private void deliver(String methodName, String message, long queuedNanos) {
+        boolean traced = BridgeTrace.begin(BridgeTrace.SECTION_UNITY_SEND);
+        try {
+            sink.sendMessage(gameObject, methodName, message);
+            metrics.record(BridgeMetrics.OP_UNITY_POST, queuedNanos, BridgeMetrics.Operation.SUCCESS);
+        } catch (Exception e) {
+            metrics.record(BridgeMetrics.OP_UNITY_POST, queuedNanos, BridgeMetrics.Operation.FAILURE);
+            Log.e(TAG, "Failed to send message to Unity: " + methodName, e);
+        } finally {
+            BridgeTrace.end(traced);
+        }
+    }
+}
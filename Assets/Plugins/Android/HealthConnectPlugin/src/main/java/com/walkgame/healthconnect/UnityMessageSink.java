@@ -0,0 +1,15 @@
+/*
+ * UnityMessageSink.java
+ * Where the bridge's outbound messages end up
+ *
+ * Defaults to UnitySendMessage. Replace it through HealthConnectBridge.setMessageSink,
+ * e.g. with a RecordingMessageSink, to drive the bridge without a Unity player.
+ * Called on the main thread.
+ */
+
+package com.gimgim.codenamei.healthconnect;
+
+public interface UnityMessageSink {
+
+    void sendMessage(String gameObject, String methodName, String message);
+}
@@ -0,0 +1,180 @@
+using System;
+using System.Runtime.InteropServices;
+using System.Text;
+
+namespace GimGim.StepTracking.StepTracking {
+    /// <summary>
+    /// Reads binary results written by the native BinaryResultEncoder straight from the
+    /// direct ByteBuffer memory, without going through a JSON string.
+    /// Layout: 48 byte little-endian header followed by fixed-size items (see BinaryResultEncoder.java).
+    /// </summary>
+    internal static class HealthConnectBinaryReader {
+        #region Constants
+
+        public const int Magic = 0x31424348;
+        public const short Version = 1;
+
+        public const short TypeSteps = 1;
+        public const short TypeBuckets = 2;
+        public const short TypeRanges = 3;
+        public const short TypeRecords = 4;
+
+        public const int FlagEndOfStream = 1;
+        public const int FlagLocalStore = 1 << 1;
+
+        private const int HeaderSize = 48;
+        private const int IntervalSize = 24;
+        private const int RecordSize = 28;
+
+        #endregion
+
+        /// <summary>
+        /// Header shared by every binary result
+        /// </summary>
+        public struct Header {
+            public short type;
+            public long requestId;
+            public int sequence;
+            public int count;
+            public int flags;
+            public long rangeStart;
+            public long rangeEnd;
+        }
+
+        /// <summary>
+        /// Validate and read the header. Fails on a wrong magic, an unknown version or a buffer
+        /// too small for the announced item count.
+        /// </summary>
+        public static bool TryReadHeader(IntPtr address, long capacity, out Header header) {
+            header = default;
+
+            if (address == IntPtr.Zero || capacity < HeaderSize)
+                return false;
+
+            if (Marshal.ReadInt32(address, 0) != Magic || Marshal.ReadInt16(address, 4) != Version)
+                return false;
+
+            header.type = Marshal.ReadInt16(address, 6);
+            header.requestId = Marshal.ReadInt64(address, 8);
+            header.sequence = Marshal.ReadInt32(address, 16);
+            header.count = Marshal.ReadInt32(address, 20);
+            header.flags = Marshal.ReadInt32(address, 24);
+            header.rangeStart = Marshal.ReadInt64(address, 32);
+            header.rangeEnd = Marshal.ReadInt64(address, 40);
+
+            int itemSize = header.type == TypeRecords ? RecordSize : IntervalSize;
+            return header.count >= 0 && HeaderSize + (long)header.count * itemSize <= capacity;
+        }
+
+        public static HealthConnectStepResult ReadSteps(IntPtr address, in Header header) {
+            return new HealthConnectStepResult {
+                success = true,
+                requestId = header.requestId,
+                steps = Marshal.ReadInt64(address, HeaderSize),
+                startTime = Marshal.ReadInt64(address, HeaderSize + 8),
+                endTime = Marshal.ReadInt64(address, HeaderSize + 16),
+                source = (header.flags & FlagLocalStore) != 0 ? "LocalStore" : "HealthConnect"
+            };
+        }
+
+        public static HealthConnectStepBucketResult ReadBuckets(IntPtr address, in Header header) {
+            HealthConnectStepBucket[] buckets = ReadIntervals(address, header.count);
+            long total = 0;
+            foreach (HealthConnectStepBucket bucket in buckets) {
+                total += bucket.steps;
+            }
+
+            return new HealthConnectStepBucketResult {
+                success = true,
+                requestId = header.requestId,
+                buckets = buckets,
+                count = header.count,
+                steps = total,
+                startTime = header.rangeStart,
+                endTime = header.rangeEnd,
+                source = "HealthConnect"
+            };
+        }
+
+        public static HealthConnectStepRangesResult ReadRanges(IntPtr address, in Header header) {
+            return new HealthConnectStepRangesResult {
+                success = true,
+                requestId = header.requestId,
+                ranges = ReadIntervals(address, header.count),
+                count = header.count,
+                source = "HealthConnect"
+            };
+        }
+
+        public static HealthConnectStepRecordChunk ReadRecords(IntPtr address, long capacity, in Header header) {
+            int offset = HeaderSize + header.count * RecordSize;
+            string[] origins = ReadStringTable(address, capacity, offset);
+
+            HealthConnectStepRecord[] records = new HealthConnectStepRecord[header.count];
+            for (int i = 0; i < header.count; i++) {
+                int itemOffset = HeaderSize + i * RecordSize;
+                int originIndex = Marshal.ReadInt32(address, itemOffset + 24);
+
+                records[i] = new HealthConnectStepRecord {
+                    count = Marshal.ReadInt64(address, itemOffset),
+                    startTime = Marshal.ReadInt64(address, itemOffset + 8),
+                    endTime = Marshal.ReadInt64(address, itemOffset + 16),
+                    dataOrigin = originIndex >= 0 && originIndex < origins.Length ? origins[originIndex] : string.Empty
+                };
+            }
+
+            return new HealthConnectStepRecordChunk {
+                success = true,
+                requestId = header.requestId,
+                records = records,
+                count = header.count,
+                sequence = header.sequence,
+                endOfStream = (header.flags & FlagEndOfStream) != 0,
+                startTime = header.rangeStart,
+                endTime = header.rangeEnd
+            };
+        }
+
+        private static HealthConnectStepBucket[] ReadIntervals(IntPtr address, int count) {
+            HealthConnectStepBucket[] intervals = new HealthConnectStepBucket[count];
+            for (int i = 0; i < count; i++) {
+                int itemOffset = HeaderSize + i * IntervalSize;
+                intervals[i] = new HealthConnectStepBucket {
+                    steps = Marshal.ReadInt64(address, itemOffset),
+                    startTime = Marshal.ReadInt64(address, itemOffset + 8),
+                    endTime = Marshal.ReadInt64(address, itemOffset + 16)
+                };
+            }
+            return intervals;
+        }
+
+        private static string[] ReadStringTable(IntPtr address, long capacity, int offset) {
+            if (offset + 4 > capacity)
+                return Array.Empty<string>();
+
+            int count = Marshal.ReadInt32(address, offset);
+            offset += 4;
+
+            string[] strings = new string[Math.Max(0, count)];
+            byte[] scratch = Array.Empty<byte>();
+
+            for (int i = 0; i < strings.Length; i++) {
+                int length = Marshal.ReadInt32(address, offset);
+                offset += 4;
+
+                if (length < 0 || offset + length > capacity)
+                    throw new FormatException("Binary result string table is truncated");
+
+                if (scratch.Length < length) {
+                    scratch = new byte[length];
+                }
+
+                Marshal.Copy(IntPtr.Add(address, offset), scratch, 0, length);
+                strings[i] = Encoding.UTF8.GetString(scratch, 0, length);
+                offset += length;
+            }
+
+            return strings;
+        }
+    }
+}
@@ -16,6 +16,7 @@ namespace GimGim.StepTracking.StepTracking {
     [Serializable]
     public class HealthConnectStepResult {
         public bool success;
+        public long requestId;
         public long steps;
         public long startTime;
         public long endTime;
@@ -24,6 +25,52 @@ namespace GimGim.StepTracking.StepTracking {
         public string errorMessage;
     }
     
+    /// <summary>
+    /// Result from a multi-range step query. Ranges are in the order they were requested.
+    /// </summary>
+    [Serializable]
+    public class HealthConnectStepRangesResult {
+        public bool success;
+        public long requestId;
+        public HealthConnectStepBucket[] ranges;
+        public int count;
+        public string source;
+    }
+    
+    /// <summary>
+    /// Result from an incremental (Changes API) step sync. When fullResync is set, steps is the
+    /// total for the whole window; otherwise it is the delta since the previous sync.
+    /// </summary>
+    [Serializable]
+    public class HealthConnectStepChangesResult {
+        public bool success;
+        public long requestId;
+        public long steps;
+        public int upserted;
+        public int deleted;
+        public bool fullResync;
+        public long startTime;
+        public long endTime;
+        public string source;
+    }
+    
+    /// <summary>
+    /// Result from a multi-metric query. Metrics that were not requested, or whose read
+    /// permission is not granted, are -1.
+    /// </summary>
+    [Serializable]
+    public class HealthConnectMetricsResult {
+        public bool success;
+        public long requestId;
+        public long steps;
+        public long distanceMeters;
+        public long activeCalories;
+        public long exerciseMillis;
+        public long startTime;
+        public long endTime;
+        public string source;
+    }
+    
     /// <summary>
     /// Individual step record from Health Connect
     /// </summary>
@@ -34,4 +81,63 @@ namespace GimGim.StepTracking.StepTracking {
         public long endTime;
         public string dataOrigin;
     }
+    
+    /// <summary>
+    /// One page of step records. Record queries are streamed as a sequence of chunks;
+    /// the last chunk has endOfStream set.
+    /// </summary>
+    [Serializable]
+    public class HealthConnectStepRecordChunk {
+        public bool success;
+        public long requestId;
+        public HealthConnectStepRecord[] records;
+        public int count;
+        public int sequence;
+        public bool endOfStream;
+        public long totalCount;
+        public long startTime;
+        public long endTime;
+    }
+    
+    /// <summary>
+    /// Single time bucket from a bucketed Health Connect step query
+    /// </summary>
+    [Serializable]
+    public class HealthConnectStepBucket {
+        public long steps;
+        public long startTime;
+        public long endTime;
+    }
+    
+    /// <summary>
+    /// Result from a bucketed Health Connect step query. Buckets without data are omitted.
+    /// </summary>
+    [Serializable]
+    public class HealthConnectStepBucketResult {
+        public bool success;
+        public long requestId;
+        public HealthConnectStepBucket[] buckets;
+        public int count;
+        public long steps;
+        public long startTime;
+        public long endTime;
+        public string source;
+    }
+    
+    /// <summary>
+    /// One native message inside a batch envelope
+    /// </summary>
+    [Serializable]
+    public class HealthConnectBatchedMessage {
+        public string method;
+        public string payload;
+    }
+    
+    /// <summary>
+    /// Messages coalesced by the native plugin within one batching window, in send order
+    /// </summary>
+    [Serializable]
+    public class HealthConnectMessageBatch {
+        public HealthConnectBatchedMessage[] messages;
+    }
 }
\ No newline at end of file
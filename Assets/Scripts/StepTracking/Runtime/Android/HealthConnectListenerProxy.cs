@@ -0,0 +1,64 @@
+using System.Collections.Generic;
+using UnityEngine;
+
+namespace GimGim.StepTracking.StepTracking {
+    /// <summary>
+    /// Implements the native HealthConnectListener interface. The plugin calls it directly on its
+    /// worker thread with primitive arguments; results are queued here and drained on the main thread.
+    /// </summary>
+    internal class HealthConnectListenerProxy : AndroidJavaProxy {
+        /// <summary>
+        /// One callback received from the plugin
+        /// </summary>
+        public struct NativeResult {
+            public bool isError;
+            public long requestId;
+            public long steps;
+            public long startTime;
+            public long endTime;
+            public string errorCode;
+            public string errorMessage;
+        }
+
+        private readonly Queue<NativeResult> _pending = new();
+
+        public HealthConnectListenerProxy() : base("com.gimgim.codenamei.healthconnect.HealthConnectListener") { }
+
+        /// <summary>
+        /// Take the next queued result, called from the main thread
+        /// </summary>
+        public bool TryDequeue(out NativeResult result) {
+            lock (_pending) {
+                return _pending.TryDequeue(out result);
+            }
+        }
+
+        #region HealthConnectListener
+
+        // Called by the native plugin on its worker thread
+
+        public void onSteps(long requestId, long steps, long startMillis, long endMillis) {
+            lock (_pending) {
+                _pending.Enqueue(new NativeResult {
+                    requestId = requestId,
+                    steps = steps,
+                    startTime = startMillis,
+                    endTime = endMillis
+                });
+            }
+        }
+
+        public void onError(long requestId, string errorCode, string errorMessage) {
+            lock (_pending) {
+                _pending.Enqueue(new NativeResult {
+                    isError = true,
+                    requestId = requestId,
+                    errorCode = errorCode,
+                    errorMessage = errorMessage
+                });
+            }
+        }
+
+        #endregion
+    }
+}
@@ -1,4 +1,5 @@
 using System;
+using System.Collections.Generic;
 using UnityEngine;
 
 namespace GimGim.StepTracking.StepTracking {
@@ -28,16 +29,53 @@ namespace GimGim.StepTracking.StepTracking {
 
         #endregion
         
+        #region Constants
+
+        /// <summary>
+        /// Request id of responses that do not belong to a query (initialization, permissions),
+        /// and the value returned when a query could not be sent
+        /// </summary>
+        public const long NoRequestId = 0;
+
+        /// <summary>
+        /// GetStoredSteps result while the native step store is still being loaded
+        /// </summary>
+        public const long StoredStepsNotReady = -2;
+
+        /// <summary>
+        /// Query priorities for SetQueryPriority. Interactive work runs before normal and
+        /// background work natively, and at most one background call runs at a time.
+        /// </summary>
+        public const int PriorityInteractive = 0;
+        public const int PriorityNormal = 1;
+        public const int PriorityBackground = 2;
+
+        /// <summary>
+        /// Metric ids for QueryMetricsForRange
+        /// </summary>
+        public const int MetricSteps = 0;
+        public const int MetricDistance = 1;
+        public const int MetricActiveCalories = 2;
+        public const int MetricExerciseDuration = 3;
+
+        #endregion
+        
         #region Private Fields
 
         private bool _isInitialized = false;
         private bool _hasPermissions = false;
+        private HealthConnectAvailability? _availability;
         private Action<bool> _authorizationCallback;
-        private Action<StepQueryData> _stepDataCallback;
+        private readonly List<Action<bool>> _permissionRefreshCallbacks = new();
+        private Action<bool> _backgroundPermissionCallback;
+        private readonly Dictionary<long, Action<StepQueryData>> _stepDataCallbacks = new();
+        private long _nextRequestId = 1;
+        private bool _stepsSinceLatestWins;
         
 // #if UNITY_ANDROID && !UNITY_EDITOR
         private AndroidJavaClass _bridgeClass;
 // #endif
+        private HealthConnectListenerProxy _listenerProxy;
 
         #endregion
 
@@ -48,6 +86,11 @@ namespace GimGim.StepTracking.StepTracking {
         /// </summary>
         public event Action<bool> OnInitialized;
         
+        /// <summary>
+        /// Fired when Health Connect is installed, updated or removed and its availability changes
+        /// </summary>
+        public event Action<HealthConnectAvailability> OnAvailabilityUpdated;
+        
         /// <summary>
         /// Fired when permission request completes
         /// </summary>
@@ -58,6 +101,31 @@ namespace GimGim.StepTracking.StepTracking {
         /// </summary>
         public event Action<HealthConnectStepResult> OnStepsQueried;
         
+        /// <summary>
+        /// Fired when a bucketed step query completes
+        /// </summary>
+        public event Action<HealthConnectStepBucketResult> OnStepBucketsQueried;
+        
+        /// <summary>
+        /// Fired when a multi-range step query completes
+        /// </summary>
+        public event Action<HealthConnectStepRangesResult> OnStepRangesQueried;
+        
+        /// <summary>
+        /// Fired when a multi-metric query completes
+        /// </summary>
+        public event Action<HealthConnectMetricsResult> OnMetricsQueried;
+        
+        /// <summary>
+        /// Fired when an incremental step sync completes
+        /// </summary>
+        public event Action<HealthConnectStepChangesResult> OnStepChangesQueried;
+        
+        /// <summary>
+        /// Fired for each page of a streamed step record query
+        /// </summary>
+        public event Action<HealthConnectStepRecordChunk> OnStepRecordsChunkReceived;
+        
         /// <summary>
         /// Fired when an error occurs
         /// </summary>
@@ -92,9 +160,16 @@ namespace GimGim.StepTracking.StepTracking {
         }
 
         public void GetStepsSince(DateTime since, Action<StepQueryData> callback) {
-            _stepDataCallback = callback;
-            long sinceMillis = new DateTimeOffset(since.ToUniversalTime()).ToUnixTimeMilliseconds();
-            QueryStepsSince(sinceMillis);
+            long requestId = QueryStepsSince(ToUnixMillis(since));
+
+            if (requestId == NoRequestId) {
+                callback?.Invoke(StepQueryData.Failed("Health Connect query could not be sent", StepSource.HealthConnect));
+                return;
+            }
+
+            if (callback != null) {
+                _stepDataCallbacks[requestId] = callback;
+            }
         }
 
         public void StartRealTimeTracking() {
@@ -124,8 +199,13 @@ namespace GimGim.StepTracking.StepTracking {
             gameObject.name = "HealthConnectReceiver";
         }
 
+        private void Update() {
+            DrainListenerResults();
+        }
+
         private void OnDestroy() {
             if (_instance == this) {
+                SetDirectCallbacks(false);
                 _instance = null;
             }
         }
@@ -154,17 +234,22 @@ namespace GimGim.StepTracking.StepTracking {
         }
 
         /// <summary>
-        /// Check if Health Connect is available on this device
+        /// Check if Health Connect is available on this device. Only the first call goes to the
+        /// plugin; afterwards the value is cached until OnAvailabilityChanged reports a change.
         /// </summary>
         public HealthConnectAvailability CheckAvailability() {
         #if UNITY_ANDROID && !UNITY_EDITOR
+            if (_availability.HasValue)
+                return _availability.Value;
+
             try {
                 if (_bridgeClass == null) {
                     _bridgeClass = new AndroidJavaClass("com.gimgim.codenamei.healthconnect.HealthConnectBridge");
                 }
                 
                 int result = _bridgeClass.CallStatic<int>("checkAvailability");
-                return (HealthConnectAvailability)result;
+                _availability = (HealthConnectAvailability)result;
+                return _availability.Value;
             }
             catch (Exception e) {
                 Debug.LogError($"[HealthConnectProvider] Failed to check availability: {e.Message}");
@@ -195,7 +280,8 @@ namespace GimGim.StepTracking.StepTracking {
         }
 
         /// <summary>
-        /// Check if permissions are granted
+        /// Check if permissions are granted. Reads the plugin's cached permission state and never
+        /// blocks; use RefreshPermissions to re-read it from Health Connect.
         /// </summary>
         public bool CheckPermissions() {
         #if UNITY_ANDROID && !UNITY_EDITOR
@@ -213,56 +299,490 @@ namespace GimGim.StepTracking.StepTracking {
         }
 
         /// <summary>
-        /// Query steps since a given timestamp (milliseconds since epoch)
+        /// Re-read the granted permissions from Health Connect asynchronously
         /// </summary>
-        public void QueryStepsSince(long timestampMillis) {
+        public void RefreshPermissions(Action<bool> callback = null) {
         #if UNITY_ANDROID && !UNITY_EDITOR
             try {
-                _bridgeClass?.CallStatic("getStepsSince", timestampMillis);
-                Debug.Log($"[HealthConnectProvider] Querying steps since {timestampMillis}");
+                if (_bridgeClass == null) {
+                    callback?.Invoke(false);
+                    return;
+                }
+
+                if (callback != null) {
+                    _permissionRefreshCallbacks.Add(callback);
+                }
+                _bridgeClass.CallStatic("refreshPermissions");
             }
             catch (Exception e) {
-                Debug.LogError($"[HealthConnectProvider] Failed to query steps: {e.Message}");
+                Debug.LogError($"[HealthConnectProvider] Failed to refresh permissions: {e.Message}");
+                _permissionRefreshCallbacks.Remove(callback);
+                callback?.Invoke(false);
             }
         #else
-            Debug.Log("[HealthConnectProvider] Step query not available in editor");
+            callback?.Invoke(false);
         #endif
         }
 
         /// <summary>
-        /// Query steps for a date range
+        /// Request permission to read Health Connect data in the background, needed by the
+        /// background step sync. Reports false if the device does not support background reads.
         /// </summary>
-        public void QueryStepsForRange(DateTime start, DateTime end) {
+        public void RequestBackgroundPermission(Action<bool> callback) {
         #if UNITY_ANDROID && !UNITY_EDITOR
             try {
-                long startMillis = new DateTimeOffset(start.ToUniversalTime()).ToUnixTimeMilliseconds();
-                long endMillis = new DateTimeOffset(end.ToUniversalTime()).ToUnixTimeMilliseconds();
-                
-                _bridgeClass?.CallStatic("getStepsForDateRange", startMillis, endMillis);
-                Debug.Log($"[HealthConnectProvider] Querying steps for range {start} to {end}");
+                if (_bridgeClass == null) {
+                    callback?.Invoke(false);
+                    return;
+                }
+
+                _backgroundPermissionCallback = callback;
+                _bridgeClass.CallStatic("requestBackgroundPermission");
             }
             catch (Exception e) {
-                Debug.LogError($"[HealthConnectProvider] Failed to query steps for range: {e.Message}");
+                Debug.LogError($"[HealthConnectProvider] Failed to request background permission: {e.Message}");
+                _backgroundPermissionCallback = null;
+                callback?.Invoke(false);
             }
         #else
-            Debug.Log("[HealthConnectProvider] Step query not available in editor");
+            callback?.Invoke(false);
+        #endif
+        }
+
+        /// <summary>
+        /// Periodically sync hourly steps into the native step store while the game is closed, so
+        /// QueryStepsFromStore and GetStoredSteps have data right at launch
+        /// </summary>
+        /// <param name="intervalMinutes">Sync period, at least 15 minutes</param>
+        public bool ScheduleBackgroundSync(int intervalMinutes = 60) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                return _bridgeClass?.CallStatic<bool>("scheduleBackgroundSync", intervalMinutes) ?? false;
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to schedule background sync: {e.Message}");
+                return false;
+            }
+        #else
+            return false;
         #endif
         }
 
+        /// <summary>
+        /// Stop the periodic background step sync
+        /// </summary>
+        public void CancelBackgroundSync() {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("cancelBackgroundSync");
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to cancel background sync: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Query steps since a given timestamp (milliseconds since epoch)
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepsSince(long timestampMillis) {
+            return SendQuery("getStepsSince", $"steps since {timestampMillis}", timestampMillis);
+        }
+
+        /// <summary>
+        /// Sync steps incrementally since the last sync. The first sync (or one after the native
+        /// changes token expired, or with another timestampMillis than the last full total was
+        /// taken for) reports the full total since timestampMillis.
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long SyncStepChanges(long timestampMillis) {
+            return SendQuery("syncStepChanges", $"step changes since {timestampMillis}", timestampMillis);
+        }
+
+        /// <summary>
+        /// Query steps for a date range
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepsForRange(DateTime start, DateTime end) {
+            return SendQuery("getStepsForDateRange", $"steps for range {start} to {end}",
+                ToUnixMillis(start), ToUnixMillis(end));
+        }
+
+        /// <summary>
+        /// Query steps for several date ranges in one native call; all totals arrive together
+        /// through OnStepRangesQueried in the order given
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepsForRanges(IReadOnlyList<DateTime> starts, IReadOnlyList<DateTime> ends) {
+            if (starts.Count != ends.Count) {
+                Debug.LogError("[HealthConnectProvider] Range start and end lists must have the same length");
+                return NoRequestId;
+            }
+
+            long[] startMillis = new long[starts.Count];
+            long[] endMillis = new long[ends.Count];
+            for (int i = 0; i < starts.Count; i++) {
+                startMillis[i] = ToUnixMillis(starts[i]);
+                endMillis[i] = ToUnixMillis(ends[i]);
+            }
+
+            return SendQuery("getStepsForRanges", $"steps for {starts.Count} ranges", startMillis, endMillis);
+        }
+
+        /// <summary>
+        /// Query several metrics (MetricSteps, MetricDistance, MetricActiveCalories,
+        /// MetricExerciseDuration) for a date range in one native aggregate call; the values
+        /// arrive together through OnMetricsQueried
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryMetricsForRange(DateTime start, DateTime end, params int[] metrics) {
+            return SendQuery("getMetricsForDateRange", $"{metrics.Length} metrics for range {start} to {end}",
+                ToUnixMillis(start), ToUnixMillis(end), metrics);
+        }
+
         /// <summary>
         /// Query steps for today
         /// </summary>
-        public void QueryStepsToday() {
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepsToday() {
+            return SendQuery("getStepsToday", "today's steps");
+        }
+
+        /// <summary>
+        /// Query steps for a date range split into fixed-length buckets (e.g. 60 for hourly charts)
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepsBucketed(DateTime start, DateTime end, int bucketMinutes) {
+            return SendQuery("getStepsBucketed", $"steps for range {start} to {end} in {bucketMinutes} minute buckets",
+                ToUnixMillis(start), ToUnixMillis(end), bucketMinutes);
+        }
+
+        /// <summary>
+        /// Query steps for a date range split into calendar-day buckets in the device time zone.
+        /// The first bucket starts at local midnight of the start day.
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepsByDays(DateTime start, DateTime end, int bucketDays = 1) {
+            return SendQuery("getStepsBucketedByDays", $"steps for range {start} to {end} in {bucketDays} day buckets",
+                ToUnixMillis(start), ToUnixMillis(end), bucketDays);
+        }
+
+        /// <summary>
+        /// Query steps for a date range through the native hourly step store. Only hours that are
+        /// not final yet are fetched from Health Connect; the result arrives through OnStepsReceived.
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepsFromStore(DateTime start, DateTime end) {
+            return SendQuery("getStepsFromStore", $"stored steps for range {start} to {end}",
+                ToUnixMillis(start), ToUnixMillis(end));
+        }
+
+        /// <summary>
+        /// Read steps for a date range synchronously from the native hourly step store, without
+        /// touching Health Connect. Returns -1 if part of the range has never been stored, and
+        /// StoredStepsNotReady until the store has been loaded in the background.
+        /// </summary>
+        public long GetStoredSteps(DateTime start, DateTime end) {
         #if UNITY_ANDROID && !UNITY_EDITOR
             try {
-                _bridgeClass?.CallStatic("getStepsToday");
-                Debug.Log("[HealthConnectProvider] Querying today's steps");
+                return _bridgeClass?.CallStatic<long>("getStoredSteps", ToUnixMillis(start), ToUnixMillis(end)) ?? -1;
             }
             catch (Exception e) {
-                Debug.LogError($"[HealthConnectProvider] Failed to query today's steps: {e.Message}");
+                Debug.LogError($"[HealthConnectProvider] Failed to read stored steps: {e.Message}");
+                return -1;
             }
         #else
-            Debug.Log("[HealthConnectProvider] Step query not available in editor");
+            return -1;
+        #endif
+        }
+
+        /// <summary>
+        /// Query raw step records for a date range. Results arrive as a stream of chunks
+        /// through OnStepRecordsChunkReceived, all carrying the returned request id.
+        /// </summary>
+        /// <returns>Request id echoed in the response, or NoRequestId if the query was not sent</returns>
+        public long QueryStepRecords(DateTime start, DateTime end, int pageSize = 1000) {
+            return SendQuery("getStepRecords", $"step records for range {start} to {end}",
+                ToUnixMillis(start), ToUnixMillis(end), pageSize);
+        }
+
+        /// <summary>
+        /// Stop a query sent by one of the Query methods. Its native calls are cancelled and
+        /// nothing more arrives for the request id; a pending GetStepsSince callback is dropped
+        /// without being invoked.
+        /// </summary>
+        /// <returns>True if the query was still running</returns>
+        public bool CancelQuery(long requestId) {
+            _stepDataCallbacks.Remove(requestId);
+
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                return _bridgeClass?.CallStatic<bool>("cancel", requestId) ?? false;
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to cancel request {requestId}: {e.Message}");
+                return false;
+            }
+        #else
+            return false;
+        #endif
+        }
+
+        /// <summary>
+        /// Move a query to another priority. Step totals for today, since a time and from the
+        /// step store start as interactive, record streams and multi-range queries as
+        /// background, everything else as normal. Work already queued keeps its place.
+        /// </summary>
+        /// <param name="priority">PriorityInteractive, PriorityNormal or PriorityBackground</param>
+        /// <returns>True if the query was still running</returns>
+        public bool SetQueryPriority(long requestId, int priority) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                return _bridgeClass?.CallStatic<bool>("setRequestPriority", requestId, priority) ?? false;
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to set priority of request {requestId}: {e.Message}");
+                return false;
+            }
+        #else
+            return false;
+        #endif
+        }
+
+        /// <summary>
+        /// Switch latest-wins on or off for one kind of query that is polled repeatedly. A new
+        /// query of the kind drops an older one that has not started yet, and an older one that
+        /// would answer after a newer one answered successfully is suppressed. Dropped queries get
+        /// no response; for GetStepsSince their pending callbacks are failed once a newer query
+        /// succeeds. A newer query that fails or times out leaves older ones running.
+        /// </summary>
+        /// <param name="method">Native query method, e.g. "getStepsToday" or "getStepsSince"</param>
+        public void SetLatestWins(string method, bool enabled) {
+            if (method == "getStepsSince") {
+                _stepsSinceLatestWins = enabled;
+            }
+
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("setLatestWins", method, enabled);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to set latest-wins for {method}: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Deadline of queries sent from now on. A query still running when it passes is
+        /// cancelled natively and reported through OnError with the code "Timeout".
+        /// Record streams restart the deadline with every chunk.
+        /// </summary>
+        /// <param name="timeoutMillis">Deadline in milliseconds (native default 30000), 0 to wait indefinitely</param>
+        public void SetQueryTimeout(long timeoutMillis) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("setRequestTimeout", timeoutMillis);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to set query timeout: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Switch step, bucket, range and record results between JSON messages (default) and
+        /// binary buffers read in place through OnBinaryResultReady. Errors and step changes
+        /// always arrive as JSON.
+        /// </summary>
+        public void SetBinaryTransport(bool enabled) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("setTransportMode", enabled ? 1 : 0);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to set transport mode: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Receive step totals and errors through a native listener called directly from the plugin's
+        /// worker thread, instead of UnitySendMessage. Results are dispatched on the next Update.
+        /// </summary>
+        public void SetDirectCallbacks(bool enabled) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                if (enabled) {
+                    _listenerProxy ??= new HealthConnectListenerProxy();
+                    _bridgeClass?.CallStatic("setListener", _listenerProxy);
+                }
+                else if (_listenerProxy != null) {
+                    _bridgeClass?.CallStatic("clearListener");
+                    DrainListenerResults();
+                    _listenerProxy = null;
+                }
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to set direct callbacks: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Size the native worker pool. Queries beyond queueCapacity waiting for a worker are
+        /// rejected and reported through OnError with the code "Overloaded".
+        /// </summary>
+        public void ConfigureExecutor(int threadCount, int queueCapacity) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("configureExecutor", threadCount, queueCapacity);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to configure executor: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Tune the native estimate of Health Connect's rate limit for one call type. Queries
+        /// beyond it wait for quota instead of failing; the wait counts against the query timeout.
+        /// </summary>
+        /// <param name="callType">0 = aggregates, 1 = record reads, 2 = step changes</param>
+        /// <param name="burst">Calls that may be made back to back after a quiet period</param>
+        /// <param name="refillPerSecond">Sustained calls per second</param>
+        /// <param name="backgroundFactor">Share of both available while the app is in the background</param>
+        public void ConfigureQuota(int callType, int burst, double refillPerSecond, double backgroundFactor = 0.25) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("configureQuota", callType, burst, refillPerSecond, backgroundFactor);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to configure quota: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Number of native queries and completions waiting for a worker thread
+        /// </summary>
+        public int GetExecutorQueueDepth() {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                return _bridgeClass?.CallStatic<int>("getExecutorQueueDepth") ?? 0;
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to read executor queue depth: {e.Message}");
+                return 0;
+            }
+        #else
+            return 0;
+        #endif
+        }
+
+        /// <summary>
+        /// Emit Android system trace sections for native bridge work, so it shows up in
+        /// Perfetto on the same timeline as Unity's frames. Off by default.
+        /// </summary>
+        public void SetNativeTracing(bool enabled) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("setTracingEnabled", enabled);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to set native tracing: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Serve every query from generated step records instead of Health Connect, for load
+        /// testing on devices without Health Connect data. Step change sync is not supported.
+        /// Call before Initialize; generating years of data takes a moment.
+        /// </summary>
+        /// <param name="days">Days of data ending now</param>
+        /// <param name="originCount">Overlapping data origins, 1 to 3</param>
+        /// <param name="latencyMillis">Base delay of every native call</param>
+        /// <param name="jitterMillis">Random extra delay of up to this much</param>
+        /// <param name="failureRate">Fraction of native calls (0..1) that fail</param>
+        /// <param name="seed">Seed of the generated data</param>
+        /// <returns>Number of generated step records</returns>
+        public long EnableFakeBackend(int days = 365, int originCount = 3, long latencyMillis = 50,
+            long jitterMillis = 50, double failureRate = 0, long seed = 1) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                return _bridgeClass?.CallStatic<long>("enableFakeBackend", days, originCount, latencyMillis,
+                    jitterMillis, failureRate, seed) ?? 0;
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to enable fake backend: {e.Message}");
+                return 0;
+            }
+        #else
+            return 0;
+        #endif
+        }
+
+        /// <summary>
+        /// Go back to Health Connect after EnableFakeBackend
+        /// </summary>
+        public void DisableFakeBackend() {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("disableFakeBackend");
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to disable fake backend: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Native latency histograms and success/failure/timeout counters per Health Connect
+        /// operation, as the raw JSON object built by the plugin (see HealthConnectBridge.getMetricsSnapshot).
+        /// Meant to be forwarded to analytics as is.
+        /// </summary>
+        /// <param name="reset">Start a new measuring interval after taking the snapshot</param>
+        public string GetMetricsSnapshot(bool reset = false) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                return _bridgeClass?.CallStatic<string>("getMetricsSnapshot", reset);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to read metrics snapshot: {e.Message}");
+                return null;
+            }
+        #else
+            return null;
+        #endif
+        }
+
+        /// <summary>
+        /// Let the native plugin coalesce results sent within windowMillis (e.g. 16 for one frame)
+        /// into a single message. Pass 0 to send every result on its own.
+        /// </summary>
+        public void SetMessageBatching(int windowMillis) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("setMessageBatching", windowMillis);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to set message batching: {e.Message}");
+            }
+        #endif
+        }
+
+        /// <summary>
+        /// Deliver batched native results right away instead of waiting for the window to close
+        /// </summary>
+        public void FlushMessages() {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                _bridgeClass?.CallStatic("flushMessages");
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to flush messages: {e.Message}");
+            }
         #endif
         }
 
@@ -298,6 +818,185 @@ namespace GimGim.StepTracking.StepTracking {
 
         #endregion
 
+        #region Private Methods
+
+        /// <summary>
+        /// Call a native query entry point under a fresh request id, which is passed as the first argument
+        /// </summary>
+        private long SendQuery(string methodName, string description, params object[] args) {
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            if (_bridgeClass == null) {
+                Debug.LogWarning($"[HealthConnectProvider] Cannot query {description} - not initialized");
+                return NoRequestId;
+            }
+
+            long requestId = _nextRequestId++;
+            object[] callArgs = new object[args.Length + 1];
+            callArgs[0] = requestId;
+            Array.Copy(args, 0, callArgs, 1, args.Length);
+
+            try {
+                _bridgeClass.CallStatic(methodName, callArgs);
+                Debug.Log($"[HealthConnectProvider] Querying {description} (request {requestId})");
+                return requestId;
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to query {description}: {e.Message}");
+                return NoRequestId;
+            }
+        #else
+            Debug.Log("[HealthConnectProvider] Step query not available in editor");
+            return NoRequestId;
+        #endif
+        }
+
+        /// <summary>
+        /// Deliver a step total, whichever transport it arrived on
+        /// </summary>
+        private void HandleStepResult(HealthConnectStepResult result) {
+            OnStepsQueried?.Invoke(result);
+
+            if (result.success)
+                FailSupersededCallbacks(result.requestId);
+
+            if (!result.success || !_stepDataCallbacks.Remove(result.requestId, out Action<StepQueryData> callback))
+                return;
+
+            StepQueryData stepQueryData = StepQueryData.Succeeded(
+                (int)result.steps,
+                DateTimeOffset.FromUnixTimeMilliseconds(result.startTime).DateTime,
+                DateTimeOffset.FromUnixTimeMilliseconds(result.endTime).DateTime,
+                StepSource.HealthConnect);
+
+            callback.Invoke(stepQueryData);
+
+            OnStepsUpdated?.Invoke((int)result.steps);
+        }
+
+        /// <summary>
+        /// Decode a binary result in place and raise the same events as its JSON counterpart
+        /// </summary>
+        private void DispatchBinaryResult(IntPtr address, long capacity) {
+            if (!HealthConnectBinaryReader.TryReadHeader(address, capacity, out HealthConnectBinaryReader.Header header)) {
+                Debug.LogError("[HealthConnectProvider] Invalid binary result header");
+                return;
+            }
+
+            switch (header.type) {
+                case HealthConnectBinaryReader.TypeSteps:
+                    HandleStepResult(HealthConnectBinaryReader.ReadSteps(address, header));
+                    break;
+                case HealthConnectBinaryReader.TypeBuckets:
+                    OnStepBucketsQueried?.Invoke(HealthConnectBinaryReader.ReadBuckets(address, header));
+                    break;
+                case HealthConnectBinaryReader.TypeRanges:
+                    OnStepRangesQueried?.Invoke(HealthConnectBinaryReader.ReadRanges(address, header));
+                    break;
+                case HealthConnectBinaryReader.TypeRecords:
+                    OnStepRecordsChunkReceived?.Invoke(HealthConnectBinaryReader.ReadRecords(address, capacity, header));
+                    break;
+                default:
+                    Debug.LogError($"[HealthConnectProvider] Unknown binary result type {header.type}");
+                    break;
+            }
+        }
+
+        /// <summary>
+        /// With latest-wins on for GetStepsSince, once a query succeeds no older one ever answers,
+        /// so their callbacks are completed with a "Superseded" failure instead of waiting forever.
+        /// Only called for successes, the same rule the native side uses.
+        /// </summary>
+        private void FailSupersededCallbacks(long requestId) {
+            if (!_stepsSinceLatestWins || requestId == NoRequestId || !_stepDataCallbacks.ContainsKey(requestId))
+                return;
+
+            List<long> older = new();
+            foreach (long pendingId in _stepDataCallbacks.Keys) {
+                if (pendingId < requestId)
+                    older.Add(pendingId);
+            }
+
+            foreach (long pendingId in older) {
+                if (!_stepDataCallbacks.Remove(pendingId, out Action<StepQueryData> callback))
+                    continue;
+
+                callback.Invoke(StepQueryData.Failed(
+                    $"Superseded: request {pendingId} was replaced by request {requestId}",
+                    StepSource.HealthConnect));
+            }
+        }
+
+        /// <summary>
+        /// Report a failed query to the error event and to its pending callback, if any
+        /// </summary>
+        private void HandleError(long requestId, string errorCode, string errorMessage) {
+            OnError?.Invoke(errorCode, errorMessage);
+
+            if (!_stepDataCallbacks.Remove(requestId, out Action<StepQueryData> callback))
+                return;
+
+            StepQueryData stepQueryData = StepQueryData.Failed(
+                $"{errorCode}: {errorMessage}",
+                StepSource.HealthConnect);
+
+            callback.Invoke(stepQueryData);
+        }
+
+        /// <summary>
+        /// Dispatch results queued by the native listener
+        /// </summary>
+        private void DrainListenerResults() {
+            if (_listenerProxy == null)
+                return;
+
+            while (_listenerProxy.TryDequeue(out HealthConnectListenerProxy.NativeResult result)) {
+                if (result.isError) {
+                    Debug.LogError($"[HealthConnectProvider] Native error: {result.errorCode}: {result.errorMessage}");
+                    HandleError(result.requestId, result.errorCode, result.errorMessage);
+                    continue;
+                }
+
+                HandleStepResult(new HealthConnectStepResult {
+                    success = true,
+                    requestId = result.requestId,
+                    steps = result.steps,
+                    startTime = result.startTime,
+                    endTime = result.endTime,
+                    source = "HealthConnect"
+                });
+            }
+        }
+
+        /// <summary>
+        /// Route a message unpacked from a native batch to its callback
+        /// </summary>
+        private void DispatchNativeMessage(string method, string payload) {
+            switch (method) {
+                case nameof(OnHealthConnectInitialized): OnHealthConnectInitialized(payload); break;
+                case nameof(OnAvailabilityChanged): OnAvailabilityChanged(payload); break;
+                case nameof(OnPermissionsResult): OnPermissionsResult(payload); break;
+                case nameof(OnPermissionsRefreshed): OnPermissionsRefreshed(payload); break;
+                case nameof(OnBackgroundPermissionResult): OnBackgroundPermissionResult(payload); break;
+                case nameof(OnStepsReceived): OnStepsReceived(payload); break;
+                case nameof(OnStepBucketsReceived): OnStepBucketsReceived(payload); break;
+                case nameof(OnStepRangesReceived): OnStepRangesReceived(payload); break;
+                case nameof(OnMetricsReceived): OnMetricsReceived(payload); break;
+                case nameof(OnStepChangesReceived): OnStepChangesReceived(payload); break;
+                case nameof(OnStepRecordsReceived): OnStepRecordsReceived(payload); break;
+                case nameof(OnBinaryResultReady): OnBinaryResultReady(payload); break;
+                case nameof(OnHealthConnectError): OnHealthConnectError(payload); break;
+                default:
+                    Debug.LogWarning($"[HealthConnectProvider] Unknown batched message: {method}");
+                    break;
+            }
+        }
+
+        private static long ToUnixMillis(DateTime time) {
+            return new DateTimeOffset(time.ToUniversalTime()).ToUnixTimeMilliseconds();
+        }
+
+        #endregion
+
         #region Native Callbacks
 
         // These methods are called by the native Android plugin via UnitySendMessage
@@ -326,10 +1025,24 @@ namespace GimGim.StepTracking.StepTracking {
             }
         }
 
+        /// <summary>
+        /// Called when the Health Connect package is installed, updated or removed and the
+        /// availability status changed
+        /// </summary>
+        public void OnAvailabilityChanged(string result) {
+            Debug.Log($"[HealthConnectProvider] OnAvailabilityChanged: {result}");
+
+            if (!int.TryParse(result, out int status))
+                return;
+
+            _availability = (HealthConnectAvailability)status;
+            OnAvailabilityUpdated?.Invoke(_availability.Value);
+        }
+
         /// <summary>
         /// Called when permissions result is received
         /// </summary>
-        public void OnPermissionResult(string result) {
+        public void OnPermissionsResult(string result) {
             Debug.Log($"[HealthConnectProvider] OnPermissionsResult: {result}");
             
             _hasPermissions = result.ToLower() == "true";
@@ -338,6 +1051,32 @@ namespace GimGim.StepTracking.StepTracking {
             _authorizationCallback = null;
         }
 
+        /// <summary>
+        /// Called when a background permission request completes
+        /// </summary>
+        public void OnBackgroundPermissionResult(string result) {
+            Debug.Log($"[HealthConnectProvider] OnBackgroundPermissionResult: {result}");
+
+            Action<bool> callback = _backgroundPermissionCallback;
+            _backgroundPermissionCallback = null;
+            callback?.Invoke(result.ToLower() == "true");
+        }
+
+        /// <summary>
+        /// Called when an asynchronous permission refresh completes
+        /// </summary>
+        public void OnPermissionsRefreshed(string result) {
+            Debug.Log($"[HealthConnectProvider] OnPermissionsRefreshed: {result}");
+
+            _hasPermissions = result.ToLower() == "true";
+
+            Action<bool>[] callbacks = _permissionRefreshCallbacks.ToArray();
+            _permissionRefreshCallbacks.Clear();
+            foreach (Action<bool> callback in callbacks) {
+                callback.Invoke(_hasPermissions);
+            }
+        }
+
         /// <summary>
         /// Called when steps are received. Converts the data to StepQueryData for IStepProvider callback
         /// and fires the real-time event for compatibility
@@ -346,22 +1085,7 @@ namespace GimGim.StepTracking.StepTracking {
             Debug.Log($"[HealthConnectProvider] OnStepsReceived: {jsonResult}");
             
             try {
-                HealthConnectStepResult result = JsonUtility.FromJson<HealthConnectStepResult>(jsonResult);
-                OnStepsQueried?.Invoke(result);
-
-                if (_stepDataCallback == null || !result.success) 
-                    return;
-                
-                StepQueryData stepQueryData = StepQueryData.Succeeded(
-                    (int)result.steps,
-                    DateTimeOffset.FromUnixTimeMilliseconds(result.startTime).DateTime,
-                    DateTimeOffset.FromUnixTimeMilliseconds(result.endTime).DateTime,
-                    StepSource.HealthConnect);
-                    
-                _stepDataCallback.Invoke(stepQueryData);
-                _stepDataCallback = null;
-                    
-                OnStepsUpdated?.Invoke((int)result.steps);
+                HandleStepResult(JsonUtility.FromJson<HealthConnectStepResult>(jsonResult));
             }
             catch (Exception e) {
                 Debug.LogError($"[HealthConnectProvider] Failed to parse step result: {e.Message}");
@@ -369,11 +1093,130 @@ namespace GimGim.StepTracking.StepTracking {
         }
 
         /// <summary>
-        /// Called when step records are received
-        /// //TODO: check if this result should be parsed and its data used.
+        /// Called when a bucketed step query completes
+        /// </summary>
+        public void OnStepBucketsReceived(string jsonResult) {
+            Debug.Log($"[HealthConnectProvider] OnStepBucketsReceived: {jsonResult}");
+            
+            try {
+                HealthConnectStepBucketResult result = JsonUtility.FromJson<HealthConnectStepBucketResult>(jsonResult);
+                OnStepBucketsQueried?.Invoke(result);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to parse step buckets: {e.Message}");
+            }
+        }
+
+        /// <summary>
+        /// Called when a multi-range step query completes
+        /// </summary>
+        public void OnStepRangesReceived(string jsonResult) {
+            Debug.Log($"[HealthConnectProvider] OnStepRangesReceived: {jsonResult}");
+            
+            try {
+                HealthConnectStepRangesResult result = JsonUtility.FromJson<HealthConnectStepRangesResult>(jsonResult);
+                OnStepRangesQueried?.Invoke(result);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to parse step ranges: {e.Message}");
+            }
+        }
+
+        /// <summary>
+        /// Called when a multi-metric query completes
+        /// </summary>
+        public void OnMetricsReceived(string jsonResult) {
+            Debug.Log($"[HealthConnectProvider] OnMetricsReceived: {jsonResult}");
+            
+            try {
+                HealthConnectMetricsResult result = JsonUtility.FromJson<HealthConnectMetricsResult>(jsonResult);
+                OnMetricsQueried?.Invoke(result);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to parse metrics: {e.Message}");
+            }
+        }
+
+        /// <summary>
+        /// Called when an incremental step sync completes
+        /// </summary>
+        public void OnStepChangesReceived(string jsonResult) {
+            Debug.Log($"[HealthConnectProvider] OnStepChangesReceived: {jsonResult}");
+            
+            try {
+                HealthConnectStepChangesResult result = JsonUtility.FromJson<HealthConnectStepChangesResult>(jsonResult);
+                OnStepChangesQueried?.Invoke(result);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to parse step changes: {e.Message}");
+            }
+        }
+
+        /// <summary>
+        /// Called once per page of step records
         /// </summary>
         public void OnStepRecordsReceived(string jsonResult) {
-            Debug.Log($"[HealthConnectProvider] OnStepRecordsReceived: {jsonResult}");
+            try {
+                HealthConnectStepRecordChunk chunk = JsonUtility.FromJson<HealthConnectStepRecordChunk>(jsonResult);
+                Debug.Log($"[HealthConnectProvider] OnStepRecordsReceived: chunk {chunk.sequence}, {chunk.count} records, end: {chunk.endOfStream}");
+                OnStepRecordsChunkReceived?.Invoke(chunk);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to parse step records: {e.Message}");
+            }
+        }
+
+        /// <summary>
+        /// Called with the results the native plugin coalesced within one batching window.
+        /// Each message is handled as if it had been sent on its own.
+        /// </summary>
+        public void OnBatchedMessages(string jsonBatch) {
+            HealthConnectMessageBatch batch;
+            try {
+                batch = JsonUtility.FromJson<HealthConnectMessageBatch>(jsonBatch);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to parse message batch: {e.Message}");
+                return;
+            }
+
+            if (batch?.messages == null)
+                return;
+
+            foreach (HealthConnectBatchedMessage message in batch.messages) {
+                DispatchNativeMessage(message.method, message.payload);
+            }
+        }
+
+        /// <summary>
+        /// Called when a binary result is ready. The buffer is fetched by handle, read in place
+        /// and released back to the plugin.
+        /// </summary>
+        public void OnBinaryResultReady(string handleText) {
+            if (!int.TryParse(handleText, out int handle)) {
+                Debug.LogError($"[HealthConnectProvider] Invalid binary result handle: {handleText}");
+                return;
+            }
+
+        #if UNITY_ANDROID && !UNITY_EDITOR
+            try {
+                using AndroidJavaObject buffer = _bridgeClass.CallStatic<AndroidJavaObject>("getResultBuffer", handle);
+                if (buffer == null) {
+                    Debug.LogWarning($"[HealthConnectProvider] Binary result {handle} is no longer available");
+                    return;
+                }
+
+                IntPtr address = AndroidJNI.GetDirectBufferAddress(buffer.GetRawObject());
+                long capacity = AndroidJNI.GetDirectBufferCapacity(buffer.GetRawObject());
+                DispatchBinaryResult(address, capacity);
+            }
+            catch (Exception e) {
+                Debug.LogError($"[HealthConnectProvider] Failed to read binary result: {e.Message}");
+            }
+            finally {
+                _bridgeClass?.CallStatic("releaseResultBuffer", handle);
+            }
+        #endif
         }
 
         /// <summary>
@@ -384,17 +1227,7 @@ namespace GimGim.StepTracking.StepTracking {
             
             try {
                 HealthConnectStepResult error = JsonUtility.FromJson<HealthConnectStepResult>(jsonError);
-                OnError?.Invoke(error.errorCode, error.errorMessage);
-
-                if (_stepDataCallback == null) 
-                    return;
-                
-                StepQueryData stepQueryData = StepQueryData.Failed(
-                    $"{error.errorCode}: {error.errorMessage}",
-                    StepSource.HealthConnect);
-                
-                _stepDataCallback.Invoke(stepQueryData);
-                _stepDataCallback = null;
+                HandleError(error.requestId, error.errorCode, error.errorMessage);
             }
             catch (Exception e) {
                 Debug.LogError($"[HealthConnectProvider] Failed to parse error: {e.Message}");